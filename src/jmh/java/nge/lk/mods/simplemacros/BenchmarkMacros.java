@@ -0,0 +1,38 @@
+package nge.lk.mods.simplemacros;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates macro libraries for benchmarks.
+ */
+final class BenchmarkMacros {
+
+    private BenchmarkMacros() {
+    }
+
+    /**
+     * Generates a macro library. A tenth of the macros is global, the rest is spread over 16 groups.
+     *
+     * @param count The number of macros.
+     * @param seed The random seed.
+     *
+     * @return The macros.
+     */
+    static List<Macro> generate(final int count, final long seed) {
+        final Random random = new Random(seed);
+        final List<Macro> macros = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final String group = i % 10 == 0 ? "" : "group" + random.nextInt(16);
+            final List<String> commands = new ArrayList<>();
+            final int commandCount = 1 + random.nextInt(8);
+            for (int j = 0; j < commandCount; j++) {
+                commands.add("/msg player" + random.nextInt(1000) + " benchmark command " + j);
+            }
+            macros.add(new Macro(group, random.nextBoolean(), random.nextBoolean(), 2 + random.nextInt(200),
+                    50 * (1 + random.nextInt(20)), commands));
+        }
+        return macros;
+    }
+}
@@ -0,0 +1,81 @@
+package nge.lk.mods.simplemacros;
+
+import org.lwjgl.input.Keyboard;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+
+/**
+ * Benchmarks the macro matching of a key event, including the snapshot of the keyboard. Every fourth macro has a
+ * chord.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DispatchBenchmark {
+
+    /**
+     * The number of pre-generated key events.
+     */
+    private static final int EVENT_COUNT = 1024;
+
+    @Param({"10", "1000", "10000"})
+    private int macroCount;
+
+    private final MacroIndex index = new MacroIndex();
+
+    private final int[] keys = new int[EVENT_COUNT];
+
+    private final boolean[][] heldKeys = new boolean[EVENT_COUNT][KeyState.KEY_COUNT];
+
+    private final KeyState state = new KeyState();
+
+    private final List<Macro> matched = new ArrayList<>();
+
+    private boolean[] current;
+
+    private final IntPredicate keyDown = key -> current[key];
+
+    private int event;
+
+    @Setup
+    public void setup() {
+        final List<Macro> macros = BenchmarkMacros.generate(macroCount, 1);
+        final Random random = new Random(2);
+        for (int i = 0; i < macros.size(); i += 4) {
+            macros.get(i).setChord(new int[]{Keyboard.KEY_LMENU, 2 + random.nextInt(200)});
+        }
+        index.rebuild(macros);
+        index.cycleGroup();
+
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            keys[i] = 2 + random.nextInt(200);
+            heldKeys[i][keys[i]] = true;
+            heldKeys[i][Keyboard.KEY_LCONTROL] = random.nextBoolean();
+            heldKeys[i][Keyboard.KEY_LSHIFT] = random.nextBoolean();
+            heldKeys[i][Keyboard.KEY_LMENU] = random.nextBoolean();
+            heldKeys[i][2 + random.nextInt(200)] = random.nextBoolean();
+        }
+    }
+
+    @Benchmark
+    public int matchKeyEvent() {
+        final int i = event++ & (EVENT_COUNT - 1);
+        current = heldKeys[i];
+        state.capture(keyDown);
+        state.recordPress(keys[i], i);
+        index.match(keys[i], state, matched);
+        return matched.size();
+    }
+}
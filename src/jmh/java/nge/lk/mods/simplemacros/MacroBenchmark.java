@@ -0,0 +1,40 @@
+package nge.lk.mods.simplemacros;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the export and save check of single macros.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MacroBenchmark {
+
+    private List<Macro> macros;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        macros = BenchmarkMacros.generate(256, 5);
+    }
+
+    @Benchmark
+    public String getExport() {
+        return macros.get(next++ & 255).getExport();
+    }
+
+    @Benchmark
+    public boolean shouldSave() {
+        return macros.get(next++ & 255).shouldSave();
+    }
+}
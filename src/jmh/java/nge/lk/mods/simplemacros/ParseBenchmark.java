@@ -0,0 +1,92 @@
+package nge.lk.mods.simplemacros;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks parsing the lines of text files and decoding binary files sequentially and in parallel, and validating
+ * the parsed macros.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParseBenchmark {
+
+    @Param({"1000", "50000"})
+    private int macroCount;
+
+    private List<String> lines;
+
+    private int[] lineNumbers;
+
+    private List<Macro> macros;
+
+    private byte[] binary;
+
+    @Setup
+    public void setup() {
+        macros = BenchmarkMacros.generate(macroCount, 5);
+        lines = new ArrayList<>(macros.size());
+        lineNumbers = new int[macros.size()];
+        final StringBuilder buffer = new StringBuilder();
+        for (int i = 0; i < macros.size(); i++) {
+            buffer.setLength(0);
+            MacroTextCodec.encode(macros.get(i), buffer);
+            lines.add(buffer.toString());
+            lineNumbers[i] = i + 2;
+        }
+        binary = BinaryMacroFormat.encode(macros);
+    }
+
+    @Benchmark
+    public List<Macro> parseSequential() {
+        return parse(false);
+    }
+
+    @Benchmark
+    public List<Macro> parseParallel() {
+        return parse(true);
+    }
+
+    @Benchmark
+    public List<Macro> decodeSequential() throws IOException {
+        return BinaryMacroFormat.decode(ByteBuffer.wrap(binary), false);
+    }
+
+    @Benchmark
+    public List<Macro> decodeParallel() throws IOException {
+        return BinaryMacroFormat.decode(ByteBuffer.wrap(binary), true);
+    }
+
+    @Benchmark
+    public List<String> validate() {
+        return MacroValidator.validate(macros);
+    }
+
+    /**
+     * Parses the lines like they are read from a file.
+     *
+     * @param parallel Whether full chunks are parsed on the fork-join pool.
+     *
+     * @return The macros.
+     */
+    private List<Macro> parse(final boolean parallel) {
+        final ChunkedParser parser = new ChunkedParser(parallel);
+        for (int i = 0; i < lines.size(); i++) {
+            parser.accept(lines.get(i), lineNumbers[i]);
+        }
+        return parser.finish();
+    }
+}
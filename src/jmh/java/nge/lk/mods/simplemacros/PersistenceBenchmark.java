@@ -0,0 +1,60 @@
+package nge.lk.mods.simplemacros;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks loading and saving of large macro files in both formats.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PersistenceBenchmark {
+
+    @Param({"1000", "50000"})
+    private int macroCount;
+
+    @Param({"text", "binary"})
+    private String format;
+
+    private File file;
+
+    private MacroIO macroIO;
+
+    private List<Macro> macros;
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("macros", ".dat");
+        macroIO = new MacroIO(file, "binary".equals(format), null, null);
+        macros = BenchmarkMacros.generate(macroCount, 4);
+        macroIO.saveState(macros);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public List<Macro> loadState() {
+        return macroIO.loadState();
+    }
+
+    @Benchmark
+    public void saveState() {
+        macroIO.saveState(macros);
+    }
+}
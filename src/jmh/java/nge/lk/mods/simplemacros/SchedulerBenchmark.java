@@ -0,0 +1,72 @@
+package nge.lk.mods.simplemacros;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks enqueueing and draining of tick runnables.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SchedulerBenchmark {
+
+    /**
+     * The number of ticks over which the pending tasks are spread.
+     */
+    private static final int WINDOW = 4096;
+
+    @Param({"1000", "100000"})
+    private int pending;
+
+    private TickScheduler scheduler;
+
+    private Random random;
+
+    private long tick;
+
+    @Setup
+    public void setup() {
+        scheduler = new TickScheduler();
+        random = new Random(3);
+        for (int i = 0; i < pending; i++) {
+            new RepeatingTask().reschedule();
+        }
+    }
+
+    /**
+     * Advances one tick. Every task that runs reschedules itself, so the number of pending tasks stays constant.
+     *
+     * @return The number of pending tasks.
+     */
+    @Benchmark
+    public int advanceTick() {
+        tick++;
+        scheduler.advanceTo(tick);
+        return scheduler.size();
+    }
+
+    /**
+     * A task which reschedules itself at a random distance.
+     */
+    private class RepeatingTask extends TickScheduler.Task {
+
+        private void reschedule() {
+            scheduler.schedule(this, tick + 1 + random.nextInt(WINDOW));
+        }
+
+        @Override
+        public void run() {
+            reschedule();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package nge.lk.mods.simplemacros;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the headless simulation of the macro runtime with a generated input trace, in simulated ticks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SimulationBenchmark {
+
+    /**
+     * The number of simulated ticks per invocation.
+     */
+    private static final int TICKS = 100000;
+
+    @Param({"100", "10000"})
+    private int macroCount;
+
+    private List<Macro> macros;
+
+    private List<long[]> trace;
+
+    private MacroSimulation simulation;
+
+    @Setup
+    public void setup() {
+        macros = BenchmarkMacros.generate(macroCount, 1);
+        trace = MacroSimulation.generateTrace(macros, TICKS, 5);
+    }
+
+    @Setup(Level.Invocation)
+    public void newSimulation() {
+        simulation = new MacroSimulation(macros, false);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TICKS)
+    public long simulateTicks() {
+        simulation.run(trace, TICKS);
+        return simulation.getSent();
+    }
+}
@@ -0,0 +1,44 @@
+package nge.lk.mods.simplemacros;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks rendering plain and templated commands with fixed variable values.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TemplateBenchmark {
+
+    private final CommandTemplate plain = CommandTemplate.compile("/tp Steve 100 64 -200");
+
+    private final CommandTemplate templated = CommandTemplate.compile("/tp {player} {x} {y} {z}");
+
+    private final CommandTemplate.VariableSource values = (variable, out) -> out.append(variable.ordinal() * 37);
+
+    private final StringBuilder buffer = new StringBuilder();
+
+    private long counter;
+
+    @Benchmark
+    public String renderPlain() {
+        return plain.render(values, counter++, buffer);
+    }
+
+    @Benchmark
+    public String renderTemplated() {
+        return templated.render(values, counter++, buffer);
+    }
+
+    @Benchmark
+    public CommandTemplate compile() {
+        return CommandTemplate.compile("/tp {player} {x} {y} {z}");
+    }
+}
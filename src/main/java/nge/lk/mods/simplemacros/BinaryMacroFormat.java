@@ -0,0 +1,503 @@
+package nge.lk.mods.simplemacros;
+
+import lombok.RequiredArgsConstructor;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The compact binary format for macros.
+ *
+ * The file starts with a header (magic, format version, string count, macro count, command reference count, trigger
+ * key count), followed by fixed-width macro records, the command references, the chord and sequence keys and finally
+ * the string table. Commands, groups and chat triggers are stored once in the string table and referenced by their
+ * index. Files of version 1, which have no trigger keys, and version 2, which have no chat triggers, can still be
+ * read.
+ *
+ * Only the string table has entries of variable length. It is decoded first, after which each record can be decoded
+ * on its own, so large files are decoded in parallel on the fork-join pool.
+ */
+public final class BinaryMacroFormat {
+
+    /**
+     * The magic number at the start of binary files ("SMCR").
+     */
+    private static final int MAGIC = 0x534D4352;
+
+    /**
+     * The current version of the binary format.
+     */
+    private static final int VERSION = 3;
+
+    /**
+     * The size of the header in bytes.
+     */
+    private static final int HEADER_SIZE = 24;
+
+    /**
+     * The size of a macro record in bytes.
+     */
+    private static final int RECORD_SIZE = 36;
+
+    /**
+     * The size of a macro record in bytes in version 2.
+     */
+    private static final int V2_RECORD_SIZE = 32;
+
+    /**
+     * The size of the header in bytes in version 1.
+     */
+    private static final int V1_HEADER_SIZE = 20;
+
+    /**
+     * The size of a macro record in bytes in version 1.
+     */
+    private static final int V1_RECORD_SIZE = 24;
+
+    /**
+     * The record flag for the shift modifier.
+     */
+    private static final int FLAG_SHIFT = 1;
+
+    /**
+     * The record flag for the ctrl modifier.
+     */
+    private static final int FLAG_CTRL = 2;
+
+    /**
+     * The position of the mode in the record flags.
+     */
+    private static final int MODE_SHIFT = 2;
+
+    /**
+     * The mask of the mode in the record flags, after shifting.
+     */
+    private static final int MODE_MASK = 3;
+
+    /**
+     * The number of records which are decoded as one chunk when decoding in parallel.
+     */
+    private static final int DECODE_CHUNK_SIZE = 1024;
+
+    private BinaryMacroFormat() {
+    }
+
+    /**
+     * Checks whether a file is stored in the binary format.
+     *
+     * @param file The file.
+     *
+     * @return Whether the file starts with the magic number of the binary format.
+     */
+    public static boolean isBinary(final File file) {
+        if (file.length() < V1_HEADER_SIZE) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        } catch (final IOException ignored) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes macros to a file.
+     *
+     * @param file The file.
+     * @param macros The macros, of which only those that should be saved are written.
+     *
+     * @throws IOException If writing fails.
+     */
+    public static void write(final File file, final Iterable<Macro> macros) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            write(out, macros);
+        }
+    }
+
+    /**
+     * Encodes macros into memory.
+     *
+     * @param macros The macros, of which only those that should be saved are encoded.
+     *
+     * @return The encoded macros, in the same format as files.
+     */
+    public static byte[] encode(final Iterable<Macro> macros) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            write(out, macros);
+        } catch (final IOException e) {
+            // Writing to memory does not fail.
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes macros to a stream.
+     *
+     * @param stream The stream, which is flushed but not closed.
+     * @param macros The macros, of which only those that should be saved are written.
+     *
+     * @throws IOException If writing fails.
+     */
+    private static void write(final OutputStream stream, final Iterable<Macro> macros) throws IOException {
+        final Map<String, Integer> stringIds = new HashMap<>();
+        final List<String> strings = new ArrayList<>();
+        final List<Macro> saved = new ArrayList<>();
+        int refCount = 0;
+        int triggerKeyCount = 0;
+        for (final Macro macro : macros) {
+            if (!macro.shouldSave()) {
+                continue;
+            }
+            saved.add(macro);
+            intern(macro.getGroup(), stringIds, strings);
+            intern(macro.getChatTrigger(), stringIds, strings);
+            for (final String command : macro.getCommands()) {
+                intern(command, stringIds, strings);
+            }
+            refCount += macro.getCommands().size();
+            triggerKeyCount += macro.getTriggerSize();
+        }
+
+        final DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(strings.size());
+        out.writeInt(saved.size());
+        out.writeInt(refCount);
+        out.writeInt(triggerKeyCount);
+
+        int firstRef = 0;
+        int firstTriggerKey = 0;
+        for (final Macro macro : saved) {
+            out.writeInt(stringIds.get(macro.getGroup()));
+            out.writeInt((macro.isShiftModifier() ? FLAG_SHIFT : 0) | (macro.isCtrlModifier() ? FLAG_CTRL : 0)
+                    | macro.getMode().ordinal() << MODE_SHIFT);
+            out.writeInt(macro.getMacroKey());
+            out.writeInt(macro.getDelay());
+            out.writeInt(firstRef);
+            out.writeInt(macro.getCommands().size());
+            out.writeInt(firstTriggerKey);
+            out.writeInt(macro.getChord().length << 16 | macro.getSequence().length);
+            out.writeInt(stringIds.get(macro.getChatTrigger()));
+            firstRef += macro.getCommands().size();
+            firstTriggerKey += macro.getTriggerSize();
+        }
+        for (final Macro macro : saved) {
+            for (final String command : macro.getCommands()) {
+                out.writeInt(stringIds.get(command));
+            }
+        }
+        for (final Macro macro : saved) {
+            for (final int key : macro.getChord()) {
+                out.writeInt(key);
+            }
+            for (final int key : macro.getSequence()) {
+                out.writeInt(key);
+            }
+        }
+        for (final String string : strings) {
+            final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads macros from a file by mapping it into memory.
+     *
+     * @param file The file.
+     *
+     * @return The macros.
+     *
+     * @throws IOException If reading fails or the file is malformed.
+     */
+    public static List<Macro> read(final File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try {
+                return decode(buffer);
+            } catch (final RuntimeException e) {
+                throw new IOException("Malformed binary macro file " + file, e);
+            } finally {
+                unmap(buffer);
+            }
+        }
+    }
+
+    /**
+     * Decodes macros from a buffer. Large buffers are decoded in parallel if there are multiple processors.
+     *
+     * @param buffer The buffer, positioned at the header.
+     *
+     * @return The macros.
+     *
+     * @throws IOException If the header is invalid. Malformed contents cause runtime exceptions.
+     */
+    public static List<Macro> decode(final ByteBuffer buffer) throws IOException {
+        return decode(buffer, ForkJoinPool.getCommonPoolParallelism() > 1);
+    }
+
+    /**
+     * Decodes macros from a buffer.
+     *
+     * @param buffer The buffer, positioned at the header.
+     * @param parallel Whether the records are decoded on the fork-join pool if there are more than one chunk.
+     *
+     * @return The macros.
+     *
+     * @throws IOException If the header is invalid. Malformed contents cause runtime exceptions.
+     */
+    static List<Macro> decode(final ByteBuffer buffer, final boolean parallel) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a binary macro file");
+        }
+        final int version = buffer.getInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported binary macro format version " + version);
+        }
+        final int stringCount = buffer.getInt();
+        final int macroCount = buffer.getInt();
+        final int refCount = buffer.getInt();
+        final int triggerKeyCount = version == 1 ? 0 : buffer.getInt();
+        final int headerSize = version == 1 ? V1_HEADER_SIZE : HEADER_SIZE;
+        final int recordSize = version == 1 ? V1_RECORD_SIZE : version == 2 ? V2_RECORD_SIZE : RECORD_SIZE;
+
+        // Decode the string table first, it is located after the fixed-width parts.
+        final int refsOffset = headerSize + macroCount * recordSize;
+        final int triggerKeysOffset = refsOffset + refCount * 4;
+        buffer.position(triggerKeysOffset + triggerKeyCount * 4);
+        final String[] strings = new String[stringCount];
+        byte[] scratch = new byte[256];
+        for (int i = 0; i < stringCount; i++) {
+            final int length = buffer.getInt();
+            if (length > scratch.length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            buffer.get(scratch, 0, length);
+            strings[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        final RecordDecoder decoder = new RecordDecoder(buffer, strings, version, headerSize, recordSize, refsOffset,
+                triggerKeysOffset, new Macro[macroCount], new AtomicReference<>(), 0, macroCount);
+        if (parallel && macroCount > DECODE_CHUNK_SIZE) {
+            ForkJoinPool.commonPool().invoke(decoder);
+            // Only raised once every part is done, since the buffer may be unmapped afterwards.
+            if (decoder.failure.get() != null) {
+                throw decoder.failure.get();
+            }
+        } else {
+            decoder.decodeRecords();
+        }
+        return new ArrayList<>(Arrays.asList(decoder.results));
+    }
+
+    /**
+     * Reads consecutive keys.
+     *
+     * @param buffer The buffer.
+     * @param offset The offset of the first key.
+     * @param count The number of keys.
+     *
+     * @return The keys.
+     */
+    private static int[] readKeys(final ByteBuffer buffer, final int offset, final int count) {
+        if (count == 0) {
+            return KeyState.NO_KEYS;
+        }
+        final int[] keys = new int[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = buffer.getInt(offset + i * 4);
+        }
+        return keys;
+    }
+
+    /**
+     * Adds a string to the string table if it is not yet contained.
+     *
+     * @param string The string.
+     * @param stringIds The indices of the strings in the table.
+     * @param strings The string table.
+     */
+    private static void intern(final String string, final Map<String, Integer> stringIds,
+                               final List<String> strings) {
+        if (!stringIds.containsKey(string)) {
+            stringIds.put(string, strings.size());
+            strings.add(string);
+        }
+    }
+
+    /**
+     * Releases a mapped buffer early. Windows refuses to replace files which are still mapped, and mappings are
+     * otherwise only released when the buffer is garbage collected.
+     *
+     * @param buffer The buffer.
+     */
+    private static void unmap(final MappedByteBuffer buffer) {
+        try {
+            final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            final Object cleaner = cleanerMethod.invoke(buffer);
+            cleaner.getClass().getMethod("clean").invoke(cleaner);
+        } catch (final ReflectiveOperationException | RuntimeException ignored) {
+            // Not supported by this JVM, the mapping is released by the garbage collector.
+        }
+    }
+
+    /**
+     * Decodes a range of records, splitting it on the fork-join pool. Records are only read at absolute offsets, so
+     * the buffer is shared, and each record stores its macro at its own index, so the results keep their order.
+     *
+     * The parts never fail, but record the first failure instead. A failed part would otherwise be raised while the
+     * other parts still read the buffer.
+     */
+    @RequiredArgsConstructor
+    private static class RecordDecoder extends RecursiveAction {
+
+        /**
+         * The version of the serialized form.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The buffer.
+         */
+        private final ByteBuffer buffer;
+
+        /**
+         * The decoded string table.
+         */
+        private final String[] strings;
+
+        /**
+         * The format version.
+         */
+        private final int version;
+
+        /**
+         * The size of the header in bytes.
+         */
+        private final int headerSize;
+
+        /**
+         * The size of a record in bytes.
+         */
+        private final int recordSize;
+
+        /**
+         * The offset of the command references.
+         */
+        private final int refsOffset;
+
+        /**
+         * The offset of the trigger keys.
+         */
+        private final int triggerKeysOffset;
+
+        /**
+         * The decoded macros of all records.
+         */
+        private final Macro[] results;
+
+        /**
+         * The first failure of any part.
+         */
+        private final AtomicReference<RuntimeException> failure;
+
+        /**
+         * The first record of the range.
+         */
+        private final int from;
+
+        /**
+         * The end of the range, exclusive.
+         */
+        private final int to;
+
+        @Override
+        protected void compute() {
+            if (to - from <= DECODE_CHUNK_SIZE) {
+                try {
+                    decodeRecords();
+                } catch (final RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                }
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(split(from, middle), split(middle, to));
+        }
+
+        /**
+         * Creates a decoder for a part of the range.
+         *
+         * @param start The first record of the part.
+         * @param end The end of the part, exclusive.
+         *
+         * @return The decoder.
+         */
+        private RecordDecoder split(final int start, final int end) {
+            return new RecordDecoder(buffer, strings, version, headerSize, recordSize, refsOffset, triggerKeysOffset,
+                    results, failure, start, end);
+        }
+
+        /**
+         * Decodes the records of the range on the calling thread.
+         */
+        private void decodeRecords() {
+            for (int i = from; i < to; i++) {
+                final int record = headerSize + i * recordSize;
+                final String group = strings[buffer.getInt(record)];
+                final int flags = buffer.getInt(record + 4);
+                final int macroKey = buffer.getInt(record + 8);
+                final int delay = buffer.getInt(record + 12);
+                final int firstRef = buffer.getInt(record + 16);
+                final int commandCount = buffer.getInt(record + 20);
+
+                final List<String> commands = new ArrayList<>(commandCount);
+                for (int j = 0; j < commandCount; j++) {
+                    commands.add(strings[buffer.getInt(refsOffset + (firstRef + j) * 4)]);
+                }
+                final Macro macro = new Macro(group, (flags & FLAG_SHIFT) != 0, (flags & FLAG_CTRL) != 0, macroKey,
+                        delay, commands);
+                macro.setMode(MacroMode.values()[flags >> MODE_SHIFT & MODE_MASK]);
+                if (version != 1) {
+                    final int firstTriggerKey = buffer.getInt(record + 24);
+                    final int triggerCounts = buffer.getInt(record + 28);
+                    final int chordOffset = triggerKeysOffset + firstTriggerKey * 4;
+                    macro.setChord(readKeys(buffer, chordOffset, triggerCounts >>> 16));
+                    macro.setSequence(readKeys(buffer, chordOffset + (triggerCounts >>> 16) * 4,
+                            triggerCounts & 0xFFFF));
+                }
+                if (version >= 3) {
+                    macro.setChatTrigger(strings[buffer.getInt(record + 32)]);
+                }
+                results[i] = macro;
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package nge.lk.mods.simplemacros;
+
+import org.lwjgl.input.Keyboard;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Records a key binding from the keys pressed in the editor.
+ *
+ * The last pressed key becomes the macro key. The keys which are held down with it form the chord, and the keys which
+ * were pressed and released before it form the sequence. A key which is still held when the next key is pressed only
+ * belongs to the chord, so holding Alt and G and then pressing 1 records Alt-G-1. Ctrl and shift are recorded as
+ * modifiers.
+ */
+public class BindingRecorder {
+
+    /**
+     * The maximum number of keys which can be pressed before the macro key in a recorded sequence.
+     */
+    private static final int MAX_SEQUENCE_KEYS = 4;
+
+    /**
+     * The keys which were pressed so far and are not held anymore, excluding modifiers, followed by the latest key.
+     */
+    private final List<Integer> keys = new ArrayList<>();
+
+    /**
+     * The snapshot of the keyboard at the latest key press.
+     */
+    private final KeyState state = new KeyState();
+
+    /**
+     * The time of the latest key press, as returned by {@link System#nanoTime()}.
+     */
+    private long lastPress;
+
+    /**
+     * Records a key press. Presses of modifiers are ignored, they are taken from the keyboard state instead.
+     *
+     * @param key The pressed key.
+     * @param keyDown Checks whether a key is held down at the time of the press.
+     * @param time The time of the press, as returned by {@link System#nanoTime()}.
+     */
+    public void press(final int key, final IntPredicate keyDown, final long time) {
+        if (KeyState.isModifier(key)) {
+            return;
+        }
+        state.capture(keyDown);
+        // Keys which are still held are part of the chord, not of the sequence.
+        keys.removeIf(pressed -> pressed != key && state.isDown(pressed));
+        keys.add(key);
+        if (keys.size() > MAX_SEQUENCE_KEYS + 1) {
+            keys.remove(0);
+        }
+        lastPress = time;
+    }
+
+    /**
+     * Checks whether a key was recorded.
+     *
+     * @return Whether no key was recorded.
+     */
+    public boolean isEmpty() {
+        return keys.isEmpty();
+    }
+
+    /**
+     * Checks whether the binding is complete, i.e. no further key was pressed for a while.
+     *
+     * @param time The current time, as returned by {@link System#nanoTime()}.
+     *
+     * @return Whether a key was recorded and the sequence timed out.
+     */
+    public boolean isComplete(final long time) {
+        return !keys.isEmpty() && time - lastPress > KeyState.SEQUENCE_TIMEOUT;
+    }
+
+    /**
+     * Returns the recorded keys.
+     *
+     * @return The keys of the sequence, followed by the latest key.
+     */
+    public List<Integer> getKeys() {
+        return Collections.unmodifiableList(keys);
+    }
+
+    /**
+     * Assigns the recorded binding to a macro. At least one key has to be recorded.
+     *
+     * @param macro The macro.
+     */
+    public void applyTo(final Macro macro) {
+        final int macroKey = keys.get(keys.size() - 1);
+        final int[] sequence = new int[keys.size() - 1];
+        for (int i = 0; i < sequence.length; i++) {
+            sequence[i] = keys.get(i);
+        }
+
+        final int[] held = state.getHeldKeys();
+        int chordSize = 0;
+        for (final int key : held) {
+            if (isChordKey(key, macroKey)) {
+                held[chordSize++] = key;
+            }
+        }
+
+        macro.setMacroKey(macroKey);
+        macro.setShiftModifier(state.isShiftDown());
+        macro.setCtrlModifier(state.isCtrlDown());
+        macro.setChord(chordSize == 0 ? KeyState.NO_KEYS : Arrays.copyOf(held, chordSize));
+        macro.setSequence(sequence.length == 0 ? KeyState.NO_KEYS : sequence);
+    }
+
+    /**
+     * Forgets the recorded keys.
+     */
+    public void clear() {
+        keys.clear();
+    }
+
+    /**
+     * Checks whether a held key is part of the chord of a recorded binding.
+     *
+     * @param key The held key.
+     * @param macroKey The macro key of the binding.
+     *
+     * @return Whether the key is part of the chord. Ctrl and shift are stored as modifiers instead.
+     */
+    private static boolean isChordKey(final int key, final int macroKey) {
+        return key != macroKey && (key == Keyboard.KEY_LMENU || !KeyState.isModifier(key));
+    }
+}
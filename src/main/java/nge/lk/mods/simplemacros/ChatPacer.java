@@ -0,0 +1,383 @@
+package nge.lk.mods.simplemacros;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Paces outgoing chat messages of all macros with a token bucket.
+ *
+ * Every running macro sends through its own {@link Source}. Sources with pending messages take turns, so a long macro
+ * can not starve the others. Sources of a higher priority are always served first. The owner of a source is notified
+ * when each of its messages is actually sent. The pending messages of a source whose owner was cancelled are
+ * discarded without being sent.
+ *
+ * Producers which would queue messages without bound, i.e. looping macros, ask their source with
+ * {@link Source#tryProduce()} before each message and wait until their previous message was sent. Messages which
+ * exceed the queue limit are dropped.
+ */
+public class ChatPacer {
+
+    /**
+     * The number of ticks per second.
+     */
+    private static final int TICKS_PER_SECOND = 20;
+
+    /**
+     * Receives the paced messages.
+     */
+    private final ChatSink sink;
+
+    /**
+     * The number of tokens that are added each tick, or 0 if messages are not limited.
+     */
+    private final double tokensPerTick;
+
+    /**
+     * The maximum number of tokens, i.e. the largest burst of messages.
+     */
+    private final int burst;
+
+    /**
+     * The maximum number of queued messages. Further messages are dropped.
+     */
+    private final int maxQueued;
+
+    /**
+     * The sources with pending messages, for each priority.
+     */
+    private final List<Queue<Source>> rings = new ArrayList<>();
+
+    /**
+     * The available tokens.
+     */
+    private double tokens;
+
+    /**
+     * The number of queued messages.
+     */
+    private int queued;
+
+    /**
+     * The largest number of queued messages so far.
+     */
+    private int maxDepth;
+
+    /**
+     * The number of sent messages.
+     */
+    private long sent;
+
+    /**
+     * The number of dropped messages.
+     */
+    private long dropped;
+
+    /**
+     * The number of messages which were discarded because their source was cancelled.
+     */
+    private long cancelled;
+
+    /**
+     * The number of ticks in which messages had to wait for tokens.
+     */
+    private long throttledTicks;
+
+    /**
+     * The number of times a producer had to wait because its previous message was not sent yet.
+     */
+    private long producerWaits;
+
+    /**
+     * Constructor.
+     *
+     * @param sink Receives the paced messages.
+     * @param messagesPerSecond The sustained rate of messages, or 0 if messages are not limited.
+     * @param burst The largest burst of messages.
+     * @param maxQueued The maximum number of queued messages.
+     */
+    public ChatPacer(final ChatSink sink, final double messagesPerSecond, final int burst,
+                     final int maxQueued) {
+        this.sink = sink;
+        tokensPerTick = messagesPerSecond / TICKS_PER_SECOND;
+        this.burst = Math.max(1, burst);
+        this.maxQueued = maxQueued;
+        tokens = this.burst;
+        for (int i = 0; i < Priority.values().length; i++) {
+            rings.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Creates a new source of messages.
+     *
+     * @param priority The priority of the source.
+     * @param listener Is notified when messages of the source are sent, may be {@code null}.
+     *
+     * @return The source.
+     */
+    public Source newSource(final Priority priority, final SentListener listener) {
+        return new Source(priority, listener);
+    }
+
+    /**
+     * Refills the token bucket and sends as many messages as the tokens allow. Called once per tick.
+     */
+    public void onTick() {
+        onTick(null);
+    }
+
+    /**
+     * Refills the token bucket and sends as many messages as the tokens and the tick budget allow. Called once per
+     * tick.
+     *
+     * @param budget The budget of the current tick, or {@code null} for no limit.
+     */
+    public void onTick(final TickBudget budget) {
+        if (tokensPerTick > 0) {
+            tokens = Math.min(burst, tokens + tokensPerTick);
+        }
+        flush(budget);
+    }
+
+    /**
+     * Sends as many messages as the tokens allow, without refilling the token bucket.
+     */
+    public void flush() {
+        flush(null);
+    }
+
+    /**
+     * Sends as many messages as the tokens and the tick budget allow, without refilling the token bucket. Messages
+     * which exceed the budget stay queued in their order.
+     *
+     * @param budget The budget of the current tick, or {@code null} for no limit.
+     */
+    public void flush(final TickBudget budget) {
+        boolean first = true;
+        for (final Queue<Source> ring : rings) {
+            while (!ring.isEmpty()) {
+                if (ring.peek().isCancelled()) {
+                    ring.poll().discard();
+                    continue;
+                }
+                if (tokensPerTick > 0 && tokens < 1) {
+                    throttledTicks++;
+                    return;
+                }
+                if (budget != null && !budget.tryAcquire(first)) {
+                    return;
+                }
+                first = false;
+                final Source source = ring.poll();
+                final String message = source.messages[source.head];
+                final long stamp = source.stamps[source.head];
+                source.removeFirst();
+                queued--;
+                if (source.size > 0) {
+                    ring.add(source);
+                }
+                if (tokensPerTick > 0) {
+                    tokens--;
+                }
+                sent++;
+                sink.send(message);
+                if (source.listener != null) {
+                    source.listener.onSent(stamp);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of queued messages.
+     *
+     * @return The number of queued messages.
+     */
+    public int getQueued() {
+        return queued;
+    }
+
+    /**
+     * Returns a report of the pacing statistics, one entry per line.
+     *
+     * @return The report.
+     */
+    public List<String> report() {
+        final List<String> lines = new ArrayList<>();
+        lines.add("Chat: sent " + sent + ", queued " + queued + " (max " + maxDepth + "), dropped " + dropped
+                + ", cancelled " + cancelled + ", throttled ticks " + throttledTicks + ", producer waits "
+                + producerWaits);
+        return lines;
+    }
+
+    /**
+     * The priority of a source.
+     */
+    public enum Priority {
+
+        /**
+         * For messages which the player expects right away, e.g. of macros which run once per key press.
+         */
+        HIGH,
+
+        /**
+         * For messages which may wait, e.g. of looping macros.
+         */
+        NORMAL
+    }
+
+    /**
+     * Is notified when the messages of a source are sent.
+     */
+    @FunctionalInterface
+    public interface SentListener {
+
+        /**
+         * Called right after a message of the source was sent.
+         *
+         * @param stamp The stamp which was queued with the message.
+         */
+        void onSent(long stamp);
+
+        /**
+         * Checks whether the owner of the source was cancelled. The pending messages of cancelled sources are
+         * discarded before they are sent.
+         *
+         * @return Whether the owner was cancelled.
+         */
+        default boolean isCancelled() {
+            return false;
+        }
+    }
+
+    /**
+     * A source of messages, usually a running macro.
+     */
+    public final class Source {
+
+        /**
+         * The priority of this source.
+         */
+        private final Priority priority;
+
+        /**
+         * Is notified when messages are sent, or {@code null}.
+         */
+        private final SentListener listener;
+
+        /**
+         * The pending messages, in a ring starting at {@link #head}.
+         */
+        private String[] messages = new String[2];
+
+        /**
+         * The stamps of the pending messages, in the same positions.
+         */
+        private long[] stamps = new long[2];
+
+        /**
+         * The position of the first pending message.
+         */
+        private int head;
+
+        /**
+         * The number of pending messages.
+         */
+        private int size;
+
+        /**
+         * Constructor.
+         *
+         * @param priority The priority of this source.
+         * @param listener Is notified when messages are sent, or {@code null}.
+         */
+        private Source(final Priority priority, final SentListener listener) {
+            this.priority = priority;
+            this.listener = listener;
+        }
+
+        /**
+         * Queues a message, or drops it if the queue is full.
+         *
+         * @param message The message.
+         * @param stamp A value which is passed to the listener when the message is sent.
+         */
+        public void send(final String message, final long stamp) {
+            if (queued >= maxQueued) {
+                dropped++;
+                return;
+            }
+            if (size == 0) {
+                rings.get(priority.ordinal()).add(this);
+            } else if (size == messages.length) {
+                grow();
+            }
+            final int index = (head + size) % messages.length;
+            messages[index] = message;
+            stamps[index] = stamp;
+            size++;
+            queued++;
+            maxDepth = Math.max(maxDepth, queued);
+        }
+
+        /**
+         * Checks whether the producer may queue its next message, i.e. whether the previous messages were sent.
+         * Refusals are counted as producer waits.
+         *
+         * @return Whether no messages are pending.
+         */
+        public boolean tryProduce() {
+            if (size > 0) {
+                producerWaits++;
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Checks whether the owner of this source was cancelled.
+         *
+         * @return Whether the owner was cancelled.
+         */
+        private boolean isCancelled() {
+            return listener != null && listener.isCancelled();
+        }
+
+        /**
+         * Discards all pending messages.
+         */
+        private void discard() {
+            queued -= size;
+            cancelled += size;
+            while (size > 0) {
+                removeFirst();
+            }
+        }
+
+        /**
+         * Removes the first pending message.
+         */
+        private void removeFirst() {
+            messages[head] = null;
+            head = (head + 1) % messages.length;
+            size--;
+        }
+
+        /**
+         * Doubles the capacity of the ring, moving the pending messages to its start.
+         */
+        private void grow() {
+            final String[] newMessages = new String[messages.length * 2];
+            final long[] newStamps = new long[stamps.length * 2];
+            for (int i = 0; i < size; i++) {
+                newMessages[i] = messages[(head + i) % messages.length];
+                newStamps[i] = stamps[(head + i) % stamps.length];
+            }
+            messages = newMessages;
+            stamps = newStamps;
+            head = 0;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package nge.lk.mods.simplemacros;
+
+/**
+ * Receives the chat messages and commands sent by macros, after pacing.
+ */
+@FunctionalInterface
+public interface ChatSink {
+
+    /**
+     * Sends a chat message or command.
+     *
+     * @param message The message.
+     */
+    void send(String message);
+}
@@ -0,0 +1,238 @@
+package nge.lk.mods.simplemacros;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Finds the macros whose chat trigger occurs in a chat message.
+ *
+ * All chat triggers are compiled into one Aho-Corasick automaton, so a message is scanned once no matter how many
+ * triggers exist. Triggers are literal texts which are matched ignoring case.
+ */
+public class ChatTriggerMatcher {
+
+    /**
+     * The root state of the automaton.
+     */
+    private static final int ROOT = 0;
+
+    /**
+     * An empty list of pattern IDs.
+     */
+    private static final int[] NO_PATTERNS = new int[0];
+
+    /**
+     * The characters of the transitions of each state, sorted.
+     */
+    private char[][] edgeChars = {new char[0]};
+
+    /**
+     * The target states of the transitions of each state, in the order of {@link #edgeChars}.
+     */
+    private int[][] edgeTargets = {new int[0]};
+
+    /**
+     * The state to continue with if a state has no transition for a character.
+     */
+    private int[] fail = {ROOT};
+
+    /**
+     * The IDs of the patterns which end in each state, including those ending in its failure states.
+     */
+    private int[][] outputs = {NO_PATTERNS};
+
+    /**
+     * The macros of each pattern, indexed by pattern ID.
+     */
+    private Macro[][] patternMacros = new Macro[0][];
+
+    /**
+     * The scan in which each pattern last matched, indexed by pattern ID, so that patterns are reported once.
+     */
+    private int[] matchedInScan = new int[0];
+
+    /**
+     * The number of scans so far.
+     */
+    private int scans;
+
+    /**
+     * Rebuilds the automaton from the chat triggers of the given macros.
+     *
+     * @param macros The macros. Macros without a chat trigger are skipped.
+     */
+    public void rebuild(final Iterable<Macro> macros) {
+        final Map<String, List<Macro>> byPattern = new LinkedHashMap<>();
+        for (final Macro macro : macros) {
+            final String pattern = normalize(macro.getChatTrigger());
+            if (!pattern.isEmpty()) {
+                byPattern.computeIfAbsent(pattern, k -> new ArrayList<>(1)).add(macro);
+            }
+        }
+
+        // Build the trie.
+        final List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        final List<List<Integer>> ends = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        ends.add(new ArrayList<>(0));
+        final Macro[][] macrosById = new Macro[byPattern.size()][];
+        int id = 0;
+        for (final Map.Entry<String, List<Macro>> entry : byPattern.entrySet()) {
+            int state = ROOT;
+            for (final char c : entry.getKey().toCharArray()) {
+                Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.get(state).put(c, next);
+                    trie.add(new TreeMap<>());
+                    ends.add(new ArrayList<>(0));
+                }
+                state = next;
+            }
+            ends.get(state).add(id);
+            macrosById[id++] = entry.getValue().toArray(new Macro[0]);
+        }
+
+        // Freeze the transitions into sorted arrays.
+        final int stateCount = trie.size();
+        final char[][] chars = new char[stateCount][];
+        final int[][] targets = new int[stateCount][];
+        for (int state = 0; state < stateCount; state++) {
+            final TreeMap<Character, Integer> edges = trie.get(state);
+            chars[state] = new char[edges.size()];
+            targets[state] = new int[edges.size()];
+            int i = 0;
+            for (final Map.Entry<Character, Integer> edge : edges.entrySet()) {
+                chars[state][i] = edge.getKey();
+                targets[state][i++] = edge.getValue();
+            }
+        }
+
+        // Compute the failure states breadth-first, so the failure state of a state is done before the state.
+        final int[] failures = new int[stateCount];
+        final int[][] outs = new int[stateCount][];
+        outs[ROOT] = NO_PATTERNS;
+        final Queue<Integer> queue = new ArrayDeque<>();
+        for (final int child : targets[ROOT]) {
+            failures[child] = ROOT;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.poll();
+            outs[state] = merge(ends.get(state), outs[failures[state]]);
+            for (int i = 0; i < chars[state].length; i++) {
+                final int child = targets[state][i];
+                int failure = failures[state];
+                int next = step(chars, targets, failure, chars[state][i]);
+                while (next < 0 && failure != ROOT) {
+                    failure = failures[failure];
+                    next = step(chars, targets, failure, chars[state][i]);
+                }
+                failures[child] = next < 0 ? ROOT : next;
+                queue.add(child);
+            }
+        }
+
+        edgeChars = chars;
+        edgeTargets = targets;
+        fail = failures;
+        outputs = outs;
+        patternMacros = macrosById;
+        matchedInScan = new int[macrosById.length];
+        scans = 0;
+    }
+
+    /**
+     * Finds the macros whose chat trigger occurs in a message.
+     *
+     * @param message The message.
+     * @param matched The list to which the macros are written, each at most once. It is cleared first.
+     */
+    public void match(final String message, final List<Macro> matched) {
+        matched.clear();
+        if (patternMacros.length == 0) {
+            return;
+        }
+        final int scan = ++scans;
+        int state = ROOT;
+        for (int i = 0; i < message.length(); i++) {
+            final char c = Character.toLowerCase(message.charAt(i));
+            int next = step(edgeChars, edgeTargets, state, c);
+            while (next < 0 && state != ROOT) {
+                state = fail[state];
+                next = step(edgeChars, edgeTargets, state, c);
+            }
+            state = next < 0 ? ROOT : next;
+            for (final int pattern : outputs[state]) {
+                if (matchedInScan[pattern] != scan) {
+                    matchedInScan[pattern] = scan;
+                    matched.addAll(Arrays.asList(patternMacros[pattern]));
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether any macro has a chat trigger.
+     *
+     * @return Whether there are chat triggers.
+     */
+    public boolean isEmpty() {
+        return patternMacros.length == 0;
+    }
+
+    /**
+     * Follows the transition of a state for a character.
+     *
+     * @param chars The characters of the transitions of each state.
+     * @param targets The target states of the transitions of each state.
+     * @param state The state.
+     * @param c The character.
+     *
+     * @return The target state, or -1 if there is no transition.
+     */
+    private static int step(final char[][] chars, final int[][] targets, final int state, final char c) {
+        final int index = Arrays.binarySearch(chars[state], c);
+        return index < 0 ? -1 : targets[state][index];
+    }
+
+    /**
+     * Merges the patterns ending in a state with those of its failure state.
+     *
+     * @param own The patterns ending in the state.
+     * @param inherited The patterns of the failure state.
+     *
+     * @return The patterns.
+     */
+    private static int[] merge(final List<Integer> own, final int[] inherited) {
+        if (own.isEmpty()) {
+            return inherited;
+        }
+        final int[] merged = Arrays.copyOf(inherited, inherited.length + own.size());
+        for (int i = 0; i < own.size(); i++) {
+            merged[inherited.length + i] = own.get(i);
+        }
+        return merged;
+    }
+
+    /**
+     * Lower-cases a pattern the same way as the scanned messages.
+     *
+     * @param pattern The pattern.
+     *
+     * @return The lower-case pattern.
+     */
+    private static String normalize(final String pattern) {
+        final char[] chars = pattern.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+}
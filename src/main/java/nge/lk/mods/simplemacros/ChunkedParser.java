@@ -0,0 +1,157 @@
+package nge.lk.mods.simplemacros;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import nge.lk.mods.commonlib.util.DebugUtil;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
+
+/**
+ * Parses the lines of the text format as they are read, in chunks. Full chunks are parsed on the fork-join pool while
+ * further lines are collected, the last chunk is parsed on the calling thread.
+ *
+ * A parser is used for one file: lines are given with {@link #accept(String, Integer)}, then the macros are taken
+ * with {@link #finish()}.
+ */
+@RequiredArgsConstructor
+public class ChunkedParser implements BiConsumer<String, Integer> {
+
+    /**
+     * The number of lines which are parsed as one chunk.
+     */
+    private static final int CHUNK_SIZE = 1024;
+
+    /**
+     * Whether full chunks are parsed on the fork-join pool.
+     */
+    private final boolean parallel;
+
+    /**
+     * The chunks, in the order of their lines.
+     */
+    private final List<ParseTask> chunks = new ArrayList<>();
+
+    /**
+     * The chunk which is being filled, or {@code null}.
+     */
+    private ParseTask current;
+
+    /**
+     * The number of malformed lines, known after {@link #finish()}.
+     */
+    @Getter private int errorCount;
+
+    @Override
+    public void accept(final String line, final Integer lineNo) {
+        if (current == null) {
+            current = new ParseTask();
+            chunks.add(current);
+        }
+        current.add(line, lineNo);
+        if (current.isFull()) {
+            if (parallel) {
+                current.fork();
+            } else {
+                current.invoke();
+            }
+            current = null;
+        }
+    }
+
+    /**
+     * Parses the remaining lines and merges the chunks. Malformed lines are reported in their order and skipped.
+     *
+     * @return The macros, in the order of the lines.
+     */
+    public List<Macro> finish() {
+        if (current != null) {
+            current.invoke();
+            current = null;
+        }
+        final List<Macro> results = new ArrayList<>(chunks.size() * CHUNK_SIZE);
+        for (final ParseTask chunk : chunks) {
+            chunk.join();
+            for (int i = 0; i < chunk.size; i++) {
+                if (chunk.errors[i] != null) {
+                    DebugUtil.recoverableError(chunk.errors[i]);
+                    errorCount++;
+                } else {
+                    results.add(chunk.macros[i]);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Parses a chunk of lines. Each line stores its result at its own position, so the results keep their order.
+     */
+    private static class ParseTask extends RecursiveAction {
+
+        /**
+         * The version of the serialized form.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The lines.
+         */
+        private final String[] lines = new String[CHUNK_SIZE];
+
+        /**
+         * The number of each line.
+         */
+        private final int[] lineNumbers = new int[CHUNK_SIZE];
+
+        /**
+         * The parsed macros, {@code null} for malformed lines.
+         */
+        private final Macro[] macros = new Macro[CHUNK_SIZE];
+
+        /**
+         * The errors of malformed lines, {@code null} for valid lines.
+         */
+        private final IOException[] errors = new IOException[CHUNK_SIZE];
+
+        /**
+         * The number of lines in the chunk.
+         */
+        private int size;
+
+        /**
+         * Adds a line to the chunk.
+         *
+         * @param line The line.
+         * @param lineNo The number of the line.
+         */
+        private void add(final String line, final int lineNo) {
+            lines[size] = line;
+            lineNumbers[size] = lineNo;
+            size++;
+        }
+
+        /**
+         * Checks whether the chunk is full.
+         *
+         * @return Whether no further lines can be added.
+         */
+        private boolean isFull() {
+            return size == CHUNK_SIZE;
+        }
+
+        @Override
+        protected void compute() {
+            for (int i = 0; i < size; i++) {
+                try {
+                    macros[i] = MacroTextCodec.decode(lines[i], lineNumbers[i]);
+                } catch (final IOException e) {
+                    errors[i] = e;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package nge.lk.mods.simplemacros;
+
+import net.minecraft.command.CommandBase;
+import net.minecraft.command.ICommandSender;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.util.text.TextComponentString;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * A client command which prints the runtime metrics of the mod.
+ */
+public class CommandMacroStats extends CommandBase {
+
+    /**
+     * The number of macros listed in the report.
+     */
+    private static final int TOP_MACROS = 5;
+
+    /**
+     * The metrics.
+     */
+    private final MacroMetrics metrics;
+
+    /**
+     * The pacer for outgoing chat messages.
+     */
+    private final ChatPacer chatPacer;
+
+    /**
+     * Supplies the loaded macros.
+     */
+    private final Supplier<List<Macro>> macros;
+
+    /**
+     * Constructor.
+     *
+     * @param metrics The metrics.
+     * @param chatPacer The pacer for outgoing chat messages.
+     * @param macros Supplies the loaded macros.
+     */
+    public CommandMacroStats(final MacroMetrics metrics, final ChatPacer chatPacer,
+                             final Supplier<List<Macro>> macros) {
+        this.metrics = metrics;
+        this.chatPacer = chatPacer;
+        this.macros = macros;
+    }
+
+    @Override
+    public String getName() {
+        return "macrostats";
+    }
+
+    @Override
+    public String getUsage(final ICommandSender sender) {
+        return "/macrostats";
+    }
+
+    @Override
+    public boolean checkPermission(final MinecraftServer server, final ICommandSender sender) {
+        return true;
+    }
+
+    @Override
+    public void execute(final MinecraftServer server, final ICommandSender sender, final String[] args) {
+        for (final String line : metrics.report()) {
+            sender.sendMessage(new TextComponentString(line));
+        }
+        for (final String line : chatPacer.report()) {
+            sender.sendMessage(new TextComponentString(line));
+        }
+        for (final Macro macro : MacroMetrics.topMacros(macros.get(), TOP_MACROS)) {
+            sender.sendMessage(new TextComponentString("  " + macro.getBindingName() + ": " + macro.getTriggerCount()
+                    + "x, " + macro.getCommands().get(0)));
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package nge.lk.mods.simplemacros;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A command which is parsed once into literal text and placeholders like {@code {player}}.
+ *
+ * The template alternates between literals and variables, starting and ending with a (possibly empty) literal.
+ * Braces which do not enclose a known variable name are kept as literal text. Commands without placeholders are
+ * rendered without copying.
+ */
+public final class CommandTemplate {
+
+    /**
+     * The variables by their names.
+     */
+    private static final Map<String, Variable> VARIABLES = new HashMap<>();
+
+    /**
+     * The placeholder for commands which contain no variables.
+     */
+    private static final Variable[] NO_VARIABLES = new Variable[0];
+
+    static {
+        for (final Variable variable : Variable.values()) {
+            VARIABLES.put(variable.getName(), variable);
+        }
+    }
+
+    /**
+     * The command this template was parsed from.
+     */
+    @Getter private final String source;
+
+    /**
+     * The literals. The literal at index i precedes the variable at index i.
+     */
+    private final String[] literals;
+
+    /**
+     * The variables.
+     */
+    private final Variable[] variables;
+
+    /**
+     * Constructor.
+     *
+     * @param source The command this template was parsed from.
+     * @param literals The literals, one more than variables.
+     * @param variables The variables.
+     */
+    private CommandTemplate(final String source, final String[] literals, final Variable[] variables) {
+        this.source = source;
+        this.literals = literals;
+        this.variables = variables;
+    }
+
+    /**
+     * Parses a command into a template.
+     *
+     * @param command The command.
+     *
+     * @return The template.
+     */
+    public static CommandTemplate compile(final String command) {
+        final String source = command.intern();
+        final List<String> literals = new ArrayList<>();
+        final List<Variable> variables = new ArrayList<>();
+        int literalStart = 0;
+        int open = source.indexOf('{');
+        while (open >= 0) {
+            final int close = source.indexOf('}', open + 1);
+            if (close < 0) {
+                break;
+            }
+            final Variable variable = VARIABLES.get(source.substring(open + 1, close));
+            if (variable == null) {
+                // Not a placeholder, the brace is literal text. The closing brace could still start one.
+                open = source.indexOf('{', open + 1);
+                continue;
+            }
+            literals.add(source.substring(literalStart, open).intern());
+            variables.add(variable);
+            literalStart = close + 1;
+            open = source.indexOf('{', literalStart);
+        }
+
+        if (variables.isEmpty()) {
+            return new CommandTemplate(source, new String[]{source}, NO_VARIABLES);
+        }
+        literals.add(source.substring(literalStart).intern());
+        return new CommandTemplate(source, literals.toArray(new String[0]), variables.toArray(NO_VARIABLES));
+    }
+
+    /**
+     * Checks whether this template contains no variables.
+     *
+     * @return Whether this template renders to its source.
+     */
+    public boolean isConstant() {
+        return variables.length == 0;
+    }
+
+    /**
+     * Renders this template.
+     *
+     * @param values Provides the values of the variables.
+     * @param counter The value of {@link Variable#COUNTER}.
+     * @param buffer The buffer used for rendering. It is cleared before use.
+     *
+     * @return The rendered command.
+     */
+    public String render(final VariableSource values, final long counter, final StringBuilder buffer) {
+        if (variables.length == 0) {
+            return source;
+        }
+        buffer.setLength(0);
+        for (int i = 0; i < variables.length; i++) {
+            buffer.append(literals[i]);
+            if (variables[i] == Variable.COUNTER) {
+                buffer.append(counter);
+            } else {
+                values.append(variables[i], buffer);
+            }
+        }
+        buffer.append(literals[variables.length]);
+        return buffer.toString();
+    }
+
+    /**
+     * The variables which can be used in commands.
+     */
+    @RequiredArgsConstructor
+    public enum Variable {
+
+        /**
+         * The name of the player.
+         */
+        PLAYER("player"),
+
+        /**
+         * The x coordinate of the block the player stands in.
+         */
+        X("x"),
+
+        /**
+         * The y coordinate of the block the player stands in.
+         */
+        Y("y"),
+
+        /**
+         * The z coordinate of the block the player stands in.
+         */
+        Z("z"),
+
+        /**
+         * The name of the held item.
+         */
+        HELD("held"),
+
+        /**
+         * The contents of the clipboard.
+         */
+        CLIPBOARD("clipboard"),
+
+        /**
+         * How often the macro ran, counting each repetition of looping macros.
+         */
+        COUNTER("counter");
+
+        /**
+         * The name of the variable in placeholders.
+         */
+        @Getter private final String name;
+    }
+
+    /**
+     * Provides the values of variables.
+     */
+    public interface VariableSource {
+
+        /**
+         * Appends the current value of a variable. {@link Variable#COUNTER} is provided by the execution instead.
+         *
+         * @param variable The variable.
+         * @param out The buffer.
+         */
+        void append(Variable variable, StringBuilder out);
+    }
+}
@@ -0,0 +1,67 @@
+package nge.lk.mods.simplemacros;
+
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.GuiScreen;
+import net.minecraft.entity.player.EntityPlayer;
+import net.minecraft.item.ItemStack;
+
+/**
+ * Provides the values of command variables from the game. Values which are unavailable, e.g. outside of a world,
+ * are rendered as empty text.
+ */
+public class GameVariables implements CommandTemplate.VariableSource {
+
+    @Override
+    public void append(final CommandTemplate.Variable variable, final StringBuilder out) {
+        final EntityPlayer player = Minecraft.getMinecraft().player;
+        switch (variable) {
+            case PLAYER:
+                if (player != null) {
+                    out.append(player.getName());
+                }
+                break;
+            case X:
+                if (player != null) {
+                    out.append((long) Math.floor(player.posX));
+                }
+                break;
+            case Y:
+                if (player != null) {
+                    out.append((long) Math.floor(player.posY));
+                }
+                break;
+            case Z:
+                if (player != null) {
+                    out.append((long) Math.floor(player.posZ));
+                }
+                break;
+            case HELD:
+                if (player != null) {
+                    final ItemStack held = player.getHeldItemMainhand();
+                    if (!held.isEmpty()) {
+                        out.append(held.getDisplayName());
+                    }
+                }
+                break;
+            case CLIPBOARD:
+                appendSingleLine(GuiScreen.getClipboardString(), out);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Appends text with line breaks and other control characters replaced by spaces, since servers kick players for
+     * sending them.
+     *
+     * @param text The text.
+     * @param out The buffer.
+     */
+    private static void appendSingleLine(final String text, final StringBuilder out) {
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            out.append(c < ' ' || c == 127 ? ' ' : c);
+        }
+    }
+}
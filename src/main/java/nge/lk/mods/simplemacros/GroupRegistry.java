@@ -0,0 +1,139 @@
+package nge.lk.mods.simplemacros;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns canonical IDs to macro groups and tracks which macros are enabled in each group.
+ *
+ * Group names are case insensitive. The IDs are assigned in the order in which the groups first appear, which is also
+ * the order in which the groups are cycled through. The global group always has the ID {@link #GLOBAL}.
+ */
+public class GroupRegistry {
+
+    /**
+     * The ID of the global group, whose macros are always enabled.
+     */
+    public static final int GLOBAL = 0;
+
+    /**
+     * The IDs of the (lowercase) group names.
+     */
+    private final Map<String, Integer> ids = new HashMap<>();
+
+    /**
+     * The (lowercase) group names, indexed by ID.
+     */
+    private final List<String> names = new ArrayList<>();
+
+    /**
+     * The ordinals of the macros which are enabled in each group, indexed by ID.
+     */
+    private final List<BitSet> enabled = new ArrayList<>();
+
+    /**
+     * Constructor.
+     */
+    public GroupRegistry() {
+        register("");
+    }
+
+    /**
+     * Rebuilds the registry from the given macros. Assigns the group ID and ordinal of each macro.
+     *
+     * @param macros The macros.
+     * @param knownGroups The groups which are registered first, even if none of the macros are in them.
+     */
+    public void rebuild(final Iterable<Macro> macros, final Iterable<String> knownGroups) {
+        ids.clear();
+        names.clear();
+        enabled.clear();
+        register("");
+        for (final String group : knownGroups) {
+            register(group.toLowerCase());
+        }
+
+        int ordinal = 0;
+        for (final Macro macro : macros) {
+            final int id = register(macro.getGroup().toLowerCase());
+            macro.setGroupId(id);
+            macro.setOrdinal(ordinal);
+            enabled.get(id).set(ordinal);
+            ordinal++;
+        }
+
+        // Global macros are enabled in every group.
+        final BitSet global = enabled.get(GLOBAL);
+        for (int id = GLOBAL + 1; id < enabled.size(); id++) {
+            enabled.get(id).or(global);
+        }
+    }
+
+    /**
+     * Returns the ID of a group.
+     *
+     * @param name The name of the group.
+     *
+     * @return The ID, or {@link #GLOBAL} if the group does not exist.
+     */
+    public int getId(final String name) {
+        final Integer id = ids.get(name.toLowerCase());
+        return id == null ? GLOBAL : id;
+    }
+
+    /**
+     * Returns the (lowercase) name of a group.
+     *
+     * @param id The ID of the group.
+     *
+     * @return The name.
+     */
+    public String getName(final int id) {
+        return names.get(id);
+    }
+
+    /**
+     * Returns the group which follows a group in the group cycle.
+     *
+     * @param id The ID of the group.
+     *
+     * @return The ID of the next group.
+     */
+    public int next(final int id) {
+        return (id + 1) % names.size();
+    }
+
+    /**
+     * Checks whether a macro is enabled while a group is active.
+     *
+     * @param macro The macro, which must be registered.
+     * @param id The ID of the active group.
+     *
+     * @return Whether the macro is enabled.
+     */
+    public boolean isEnabled(final Macro macro, final int id) {
+        return enabled.get(id).get(macro.getOrdinal());
+    }
+
+    /**
+     * Registers a group if it is not yet registered.
+     *
+     * @param name The (lowercase) name of the group.
+     *
+     * @return The ID of the group.
+     */
+    private int register(final String name) {
+        final Integer existing = ids.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        final int id = names.size();
+        ids.put(name, id);
+        names.add(name);
+        enabled.add(new BitSet());
+        return id;
+    }
+}
@@ -1,5 +1,7 @@
 package nge.lk.mods.simplemacros;
 
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
 import nge.lk.mods.commonlib.gui.factory.GuiFactory;
 import nge.lk.mods.commonlib.gui.factory.Positioning;
 import nge.lk.mods.commonlib.gui.factory.element.ButtonElement;
@@ -9,27 +11,95 @@ import nge.lk.mods.commonlib.gui.factory.element.TextElement;
 import org.lwjgl.input.Keyboard;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.Locale;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 
 /**
  * An editor for creating or changing tabs.
+ *
+ * Every change creates a new version of the macros, which shares its structure with the previous version. The
+ * previous versions are kept for undo and redo. The final version replaces the macros of the runtime when the editor
+ * is closed.
  */
 public class GuiMacroManager extends GuiFactory implements Consumer<ButtonElement>, BiConsumer<SliderElement, Float>,
         BiFunction<SliderElement, Float, String> {
 
     /**
-     * The macro IO manager.
+     * The number of search results which are shown.
      */
-    private final MacroIO macroIO;
+    private static final int MAX_RESULTS = 3;
 
     /**
-     * The loaded macros.
+     * The maximum length of the caption of a search result.
      */
-    private final List<Macro> macros;
+    private static final int RESULT_CAPTION_LENGTH = 24;
+
+    /**
+     * The maximum number of versions which can be undone.
+     */
+    private static final int MAX_UNDO = 100;
+
+    /**
+     * The background saver for macros.
+     */
+    private final MacroSaver macroSaver;
+
+    /**
+     * The runtime whose macros are edited.
+     */
+    private final MacroRuntime runtime;
+
+    /**
+     * The versions before the current version, the latest first.
+     */
+    private final Deque<Version> undoVersions = new ArrayDeque<>();
+
+    /**
+     * The versions which were undone, the latest first.
+     */
+    private final Deque<Version> redoVersions = new ArrayDeque<>();
+
+    /**
+     * The step size of the delay slider in milliseconds.
+     */
+    private final int delayStep;
+
+    /**
+     * The buttons which show the search results.
+     */
+    private final ButtonElement[] resultButtons = new ButtonElement[MAX_RESULTS];
+
+    /**
+     * The current version of the macros.
+     */
+    private PersistentVector<Macro> macros;
+
+    /**
+     * The positions of the macros shown by the result buttons.
+     */
+    private List<Integer> results = new ArrayList<>();
+
+    /**
+     * The search index, which is built on the first search.
+     */
+    private MacroSearchIndex searchIndex;
+
+    /**
+     * The query of the shown search results.
+     */
+    private String lastQuery = "";
+
+    /**
+     * The text field for searching macros.
+     */
+    private InputElement searchInput;
 
     /**
      * The button to save the tab and return to the parent.
@@ -71,6 +141,11 @@ public class GuiMacroManager extends GuiFactory implements Consumer<ButtonElemen
      */
     private SliderElement delaySlider;
 
+    /**
+     * The button which changes the execution mode.
+     */
+    private ButtonElement modeButton;
+
     /**
      * The button for recording a key binding.
      */
@@ -81,6 +156,21 @@ public class GuiMacroManager extends GuiFactory implements Consumer<ButtonElemen
      */
     private InputElement groupInput;
 
+    /**
+     * The text field for the chat trigger.
+     */
+    private InputElement chatTriggerInput;
+
+    /**
+     * The button which undoes the latest change.
+     */
+    private ButtonElement undoButton;
+
+    /**
+     * The button which redoes the latest undone change.
+     */
+    private ButtonElement redoButton;
+
     /**
      * A pointer to the macro that's currently being edited.
      */
@@ -96,25 +186,57 @@ public class GuiMacroManager extends GuiFactory implements Consumer<ButtonElemen
      */
     private boolean recording;
 
+    /**
+     * Whether the latest change was made with the delay slider, so that dragging the slider is one change.
+     */
+    private boolean sliding;
+
+    /**
+     * Records the key binding while recording.
+     */
+    private final BindingRecorder bindingRecorder = new BindingRecorder();
+
     /**
      * Constructor.
      *
-     * @param macroIO The macro IO manager.
-     * @param macros The loaded macros.
+     * @param macroSaver The background saver for macros.
+     * @param runtime The runtime whose macros are edited. It must have at least one macro.
+     * @param delayStep The step size of the delay slider in milliseconds.
      */
-    public GuiMacroManager(final MacroIO macroIO, final List<Macro> macros) {
-        this.macroIO = macroIO;
-        this.macros = macros;
+    public GuiMacroManager(final MacroSaver macroSaver, final MacroRuntime runtime, final int delayStep) {
+        this.macroSaver = macroSaver;
+        this.runtime = runtime;
+        macros = runtime.getMacros();
+        this.delayStep = delayStep;
         createGui();
         loadMacro();
     }
 
     @Override
     public void accept(final ButtonElement buttonElement) {
+        if (recording && !bindingRecorder.isEmpty()) {
+            finishRecording();
+        }
+        final int result = Arrays.asList(resultButtons).indexOf(buttonElement);
         if (buttonElement == doneButton) {
             saveChanges();
-            macroIO.saveState(macros);
+            macroSaver.requestSave(macros);
             closeGui();
+        } else if (result >= 0) {
+            if (result < results.size()) {
+                saveChanges();
+                macroPointer = results.get(result);
+                commandPointer = findCommand(macros.get(macroPointer), lastQuery);
+                loadMacro();
+            }
+        } else if (buttonElement == undoButton) {
+            saveChanges();
+            restore(undoVersions, redoVersions);
+        } else if (buttonElement == redoButton) {
+            saveChanges();
+            restore(redoVersions, undoVersions);
+        } else if (buttonElement == modeButton) {
+            editMacro(macro -> macro.setMode(macro.getMode().next()));
         } else if (buttonElement == recordButton) {
             recording = true;
             updateCaptions();
@@ -135,8 +257,8 @@ public class GuiMacroManager extends GuiFactory implements Consumer<ButtonElemen
             saveChanges();
             if (macroPointer == macros.size() - 1) {
                 if (macros.get(macroPointer).shouldSave()) {
-                    macros.add(new Macro("", false, false, Keyboard.KEY_ESCAPE, 1000,
-                            new ArrayList<>()));
+                    commit(macros.plus(new Macro("", false, false, Keyboard.KEY_ESCAPE, 1000,
+                            new ArrayList<>())));
                     macroPointer++;
                     commandPointer = 0;
                     loadMacro();
@@ -151,7 +273,7 @@ public class GuiMacroManager extends GuiFactory implements Consumer<ButtonElemen
             final Macro macro = macros.get(macroPointer);
             if (commandPointer == macro.getCommands().size() - 1) {
                 if (!macro.getCommands().get(commandPointer).isEmpty()) {
-                    macro.getCommands().add("");
+                    editMacro(edited -> edited.getCommands().add(""));
                     commandPointer++;
                     loadMacro();
                 }
@@ -164,12 +286,31 @@ public class GuiMacroManager extends GuiFactory implements Consumer<ButtonElemen
 
     @Override
     public void accept(final SliderElement sliderElement, final Float val) {
-        macros.get(macroPointer).setDelay(val.intValue() * 50);
+        final Macro macro = macros.get(macroPointer).copyForEdit();
+        macro.setDelay(val.intValue() * delayStep);
+        if (macro.equals(macros.get(macroPointer))) {
+            return;
+        }
+        if (sliding) {
+            // The previous version already has the delay from before dragging.
+            macros = macros.with(macroPointer, macro);
+        } else {
+            replaceMacro(macro);
+            sliding = true;
+        }
     }
 
     @Override
     public String apply(final SliderElement sliderElement, final Float val) {
-        return Integer.toString(val.intValue() * 50) + "ms Delay";
+        return Integer.toString(val.intValue() * delayStep) + "ms Delay";
+    }
+
+    @Override
+    public void onGuiClosed() {
+        super.onGuiClosed();
+        // Changes are applied no matter how the editor was closed. Rebuilding cancels replaced and deleted macros.
+        runtime.setMacros(macros);
+        runtime.getMacroIndex().rebuild(macros);
     }
 
     @Override
@@ -177,24 +318,49 @@ public class GuiMacroManager extends GuiFactory implements Consumer<ButtonElemen
         if (recording) {
             if (keyCode == Keyboard.KEY_ESCAPE) {
                 recording = false;
-                macros.get(macroPointer).setMacroKey(Keyboard.KEY_ESCAPE);
-                updateCaptions();
-            } else if (keyCode != Keyboard.KEY_LSHIFT && keyCode != Keyboard.KEY_RSHIFT
-                    && keyCode != Keyboard.KEY_RCONTROL && keyCode != Keyboard.KEY_LCONTROL) {
-                recording = false;
-                final Macro macro = macros.get(macroPointer);
-                macro.setMacroKey(keyCode);
-                macro.setShiftModifier(Keyboard.isKeyDown(Keyboard.KEY_LSHIFT)
-                        || Keyboard.isKeyDown(Keyboard.KEY_RSHIFT));
-                macro.setCtrlModifier(Keyboard.isKeyDown(Keyboard.KEY_LCONTROL)
-                        || Keyboard.isKeyDown(Keyboard.KEY_RCONTROL));
+                bindingRecorder.clear();
+                editMacro(macro -> {
+                    macro.setMacroKey(Keyboard.KEY_ESCAPE);
+                    macro.setChord(KeyState.NO_KEYS);
+                    macro.setSequence(KeyState.NO_KEYS);
+                });
+            } else if (!KeyState.isModifier(keyCode) && !Keyboard.isRepeatEvent()) {
+                // The binding is complete once no further key was pressed for a while, see updateScreen().
+                bindingRecorder.press(keyCode, Keyboard::isKeyDown, System.nanoTime());
                 updateCaptions();
             }
+        } else if (isCtrlKeyDown() && (keyCode == Keyboard.KEY_Z || keyCode == Keyboard.KEY_Y)) {
+            saveChanges();
+            if (keyCode == Keyboard.KEY_Y || isShiftKeyDown()) {
+                restore(redoVersions, undoVersions);
+            } else {
+                restore(undoVersions, redoVersions);
+            }
         } else {
             super.keyTyped(typedChar, keyCode);
+            if (!searchInput.getTextField().getText().equals(lastQuery)) {
+                updateSearch();
+            }
+        }
+    }
+
+    @Override
+    public void updateScreen() {
+        super.updateScreen();
+        if (recording && bindingRecorder.isComplete(System.nanoTime())) {
+            finishRecording();
         }
     }
 
+    /**
+     * Assigns the recorded key binding to the current macro, see {@link BindingRecorder}.
+     */
+    private void finishRecording() {
+        recording = false;
+        editMacro(bindingRecorder::applyTo);
+        bindingRecorder.clear();
+    }
+
     @Override
     protected void createGui() {
         setPadding(0.05, 0.05, 0.1, 0.05);
@@ -202,6 +368,15 @@ public class GuiMacroManager extends GuiFactory implements Consumer<ButtonElemen
         addText(new Positioning().center()).setText("Macro Manager", 0xA0A0A0);
         addBlank(new Positioning().breakRow().absoluteHeight(15));
 
+        addText(new Positioning().breakRow()).setText("Search Macros", 0xA0A0A0);
+        searchInput = addInput(new Positioning().relativeWidth(30).absoluteHeight(20));
+        for (int i = 0; i < MAX_RESULTS; i++) {
+            final Positioning positioning = new Positioning().relativeWidth(20).absoluteHeight(20);
+            resultButtons[i] = addButton(this, i == MAX_RESULTS - 1 ? positioning.breakRow() : positioning);
+            resultButtons[i].getButton().visible = false;
+        }
+        addBlank(new Positioning().absoluteHeight(10).breakRow());
+
         pointerText = addText(new Positioning().breakRow());
         commandInput = addInput(new Positioning().relativeWidth(90).absoluteHeight(20).breakRow());
         commandInput.getTextField().setMaxStringLength(100);
@@ -218,21 +393,34 @@ public class GuiMacroManager extends GuiFactory implements Consumer<ButtonElemen
         prevCommandButton.getButton().displayString = "Prev Command";
         addBlank(new Positioning().absoluteHeight(10).breakRow());
 
-        addText(new Positioning().breakRow()).setText("Delay Between Commands", 0xA0A0A0);
-        delaySlider = addSlider(1, 50, 20, this, this,
-                new Positioning().relativeWidth(75).absoluteHeight(20).breakRow());
+        addText(new Positioning().breakRow()).setText("Delay Between Commands & Execution Mode", 0xA0A0A0);
+        delaySlider = addSlider(1, 2500 / delayStep, 1000 / delayStep, this, this,
+                new Positioning().relativeWidth(50).absoluteHeight(20));
+        modeButton = addButton(this, new Positioning().relativeWidth(35).absoluteHeight(20).breakRow());
         addBlank(new Positioning().absoluteHeight(10).breakRow());
 
         addText(new Positioning().breakRow()).setText("Key Binding & Macro Group", 0xA0A0A0);
         recordButton = addButton(this, new Positioning().relativeWidth(35).absoluteHeight(20));
         groupInput = addInput(new Positioning().breakRow().relativeWidth(35).absoluteHeight(20));
         groupInput.getTextField().setMaxStringLength(16);
+        addBlank(new Positioning().absoluteHeight(5).breakRow());
+
+        addText(new Positioning().breakRow()).setText("Chat Trigger (runs when a received message contains it)",
+                0xA0A0A0);
+        chatTriggerInput = addInput(new Positioning().breakRow().relativeWidth(70).absoluteHeight(20));
+        chatTriggerInput.getTextField().setMaxStringLength(100);
 
         addText(new Positioning().breakRow()).setText(
                 "By setting a macro group you can enable and disable multiple macros at the", 0xA0A0A0);
         addText(new Positioning().breakRow()).setText(
                 "same time. If you leave the text field empty the macro will be always enabled.",
                 0xA0A0A0);
+        addBlank(new Positioning().absoluteHeight(5).breakRow());
+
+        undoButton = addButton(this, new Positioning().relativeWidth(20).absoluteHeight(20));
+        undoButton.getButton().displayString = "Undo (Ctrl+Z)";
+        redoButton = addButton(this, new Positioning().relativeWidth(20).absoluteHeight(20).breakRow());
+        redoButton.getButton().displayString = "Redo (Ctrl+Y)";
 
         doneButton = addButton(this,
                 new Positioning().alignBottom().center().relativeWidth(30).absoluteHeight(20));
@@ -242,24 +430,144 @@ public class GuiMacroManager extends GuiFactory implements Consumer<ButtonElemen
     }
 
     /**
-     * Saves all changes in the GUI to the macro.
+     * Saves all changes in the text fields to the macro.
      */
     private void saveChanges() {
-        final Macro macro = macros.get(macroPointer);
-        macro.getCommands().set(commandPointer, commandInput.getTextField().getText());
-        macro.setGroup(groupInput.getTextField().getText());
+        editMacro(macro -> {
+            macro.getCommands().set(commandPointer, commandInput.getTextField().getText());
+            macro.setGroup(groupInput.getTextField().getText());
+            macro.setChatTrigger(chatTriggerInput.getTextField().getText());
+        });
+    }
+
+    /**
+     * Changes the current macro in a new version of the macros. Nothing happens if the change has no effect.
+     *
+     * @param change Changes a copy of the current macro.
+     */
+    private void editMacro(final Consumer<Macro> change) {
+        final Macro macro = macros.get(macroPointer).copyForEdit();
+        change.accept(macro);
+        if (!macro.equals(macros.get(macroPointer))) {
+            replaceMacro(macro);
+        }
+    }
+
+    /**
+     * Replaces the current macro in a new version of the macros.
+     *
+     * @param macro The changed macro.
+     */
+    private void replaceMacro(final Macro macro) {
+        commit(macros.with(macroPointer, macro));
+        if (searchIndex != null) {
+            searchIndex.update(macroPointer, macro);
+        }
+    }
+
+    /**
+     * Makes a new version of the macros the current version. The previous version can be undone.
+     *
+     * @param version The new version.
+     */
+    private void commit(final PersistentVector<Macro> version) {
+        undoVersions.push(new Version(macros, macroPointer, commandPointer));
+        if (undoVersions.size() > MAX_UNDO) {
+            undoVersions.removeLast();
+        }
+        redoVersions.clear();
+        macros = version;
+        sliding = false;
+        updateCaptions();
+    }
+
+    /**
+     * Goes back or forth in the versions of the macros.
+     *
+     * @param from The versions to restore from, i.e. the undo or redo versions.
+     * @param to The versions to which the current version is added.
+     */
+    private void restore(final Deque<Version> from, final Deque<Version> to) {
+        final Version version = from.poll();
+        if (version == null) {
+            return;
+        }
+        to.push(new Version(macros, macroPointer, commandPointer));
+        macros = version.getMacros();
+        macroPointer = version.getMacroPointer();
+        commandPointer = Math.min(version.getCommandPointer(), macros.get(macroPointer).getCommands().size() - 1);
+        sliding = false;
+        // The positions in the index may refer to other macros now.
+        searchIndex = null;
+        if (!results.isEmpty()) {
+            showResults();
+        }
+        loadMacro();
+    }
+
+    /**
+     * Searches for the query in the search field and shows the results.
+     */
+    private void updateSearch() {
+        saveChanges();
+        showResults();
+    }
+
+    /**
+     * Shows the results of the query in the search field.
+     */
+    private void showResults() {
+        if (searchIndex == null) {
+            searchIndex = new MacroSearchIndex();
+            searchIndex.rebuild(macros);
+        }
+        lastQuery = searchInput.getTextField().getText();
+        results = searchIndex.search(lastQuery, MAX_RESULTS);
+        for (int i = 0; i < MAX_RESULTS; i++) {
+            final ButtonElement button = resultButtons[i];
+            button.getButton().visible = i < results.size();
+            if (i < results.size()) {
+                final Macro macro = macros.get(results.get(i));
+                String caption = (results.get(i) + 1) + ": " + macro.getCommands().get(0);
+                if (caption.length() > RESULT_CAPTION_LENGTH) {
+                    caption = caption.substring(0, RESULT_CAPTION_LENGTH - 3) + "...";
+                }
+                button.getButton().displayString = caption;
+            }
+        }
+    }
+
+    /**
+     * Finds the first command of a macro which contains a query.
+     *
+     * @param macro The macro.
+     * @param query The query, which is matched ignoring case.
+     *
+     * @return The index of the command, or 0 if no command contains the query.
+     */
+    private static int findCommand(final Macro macro, final String query) {
+        final String needle = query.trim().toLowerCase(Locale.ROOT);
+        final List<String> commands = macro.getCommands();
+        for (int i = 0; i < commands.size(); i++) {
+            if (commands.get(i).toLowerCase(Locale.ROOT).contains(needle)) {
+                return i;
+            }
+        }
+        return 0;
     }
 
     /**
      * Sets all GUI elements to the correct values for the current macro/command.
      */
     private void loadMacro() {
+        sliding = false;
         final Macro macro = macros.get(macroPointer);
         final String command = macro.getCommands().get(commandPointer);
         commandInput.getTextField().setText(command);
         commandInput.getTextField().setCursorPosition(0);
-        delaySlider.getSlider().setSliderValue(macro.getDelay() / 50, false);
+        delaySlider.getSlider().setSliderValue(macro.getDelay() / delayStep, false);
         groupInput.getTextField().setText(macro.getGroup());
+        chatTriggerInput.getTextField().setText(macro.getChatTrigger());
         updateCaptions();
     }
 
@@ -273,15 +581,43 @@ public class GuiMacroManager extends GuiFactory implements Consumer<ButtonElemen
         pointerText.setText("Macro " + (macroPointer + 1) + " of " + nMacros + "  »  Command "
                 + (commandPointer + 1) + " of " + nCommands, 0xA0A0A0);
 
+        modeButton.getButton().displayString = macro.getMode().getDisplayName();
+        undoButton.getButton().enabled = !undoVersions.isEmpty();
+        redoButton.getButton().enabled = !redoVersions.isEmpty();
+
         if (recording) {
-            recordButton.getButton().displayString = "Recording...";
+            final StringBuilder caption = new StringBuilder();
+            for (final int key : bindingRecorder.getKeys()) {
+                caption.append(KeyState.getKeyName(key)).append(", ");
+            }
+            recordButton.getButton().displayString = caption.append("Recording...").toString();
         } else if (macro.getMacroKey() == Keyboard.KEY_ESCAPE) {
             recordButton.getButton().displayString = "Record Binding";
         } else {
-            String binding = macro.isCtrlModifier() ? "Ctrl-" : "";
-            binding += macro.isShiftModifier() ? "Shift-" : "";
-            binding += Keyboard.getKeyName(macro.getMacroKey());
-            recordButton.getButton().displayString = binding;
+            recordButton.getButton().displayString = macro.getBindingName();
         }
     }
+
+    /**
+     * A version of the macros, together with the position in the editor.
+     */
+    @Getter
+    @RequiredArgsConstructor
+    private static class Version {
+
+        /**
+         * The macros.
+         */
+        private final PersistentVector<Macro> macros;
+
+        /**
+         * The position of the edited macro.
+         */
+        private final int macroPointer;
+
+        /**
+         * The position of the edited command.
+         */
+        private final int commandPointer;
+    }
 }
@@ -0,0 +1,112 @@
+package nge.lk.mods.simplemacros;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram with fixed power-of-two buckets. Recording does not allocate.
+ */
+public class Histogram {
+
+    /**
+     * The number of buckets. Bucket 0 holds zero, bucket i holds values in [2^(i-1), 2^i).
+     */
+    private static final int BUCKETS = 64;
+
+    /**
+     * The number of recorded values in each bucket.
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    /**
+     * The number of recorded values.
+     */
+    private final LongAdder count = new LongAdder();
+
+    /**
+     * The sum of all recorded values.
+     */
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * The largest recorded value.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value. Negative values are recorded as zero.
+     *
+     * @param value The value.
+     */
+    public void record(final long value) {
+        final long clamped = Math.max(0, value);
+        buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(clamped));
+        count.increment();
+        sum.add(clamped);
+        long current = max.get();
+        while (clamped > current && !max.compareAndSet(current, clamped)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return The number of values.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the mean of the recorded values.
+     *
+     * @return The mean, or zero if nothing was recorded.
+     */
+    public double getMean() {
+        final long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * Returns the largest recorded value.
+     *
+     * @return The largest value.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Estimates a percentile as the upper bound of the bucket which contains it.
+     *
+     * @param percentile The percentile, between 0 and 1.
+     *
+     * @return The estimated value.
+     */
+    public long getPercentile(final double percentile) {
+        final long n = count.sum();
+        final long threshold = (long) Math.ceil(n * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= threshold && seen > 0) {
+                return Math.min(i == 0 ? 0 : (1L << i) - 1, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Formats a summary of this histogram.
+     *
+     * @param unit The unit of the values.
+     *
+     * @return The summary.
+     */
+    public String summary(final String unit) {
+        return String.format("n=%d mean=%.1f%s p50=%d%s p99=%d%s max=%d%s", getCount(), getMean(), unit,
+                getPercentile(0.5), unit, getPercentile(0.99), unit, getMax(), unit);
+    }
+}
@@ -0,0 +1,30 @@
+package nge.lk.mods.simplemacros;
+
+/**
+ * Provides the keyboard state to the {@link MacroRuntime}, e.g. from LWJGL or from a recorded input trace.
+ */
+public interface InputSource {
+
+    /**
+     * Checks whether a key is held down.
+     *
+     * @param key The key.
+     *
+     * @return Whether the key is held down.
+     */
+    boolean isKeyDown(int key);
+
+    /**
+     * Returns the key of the current key event.
+     *
+     * @return The key.
+     */
+    int getEventKey();
+
+    /**
+     * Checks whether the current key event is a key press.
+     *
+     * @return Whether the key was pressed, {@code false} if it was released.
+     */
+    boolean getEventKeyState();
+}
@@ -0,0 +1,247 @@
+package nge.lk.mods.simplemacros;
+
+import org.lwjgl.input.Keyboard;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+
+/**
+ * A snapshot of the keyboard: the held keys as a 256 bit set and the most recent key presses.
+ *
+ * Chords are matched against the held keys with a few word operations, sequences against the recent presses. Both
+ * alt keys count as the left alt key, and modifier keys are not part of the recent presses.
+ */
+public final class KeyState {
+
+    /**
+     * The number of distinct key codes.
+     */
+    public static final int KEY_COUNT = 256;
+
+    /**
+     * An empty set of keys.
+     */
+    public static final int[] NO_KEYS = new int[0];
+
+    /**
+     * The maximum time in nanoseconds between two key presses of a sequence.
+     */
+    public static final long SEQUENCE_TIMEOUT = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * The number of recent key presses which are remembered.
+     */
+    private static final int HISTORY_SIZE = 8;
+
+    /**
+     * The held keys, one bit per key code.
+     */
+    private final long[] held = new long[KEY_COUNT / Long.SIZE];
+
+    /**
+     * The recently pressed keys, as a ring buffer.
+     */
+    private final int[] pressedKeys = new int[HISTORY_SIZE];
+
+    /**
+     * The times of the recent key presses, as returned by {@link System#nanoTime()}.
+     */
+    private final long[] pressTimes = new long[HISTORY_SIZE];
+
+    /**
+     * The number of key presses so far.
+     */
+    private int pressCount;
+
+    /**
+     * Constructor for a snapshot without held keys.
+     */
+    public KeyState() {
+    }
+
+    /**
+     * Copy constructor.
+     *
+     * @param other The snapshot to copy.
+     */
+    public KeyState(final KeyState other) {
+        System.arraycopy(other.held, 0, held, 0, held.length);
+        System.arraycopy(other.pressedKeys, 0, pressedKeys, 0, HISTORY_SIZE);
+        System.arraycopy(other.pressTimes, 0, pressTimes, 0, HISTORY_SIZE);
+        pressCount = other.pressCount;
+    }
+
+    /**
+     * Builds the mask of a chord.
+     *
+     * @param keys The keys of the chord.
+     *
+     * @return The mask, or {@code null} if the chord is empty.
+     */
+    public static long[] mask(final int[] keys) {
+        if (keys.length == 0) {
+            return null;
+        }
+        final long[] mask = new long[KEY_COUNT / Long.SIZE];
+        for (final int key : keys) {
+            final int normalized = normalize(key);
+            if (normalized >= 0 && normalized < KEY_COUNT) {
+                mask[normalized >>> 6] |= 1L << normalized;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Maps keys which are treated the same to one key.
+     *
+     * @param key The key.
+     *
+     * @return The key which represents the given key in chords.
+     */
+    public static int normalize(final int key) {
+        return key == Keyboard.KEY_RMENU ? Keyboard.KEY_LMENU : key;
+    }
+
+    /**
+     * Checks whether a key is a modifier, i.e. ctrl, shift or alt.
+     *
+     * @param key The key.
+     *
+     * @return Whether the key is a modifier.
+     */
+    public static boolean isModifier(final int key) {
+        return key == Keyboard.KEY_LCONTROL || key == Keyboard.KEY_RCONTROL || key == Keyboard.KEY_LSHIFT
+                || key == Keyboard.KEY_RSHIFT || key == Keyboard.KEY_LMENU || key == Keyboard.KEY_RMENU;
+    }
+
+    /**
+     * Returns the display name of a key.
+     *
+     * @param key The key.
+     *
+     * @return The name.
+     */
+    public static String getKeyName(final int key) {
+        return normalize(key) == Keyboard.KEY_LMENU ? "Alt" : Keyboard.getKeyName(key);
+    }
+
+    /**
+     * Takes a snapshot of the held keys.
+     *
+     * @param keyDown Checks whether a key is held down.
+     */
+    public void capture(final IntPredicate keyDown) {
+        Arrays.fill(held, 0);
+        for (int key = 0; key < KEY_COUNT; key++) {
+            if (keyDown.test(key)) {
+                final int normalized = normalize(key);
+                held[normalized >>> 6] |= 1L << normalized;
+            }
+        }
+    }
+
+    /**
+     * Records a key press. Presses of modifiers are ignored.
+     *
+     * @param key The pressed key.
+     * @param time The time of the press, as returned by {@link System#nanoTime()}.
+     */
+    public void recordPress(final int key, final long time) {
+        if (isModifier(key)) {
+            return;
+        }
+        pressedKeys[pressCount % HISTORY_SIZE] = key;
+        pressTimes[pressCount % HISTORY_SIZE] = time;
+        pressCount++;
+    }
+
+    /**
+     * Checks whether a key is held down.
+     *
+     * @param key The key.
+     *
+     * @return Whether the key is held down.
+     */
+    public boolean isDown(final int key) {
+        final int normalized = normalize(key);
+        return normalized >= 0 && normalized < KEY_COUNT && (held[normalized >>> 6] & 1L << normalized) != 0;
+    }
+
+    /**
+     * Checks whether either ctrl key is held down.
+     *
+     * @return Whether ctrl is held down.
+     */
+    public boolean isCtrlDown() {
+        return isDown(Keyboard.KEY_LCONTROL) || isDown(Keyboard.KEY_RCONTROL);
+    }
+
+    /**
+     * Checks whether either shift key is held down.
+     *
+     * @return Whether shift is held down.
+     */
+    public boolean isShiftDown() {
+        return isDown(Keyboard.KEY_LSHIFT) || isDown(Keyboard.KEY_RSHIFT);
+    }
+
+    /**
+     * Checks whether all keys of a chord are held down.
+     *
+     * @param mask The mask of the chord, see {@link #mask(int[])}.
+     *
+     * @return Whether the chord is held down.
+     */
+    public boolean containsAll(final long[] mask) {
+        return (held[0] & mask[0]) == mask[0] && (held[1] & mask[1]) == mask[1] && (held[2] & mask[2]) == mask[2]
+                && (held[3] & mask[3]) == mask[3];
+    }
+
+    /**
+     * Returns the held keys.
+     *
+     * @return The held keys in ascending order.
+     */
+    public int[] getHeldKeys() {
+        int count = 0;
+        for (final long word : held) {
+            count += Long.bitCount(word);
+        }
+        final int[] keys = new int[count];
+        int next = 0;
+        for (int key = 0; key < KEY_COUNT; key++) {
+            if ((held[key >>> 6] & 1L << key) != 0) {
+                keys[next++] = key;
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Checks whether a sequence of keys was pressed right before the latest key press, with at most
+     * {@link #SEQUENCE_TIMEOUT} between two presses.
+     *
+     * @param sequence The keys which have to be pressed before, in order.
+     *
+     * @return Whether the sequence was pressed.
+     */
+    public boolean endsWith(final int[] sequence) {
+        if (sequence.length == 0) {
+            return true;
+        }
+        if (sequence.length >= HISTORY_SIZE || sequence.length >= pressCount) {
+            return false;
+        }
+        long nextTime = pressTimes[(pressCount - 1) % HISTORY_SIZE];
+        for (int i = sequence.length - 1, press = pressCount - 2; i >= 0; i--, press--) {
+            final int slot = press % HISTORY_SIZE;
+            if (pressedKeys[slot] != sequence[i] || nextTime - pressTimes[slot] > SEQUENCE_TIMEOUT) {
+                return false;
+            }
+            nextTime = pressTimes[slot];
+        }
+        return true;
+    }
+}
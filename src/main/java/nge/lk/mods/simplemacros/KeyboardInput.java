@@ -0,0 +1,24 @@
+package nge.lk.mods.simplemacros;
+
+import org.lwjgl.input.Keyboard;
+
+/**
+ * Provides the keyboard state of the game from LWJGL.
+ */
+public class KeyboardInput implements InputSource {
+
+    @Override
+    public boolean isKeyDown(final int key) {
+        return Keyboard.isKeyDown(key);
+    }
+
+    @Override
+    public int getEventKey() {
+        return Keyboard.getEventKey();
+    }
+
+    @Override
+    public boolean getEventKeyState() {
+        return Keyboard.getEventKeyState();
+    }
+}
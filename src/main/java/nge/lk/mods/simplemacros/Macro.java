@@ -4,10 +4,15 @@ import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Represents a macro.
+ *
+ * The macros of a published library version are shared, e.g. with background saves, so their saved fields are not
+ * changed in place. Edits are made on a copy from {@link #copyForEdit()}. The state of running a macro is kept apart
+ * in a {@link MacroState}.
  */
 @Getter
 @Setter
@@ -45,9 +50,50 @@ public class Macro {
     private int delay;
 
     /**
-     * Whether this macro is currently active.
+     * The way in which this macro is executed.
      */
-    private transient boolean active;
+    private MacroMode mode = MacroMode.ONCE;
+
+    /**
+     * The keys which have to be held down in addition to the macro key and modifiers, e.g. alt and G for Alt+G+1.
+     */
+    private int[] chord = KeyState.NO_KEYS;
+
+    /**
+     * The keys which have to be pressed in this order right before the macro key, e.g. G for the sequence G, 1.
+     */
+    private int[] sequence = KeyState.NO_KEYS;
+
+    /**
+     * The text which triggers this macro when a received chat message contains it (ignoring case), or empty if this
+     * macro is not triggered by chat.
+     */
+    private String chatTrigger = "";
+
+    /**
+     * The ID of this macro's group, assigned by the {@link GroupRegistry}.
+     */
+    private transient int groupId;
+
+    /**
+     * The position of this macro in the library, assigned by the {@link GroupRegistry}.
+     */
+    private transient int ordinal;
+
+    /**
+     * How often this macro was triggered since the game was started.
+     */
+    private transient long triggerCount;
+
+    /**
+     * How often this macro ran since the game was started, counting each repetition of looping macros.
+     */
+    private transient long runCount;
+
+    /**
+     * The tick in which an execution of this macro last sent a command.
+     */
+    private transient long lastSentTick;
 
     /**
      * Constructor.
@@ -65,19 +111,84 @@ public class Macro {
         }
     }
 
+    /**
+     * Copy constructor. The copy is not active.
+     *
+     * @param other The macro to copy.
+     */
+    public Macro(final Macro other) {
+        this(other.group, other.shiftModifier, other.ctrlModifier, other.macroKey, other.delay,
+                new ArrayList<>(other.commands));
+        mode = other.mode;
+        chord = other.chord.clone();
+        sequence = other.sequence.clone();
+        chatTrigger = other.chatTrigger;
+    }
+
+    /**
+     * Returns a copy of this macro for editing. The copy takes over the statistics of this macro, which is replaced
+     * by the copy in the next library version.
+     *
+     * @return The copy.
+     */
+    public Macro copyForEdit() {
+        final Macro copy = new Macro(this);
+        copy.takeOverStatistics(this);
+        return copy;
+    }
+
+    /**
+     * Takes over the statistics of the macro which this macro replaces.
+     *
+     * @param previous The replaced macro.
+     */
+    public void takeOverStatistics(final Macro previous) {
+        triggerCount = previous.triggerCount;
+        runCount = previous.runCount;
+        lastSentTick = previous.lastSentTick;
+    }
+
+    /**
+     * Returns the name of the key binding, e.g. "Ctrl-Shift-K", "Alt-G-1" or "G, Alt-1". Modifiers in the chord are
+     * named before the other chord keys.
+     *
+     * @return The name of the key binding.
+     */
+    public String getBindingName() {
+        final StringBuilder binding = new StringBuilder();
+        for (final int key : sequence) {
+            binding.append(KeyState.getKeyName(key)).append(", ");
+        }
+        binding.append(ctrlModifier ? "Ctrl-" : "").append(shiftModifier ? "Shift-" : "");
+        for (final int key : chord) {
+            if (KeyState.isModifier(key)) {
+                binding.append(KeyState.getKeyName(key)).append('-');
+            }
+        }
+        for (final int key : chord) {
+            if (!KeyState.isModifier(key)) {
+                binding.append(KeyState.getKeyName(key)).append('-');
+            }
+        }
+        return binding.append(KeyState.getKeyName(macroKey)).toString();
+    }
+
+    /**
+     * Returns how specific the trigger of this macro is. Only the most specific macros matching a key press run.
+     *
+     * @return The number of chord and sequence keys.
+     */
+    public int getTriggerSize() {
+        return chord.length + sequence.length;
+    }
+
     /**
      * Whether the macro should be saved.
      *
      * @return Whether the macro should be saved.
      */
     public boolean shouldSave() {
-        boolean save = false;
-        for (final String cmd : commands) {
-            if (!cmd.trim().isEmpty()) {
-                save = true;
-            }
-        }
-        return save;
+        return MacroProgram.hasContent(commands);
     }
 
     /**
@@ -86,7 +197,8 @@ public class Macro {
      * @return The export string.
      */
     public String getExport() {
-        return group + "§" + Boolean.toString(shiftModifier) + "§" + Boolean.toString(ctrlModifier) + "§" + macroKey
-                + "§" + delay + "§" + String.join("\t", commands);
+        final StringBuilder export = new StringBuilder();
+        MacroTextCodec.encode(this, export);
+        return export.toString();
     }
 }
@@ -0,0 +1,249 @@
+package nge.lk.mods.simplemacros;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A running macro. The execution is scheduled once per command and moves on to the next command when it runs.
+ *
+ * Commands are scheduled in ticks by default. If a precision timer is used, they are scheduled at wall-clock
+ * deadlines instead, which are not stretched by client lag.
+ *
+ * Executions are cancelled lazily: cancelling bumps the generation counter in the {@link MacroState} of the macro, and
+ * an execution which notices that its generation is outdated stops without sending or rescheduling. Its commands
+ * which still wait in the chat pacer are discarded as well.
+ *
+ * Commands are handed to the chat pacer, which may delay them. They are recorded in the metrics when they are actually
+ * sent, so the drift includes the time spent waiting for the pacer. Macros which run once are sent with high priority.
+ * Looping macros are sent with normal priority and wait until their previous command was sent, so they can not fill
+ * the queue of the pacer.
+ */
+public class MacroExecution extends TickScheduler.Task implements PrecisionTimer.Timed, ChatPacer.SentListener {
+
+    /**
+     * The buffer for rendering commands. Executions only run on the client thread, so it is shared.
+     */
+    private static final StringBuilder RENDER_BUFFER = new StringBuilder();
+
+    /**
+     * The scheduler this execution runs in.
+     */
+    private final TickScheduler scheduler;
+
+    /**
+     * The precision timer this execution runs in, or {@code null} if it runs in ticks.
+     */
+    private final PrecisionTimer precisionTimer;
+
+    /**
+     * Receives the commands of the macro.
+     */
+    private final ChatPacer.Source output;
+
+    /**
+     * Provides the values of variables in commands.
+     */
+    private final CommandTemplate.VariableSource variables;
+
+    /**
+     * The metrics which record the sent commands.
+     */
+    private final MacroMetrics metrics;
+
+    /**
+     * The index which counts group switches.
+     */
+    private final MacroIndex macroIndex;
+
+    /**
+     * The state of the macro which is executed. It belongs to the replacement if the macro is replaced while the
+     * execution runs.
+     */
+    private final MacroState state;
+
+    /**
+     * The compiled program of the macro, which is not affected by later edits.
+     */
+    private final MacroProgram program;
+
+    /**
+     * Whether the macro is global, i.e. not cancelled by group switches.
+     */
+    private final boolean global;
+
+    /**
+     * The generation of the macro's executions this execution belongs to.
+     */
+    private final int generation;
+
+    /**
+     * The number of group switches when this execution was created.
+     */
+    private final int groupSwitches;
+
+    /**
+     * The index of the program command that is sent next.
+     */
+    private int cursor;
+
+    /**
+     * The number of completed repetitions.
+     */
+    private long round;
+
+    /**
+     * Whether all commands were sent.
+     */
+    private boolean done;
+
+    /**
+     * The tick of the first command.
+     */
+    private long startTick;
+
+    /**
+     * The time of the first command, as returned by {@link System#nanoTime()}.
+     */
+    private long startNanos;
+
+    /**
+     * The deadline of the next command when running in the precision timer.
+     */
+    private long deadline;
+
+    /**
+     * Constructor.
+     *
+     * @param scheduler The scheduler this execution runs in.
+     * @param precisionTimer The precision timer this execution runs in, or {@code null} to run in ticks.
+     * @param chatPacer The pacer which receives the commands of the macro.
+     * @param variables Provides the values of variables in commands.
+     * @param metrics The metrics which record the sent commands.
+     * @param macroIndex The index which counts group switches.
+     * @param state The state of the macro which is executed.
+     */
+    public MacroExecution(final TickScheduler scheduler, final PrecisionTimer precisionTimer,
+                          final ChatPacer chatPacer, final CommandTemplate.VariableSource variables,
+                          final MacroMetrics metrics, final MacroIndex macroIndex, final MacroState state) {
+        this.scheduler = scheduler;
+        this.precisionTimer = precisionTimer;
+        this.variables = variables;
+        this.metrics = metrics;
+        this.macroIndex = macroIndex;
+        this.state = state;
+        program = state.getProgram();
+        output = chatPacer.newSource(program.isLooping() ? ChatPacer.Priority.NORMAL : ChatPacer.Priority.HIGH, this);
+        global = state.getMacro().getGroup().isEmpty();
+        generation = state.getGeneration();
+        groupSwitches = macroIndex.getGroupSwitches();
+    }
+
+    /**
+     * Starts the execution. The first command is sent in the given tick, or as soon as possible when running in the
+     * precision timer.
+     *
+     * @param tick The tick of the first command.
+     */
+    public void start(final long tick) {
+        state.setExecution(this);
+        startTick = tick;
+        startNanos = System.nanoTime();
+        cursor = 0;
+        round = 0;
+        done = program.size() == 0;
+        if (!done) {
+            schedule();
+        }
+    }
+
+    /**
+     * Checks whether this execution was cancelled.
+     *
+     * @return Whether this execution was cancelled.
+     */
+    @Override
+    public boolean isCancelled() {
+        return state.getGeneration() != generation || !global && macroIndex.getGroupSwitches() != groupSwitches;
+    }
+
+    /**
+     * Checks whether this execution still has commands to send.
+     *
+     * @return Whether this execution is neither done nor cancelled.
+     */
+    public boolean isRunning() {
+        return !done && !isCancelled();
+    }
+
+    @Override
+    public long getDeadline() {
+        return deadline;
+    }
+
+    @Override
+    public void run() {
+        if (isCancelled()) {
+            return;
+        }
+        if (program.isLooping() && !output.tryProduce()) {
+            scheduler.schedule(this, scheduler.getCurrentTick() + 1);
+            return;
+        }
+        final Macro macro = state.getMacro();
+        if (cursor == 0) {
+            macro.setRunCount(macro.getRunCount() + 1);
+        }
+        output.send(program.getCommand(cursor).render(variables, macro.getRunCount(), RENDER_BUFFER),
+                precisionTimer == null ? getScheduledTick() : deadline);
+
+        cursor++;
+        if (cursor == program.size()) {
+            if (!program.isLooping()) {
+                done = true;
+                return;
+            }
+            cursor = 0;
+            round++;
+        }
+        schedule();
+    }
+
+    /**
+     * Records a command which was sent by the chat pacer.
+     *
+     * @param stamp The tick the command was scheduled for, or its deadline when running in the precision timer.
+     */
+    @Override
+    public void onSent(final long stamp) {
+        state.getMacro().setLastSentTick(scheduler.getCurrentTick());
+        if (precisionTimer == null) {
+            metrics.recordCommand(stamp, scheduler.getCurrentTick());
+        } else {
+            metrics.recordPreciseCommand(System.nanoTime() - stamp);
+        }
+    }
+
+    /**
+     * Returns the tick the command at the cursor is scheduled for. It only depends on the offset of the command and
+     * the start tick, so delays do not accumulate, also if the execution had to wait.
+     *
+     * @return The tick.
+     */
+    private long getScheduledTick() {
+        return startTick + round * program.getLoopTicks() + program.getTickOffset(cursor);
+    }
+
+    /**
+     * Schedules the command at the cursor.
+     *
+     * The time of a command only depends on its offset and the start time, so delays do not accumulate.
+     */
+    private void schedule() {
+        if (precisionTimer == null) {
+            scheduler.schedule(this, getScheduledTick());
+        } else {
+            final long offset = round * program.getLoopMillis() + program.getMillisOffset(cursor);
+            deadline = startNanos + TimeUnit.MILLISECONDS.toNanos(offset);
+            precisionTimer.schedule(this);
+        }
+    }
+}
@@ -1,74 +1,413 @@
 package nge.lk.mods.simplemacros;
 
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import nge.lk.mods.commonlib.util.DebugUtil;
 import nge.lk.mods.commonlib.util.FileUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.function.BiConsumer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiFunction;
 
 /**
  * Handles IO of macros.
+ *
+ * Macros are either stored in a single save file or sharded into one file per group. The sharded layout consists of
+ * a manifest listing the groups in their cycle order, the shards and a file which remembers the last active group.
+ * Additionally, the macros in the save file can be shared with other clients through a {@link SharedMacroStore}.
  */
 @RequiredArgsConstructor
 public class MacroIO {
 
+    /**
+     * The name of the manifest in the shard directory.
+     */
+    private static final String MANIFEST_NAME = "manifest.txt";
+
+    /**
+     * The name of the file which stores the last active group in the shard directory.
+     */
+    private static final String ACTIVE_GROUP_NAME = "active.txt";
+
+    /**
+     * The file extension of shards.
+     */
+    private static final String SHARD_EXTENSION = ".dat";
+
     /**
      * The file where the macro configurations are stored in.
      */
-    private final File saveFile;
+    @Getter private final File saveFile;
+
+    /**
+     * Whether macros are saved in the binary format.
+     */
+    private final boolean binaryFormat;
+
+    /**
+     * The directory of the sharded layout, or {@code null} if macros are stored in the save file.
+     */
+    @Getter private final File shardDirectory;
 
     /**
-     * Returns an iterator iterating over export strings of macros.
+     * The store which shares the macros with other clients, or {@code null} if they are not shared.
+     */
+    @Getter private final SharedMacroStore sharedStore;
+
+    /**
+     * The (lowercase) names of the groups whose shards could not be read. Their shards are neither rewritten nor
+     * removed from the manifest, since the macros in them are not known.
+     */
+    private final Set<String> unreadableShards = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Returns an iterator iterating over export strings of macros. The export strings are encoded lazily.
      *
      * @param macros The macros which should be iterated over.
      *
      * @return An iterator over all export strings.
      */
     private static Iterator<String> getExportIterator(final Iterable<Macro> macros) {
-        final Collection<String> mapped = new LinkedList<>();
+        return new ExportIterator(macros.iterator());
+    }
+
+    /**
+     * Saves the macro configurations to the save file, or to the shards if they are used. When using shards, the
+     * macros of all groups have to be given, since the shards of missing groups are removed.
+     *
+     * @param macros The macros to be saved.
+     */
+    public void saveState(final Iterable<Macro> macros) {
+        try {
+            if (shardDirectory == null) {
+                writeFile(saveFile, macros);
+            } else {
+                writeShards(macros);
+            }
+            if (sharedStore != null) {
+                sharedStore.write(macros);
+            }
+        } catch (final IOException e) {
+            DebugUtil.recoverableError(e);
+        }
+    }
+
+    /**
+     * Writes macros to a file in the configured format.
+     *
+     * The macros are written to a temporary file first, which then replaces the file. This way the file is never left
+     * half-written.
+     *
+     * @param file The file.
+     * @param macros The macros, of which only those that should be saved are written.
+     *
+     * @throws IOException If writing fails.
+     */
+    private void writeFile(final File file, final Iterable<Macro> macros) throws IOException {
+        final File tempFile = new File(file.getPath() + ".tmp");
+        if (binaryFormat) {
+            BinaryMacroFormat.write(tempFile, macros);
+        } else {
+            FileUtil.writeLineStorage(1, tempFile, getExportIterator(macros));
+        }
+        replace(tempFile, file);
+    }
+
+    /**
+     * Writes the macros into one shard per group and updates the manifest. Shards of groups which no longer exist
+     * are removed.
+     *
+     * Groups whose shards could not be read are kept as they are: their shards are not written, so macros which were
+     * added to them are not saved, and they stay in the manifest after the other groups.
+     *
+     * @param macros The macros of all groups.
+     *
+     * @throws IOException If writing fails.
+     */
+    private void writeShards(final Iterable<Macro> macros) throws IOException {
+        final Map<String, List<Macro>> groups = new LinkedHashMap<>();
+        groups.put("", new ArrayList<>());
         for (final Macro macro : macros) {
             if (macro.shouldSave()) {
-                mapped.add(macro.getExport());
+                groups.computeIfAbsent(macro.getGroup().toLowerCase(Locale.ROOT), k -> new ArrayList<>()).add(macro);
+            }
+        }
+        List<String> previousGroups = Collections.emptyList();
+        if (hasManifest()) {
+            try {
+                previousGroups = readManifest();
+            } catch (final IOException e) {
+                // Old shards are left behind then.
+                DebugUtil.recoverableError(e);
+            }
+        }
+
+        Files.createDirectories(shardDirectory.toPath());
+        for (final Map.Entry<String, List<Macro>> group : groups.entrySet()) {
+            if (!unreadableShards.contains(group.getKey())) {
+                writeFile(getShard(group.getKey()), group.getValue());
+            }
+        }
+
+        // The manifest is replaced after writing the shards, so it never lists shards which were not written yet.
+        final Set<String> listed = new LinkedHashSet<>(groups.keySet());
+        listed.addAll(unreadableShards);
+        final File tempManifest = new File(shardDirectory, MANIFEST_NAME + ".tmp");
+        Files.write(tempManifest.toPath(), new ArrayList<>(listed).subList(1, listed.size()), StandardCharsets.UTF_8);
+        replace(tempManifest, new File(shardDirectory, MANIFEST_NAME));
+
+        // Shards are removed last, so the manifest never lists shards which do not exist.
+        for (final String group : previousGroups) {
+            if (!listed.contains(group)) {
+                Files.deleteIfExists(getShard(group).toPath());
             }
         }
-        return mapped.iterator();
     }
 
     /**
-     * Saves the macro configurations to the save file.
+     * Checks whether the sharded layout has been written yet.
      *
-     * @param macros The macros to be saved.
+     * @return Whether the manifest exists.
      */
-    public void saveState(final Iterable<Macro> macros) {
+    public boolean hasManifest() {
+        return new File(shardDirectory, MANIFEST_NAME).isFile();
+    }
+
+    /**
+     * Reads the groups of the sharded layout.
+     *
+     * @return The (lowercase) names of the groups in their cycle order, starting with the global group.
+     *
+     * @throws IOException If reading fails.
+     */
+    public List<String> readManifest() throws IOException {
+        final List<String> groups = new ArrayList<>();
+        groups.add("");
+        groups.addAll(Files.readAllLines(new File(shardDirectory, MANIFEST_NAME).toPath(), StandardCharsets.UTF_8));
+        return groups;
+    }
+
+    /**
+     * Reads the macros of a group from its shard.
+     *
+     * @param group The (lowercase) name of the group.
+     *
+     * @return The macros, which are empty if the shard does not exist.
+     *
+     * @throws IOException If the shard can not be read as a whole. The shard is then kept as it is by later saves.
+     */
+    public List<Macro> readShard(final String group) throws IOException {
+        final File shard = getShard(group);
+        if (!shard.isFile()) {
+            unreadableShards.remove(group);
+            return new ArrayList<>();
+        }
+        try {
+            final List<Macro> macros = readFile(shard, false);
+            unreadableShards.remove(group);
+            return macros;
+        } catch (final IOException e) {
+            unreadableShards.add(group);
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the last active group of the sharded layout.
+     *
+     * @return The (lowercase) name of the group, empty if unknown.
+     */
+    public String readActiveGroup() {
+        final File file = new File(shardDirectory, ACTIVE_GROUP_NAME);
+        try {
+            if (!file.isFile()) {
+                return "";
+            }
+            final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            return lines.isEmpty() ? "" : lines.get(0);
+        } catch (final IOException e) {
+            DebugUtil.recoverableError(e);
+            return "";
+        }
+    }
+
+    /**
+     * Remembers the last active group of the sharded layout.
+     *
+     * @param group The (lowercase) name of the group.
+     */
+    public void writeActiveGroup(final String group) {
         try {
-            FileUtil.writeLineStorage(1, saveFile, getExportIterator(macros));
+            Files.createDirectories(shardDirectory.toPath());
+            Files.write(new File(shardDirectory, ACTIVE_GROUP_NAME).toPath(), Collections.singleton(group),
+                    StandardCharsets.UTF_8);
         } catch (final IOException e) {
             DebugUtil.recoverableError(e);
         }
     }
 
+    /**
+     * Returns the shard of a group. Letters and digits are kept in the file name, every other character is escaped by
+     * its code, so each group has a distinct shard.
+     *
+     * @param group The (lowercase) name of the group.
+     *
+     * @return The shard.
+     */
+    private File getShard(final String group) {
+        final StringBuilder name = new StringBuilder("group");
+        for (int i = 0; i < group.length(); i++) {
+            final char c = group.charAt(i);
+            if (c >= 'a' && c <= 'z' || c >= '0' && c <= '9') {
+                name.append(c);
+            } else {
+                name.append('_').append(String.format("%04x", (int) c));
+            }
+        }
+        return new File(shardDirectory, name.append(SHARD_EXTENSION).toString());
+    }
+
+    /**
+     * Replaces a file by another, atomically if supported.
+     *
+     * @param source The new file.
+     * @param target The file to replace.
+     *
+     * @throws IOException If moving fails.
+     */
+    private static void replace(final File source, final File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException ignored) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
     /**
      * Loads the macro configurations from the save file.
+     *
+     * Both formats are detected automatically. Text files are migrated to the binary format if it is enabled, and
+     * the save file is migrated to shards if they are used. If macros are shared, the shared store is preferred and
+     * initialized from the save file if it is empty.
      */
     public List<Macro> loadState() {
-        final List<Macro> results = new ArrayList<>();
+        final List<Macro> results;
         try {
-            FileUtil.readLineStorage(saveFile, new MacroBuilder(results), new MacroVersionConverter());
+            if (sharedStore != null) {
+                final List<Macro> shared = sharedStore.read();
+                if (shared != null) {
+                    return shared;
+                }
+            }
+            results = readState();
         } catch (final IOException e) {
             DebugUtil.recoverableError(e);
+            return new ArrayList<>();
+        }
+        if (!results.isEmpty() && (shardDirectory != null || sharedStore != null
+                || binaryFormat && !BinaryMacroFormat.isBinary(saveFile))) {
+            saveState(results);
         }
         return results;
     }
 
+    /**
+     * Takes the macros from the shared store if another client changed them.
+     *
+     * @return The macros, or {@code null} if they are not shared or did not change.
+     */
+    public List<Macro> pollSharedStore() {
+        if (sharedStore == null) {
+            return null;
+        }
+        try {
+            return sharedStore.poll();
+        } catch (final IOException e) {
+            DebugUtil.recoverableError(e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the macro configurations from the save file in either format. Malformed lines of text files are
+     * reported and skipped.
+     *
+     * @return The macros.
+     *
+     * @throws IOException If the file can not be read as a whole.
+     */
+    public List<Macro> readState() throws IOException {
+        return readFile(saveFile, false);
+    }
+
+    /**
+     * Reads the macro configurations from the save file again after it was changed by another program. Unlike
+     * {@link #readState()}, malformed lines are not skipped, since merging the rest would remove their macros.
+     *
+     * @return The macros.
+     *
+     * @throws IOException If the file can not be read or contains malformed lines.
+     */
+    public List<Macro> reloadState() throws IOException {
+        return readFile(saveFile, true);
+    }
+
+    /**
+     * Reads macros from a file in either format.
+     *
+     * Text files are parsed by a {@link ChunkedParser} while they are read, in parallel if there are multiple
+     * processors. Binary files are decoded in parallel by {@link BinaryMacroFormat}.
+     *
+     * @param file The file.
+     * @param strict Whether malformed lines fail the whole file instead of being reported and skipped.
+     *
+     * @return The macros.
+     *
+     * @throws IOException If the file can not be read as a whole, or has malformed lines when reading strictly.
+     */
+    private static List<Macro> readFile(final File file, final boolean strict) throws IOException {
+        if (BinaryMacroFormat.isBinary(file)) {
+            return BinaryMacroFormat.read(file);
+        }
+        final ChunkedParser parser = new ChunkedParser(ForkJoinPool.getCommonPoolParallelism() > 1);
+        FileUtil.readLineStorage(file, parser, new MacroVersionConverter());
+        final List<Macro> macros = parser.finish();
+        if (strict && parser.getErrorCount() > 0) {
+            throw new IOException(parser.getErrorCount() + " malformed lines in " + file);
+        }
+        return macros;
+    }
+
+    /**
+     * Returns the name of the format in which macros are saved.
+     *
+     * @return The name of the format.
+     */
+    public String getFormatName() {
+        final String format = binaryFormat ? "binary" : "text";
+        if (shardDirectory != null) {
+            return "sharded " + format;
+        }
+        return sharedStore == null ? format : "shared " + format;
+    }
+
     /**
      * Converts macro data between different versions.
      */
@@ -90,26 +429,46 @@ public class MacroIO {
     }
 
     /**
-     * Builds macros from line data.
+     * Encodes the macros which should be saved into export strings, one at a time.
      */
     @RequiredArgsConstructor
-    private static class MacroBuilder implements BiConsumer<String, Integer> {
+    private static class ExportIterator implements Iterator<String> {
+
+        /**
+         * The macros.
+         */
+        private final Iterator<Macro> macros;
 
-        private final List<Macro> results;
+        /**
+         * The buffer which is reused for encoding.
+         */
+        private final StringBuilder buffer = new StringBuilder();
+
+        /**
+         * The next macro which should be saved, if any.
+         */
+        private Macro next;
 
         @Override
-        public void accept(final String line, final Integer lineNo) {
-            // Avoid trimming of the array by adding a high limit.
-            final String[] split = line.split("§", 99);
-
-            // Create the macro.
-            final String group = split[0];
-            final boolean shiftModifier = Boolean.parseBoolean(split[1]);
-            final boolean ctrlModifier = Boolean.parseBoolean(split[2]);
-            final int macroKey = Integer.parseInt(split[3]);
-            final int delay = Integer.parseInt(split[4]);
-            final List<String> commands = new ArrayList<>(Arrays.asList(split[5].split("\t")));
-            results.add(new Macro(group, shiftModifier, ctrlModifier, macroKey, delay, commands));
+        public boolean hasNext() {
+            while (next == null && macros.hasNext()) {
+                final Macro macro = macros.next();
+                if (macro.shouldSave()) {
+                    next = macro;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            buffer.setLength(0);
+            MacroTextCodec.encode(next, buffer);
+            next = null;
+            return buffer.toString();
         }
     }
 }
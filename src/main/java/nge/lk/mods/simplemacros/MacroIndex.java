@@ -0,0 +1,312 @@
+package nge.lk.mods.simplemacros;
+
+import org.lwjgl.input.Keyboard;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * Indexes macros by their key binding so key events only touch the macros bound to the pressed key.
+ *
+ * The chords of the candidates are matched against one snapshot of the keyboard per key event, using masks which are
+ * precompiled when the index is rebuilt.
+ *
+ * The index also keeps the {@link MacroState} of each macro, by identity since equal macros are distinct macros.
+ */
+public class MacroIndex {
+
+    /**
+     * The number of distinct key codes.
+     */
+    private static final int KEY_COUNT = 256;
+
+    /**
+     * An empty result for lookups without matches.
+     */
+    private static final MacroState[] NO_MACROS = new MacroState[0];
+
+    /**
+     * The macro groups.
+     */
+    private final GroupRegistry groups = new GroupRegistry();
+
+    /**
+     * The chat triggers of all macros.
+     */
+    private final ChatTriggerMatcher chatTriggers = new ChatTriggerMatcher();
+
+    /**
+     * The states of the macros which are currently active, i.e. were triggered and their key was not released yet.
+     */
+    private final List<MacroState> activeMacros = new ArrayList<>();
+
+    /**
+     * The states of the macros of all groups, indexed by binding code.
+     */
+    private MacroState[][] bindings = new MacroState[KEY_COUNT << 2][];
+
+    /**
+     * The states of the macros.
+     */
+    private Map<Macro, MacroState> states = new IdentityHashMap<>();
+
+    /**
+     * The groups which are part of the group cycle even if none of the macros are in them.
+     */
+    private Iterable<String> knownGroups = Collections.emptyList();
+
+    /**
+     * The ID of the active group.
+     */
+    private int activeGroup = GroupRegistry.GLOBAL;
+
+    /**
+     * The number of group switches so far.
+     */
+    private int groupSwitches;
+
+    /**
+     * Calculates the binding code for a key binding.
+     *
+     * @param key The key.
+     * @param ctrl Whether ctrl is pressed.
+     * @param shift Whether shift is pressed.
+     *
+     * @return The binding code.
+     */
+    private static int bindingCode(final int key, final boolean ctrl, final boolean shift) {
+        return key << 2 | (ctrl ? 2 : 0) | (shift ? 1 : 0);
+    }
+
+    /**
+     * Rebuilds the index from the given macros. The active group stays active if it still exists. Macros which were
+     * indexed before keep their state, and the executions of macros which are no longer given are cancelled. New
+     * macros are compiled ahead of time, so that triggering them does not compile. The chat triggers are compiled as
+     * well.
+     *
+     * @param macros The macros.
+     */
+    public void rebuild(final Iterable<Macro> macros) {
+        final String activeName = groups.getName(activeGroup);
+        groups.rebuild(macros, knownGroups);
+        activeGroup = groups.getId(activeName);
+
+        final Map<Macro, MacroState> previous = states;
+        states = new IdentityHashMap<>();
+        final List<List<MacroState>> building = new ArrayList<>(Collections.nCopies(KEY_COUNT << 2, null));
+        for (final Macro macro : macros) {
+            if (states.containsKey(macro)) {
+                continue;
+            }
+            final MacroState kept = previous.remove(macro);
+            final MacroState state = kept != null ? kept : new MacroState(macro);
+            states.put(macro, state);
+
+            final int key = macro.getMacroKey();
+            if (key <= Keyboard.KEY_ESCAPE || key >= KEY_COUNT) {
+                // Unbound macro, which may still be triggered by chat.
+                continue;
+            }
+            final int code = bindingCode(key, macro.isCtrlModifier(), macro.isShiftModifier());
+            if (building.get(code) == null) {
+                building.set(code, new ArrayList<>(1));
+            }
+            building.get(code).add(state);
+        }
+        for (final MacroState removed : previous.values()) {
+            removed.cancelExecutions();
+        }
+
+        final MacroState[][] compact = new MacroState[building.size()][];
+        for (int i = 0; i < compact.length; i++) {
+            if (building.get(i) != null) {
+                compact[i] = building.get(i).toArray(NO_MACROS);
+            }
+        }
+        bindings = compact;
+        chatTriggers.rebuild(macros);
+    }
+
+    /**
+     * Returns the state of a macro. Macros which are not indexed get a state until the next rebuild.
+     *
+     * @param macro The macro.
+     *
+     * @return The state.
+     */
+    public MacroState getState(final Macro macro) {
+        return states.computeIfAbsent(macro, MacroState::new);
+    }
+
+    /**
+     * Hands the state of a macro over to the macro which replaces it, e.g. a reloaded version. A running execution
+     * keeps running the program it was started with, and it is stopped through the replacement from now on. Must be
+     * followed by a rebuild with the replacement.
+     *
+     * @param macro The replaced macro.
+     * @param replacement The macro which replaces it.
+     */
+    public void transferState(final Macro macro, final Macro replacement) {
+        final MacroState state = states.remove(macro);
+        if (state != null) {
+            state.setMacro(replacement);
+            states.put(replacement, state);
+        }
+    }
+
+    /**
+     * Looks up all macros of all groups which are bound to the given key binding.
+     *
+     * @param key The key.
+     * @param ctrl Whether ctrl is pressed.
+     * @param shift Whether shift is pressed.
+     *
+     * @return The states of the bound macros.
+     */
+    public MacroState[] lookup(final int key, final boolean ctrl, final boolean shift) {
+        if (key < 0 || key >= KEY_COUNT) {
+            return NO_MACROS;
+        }
+        final MacroState[] result = bindings[bindingCode(key, ctrl, shift)];
+        return result == null ? NO_MACROS : result;
+    }
+
+    /**
+     * Finds the enabled macros which are triggered by a key press. A macro is triggered if its key binding was
+     * pressed, its chord is held down and its sequence was pressed right before. Only the most specific of these
+     * macros are returned, so e.g. Alt+G+1 does not also run the macro bound to 1.
+     *
+     * @param key The pressed key.
+     * @param state The snapshot of the keyboard, including the key press.
+     * @param matched The list to which the triggered macros are written. It is cleared first.
+     */
+    public void match(final int key, final KeyState state, final List<Macro> matched) {
+        matched.clear();
+        int bestSize = -1;
+        for (final MacroState candidate : lookup(key, state.isCtrlDown(), state.isShiftDown())) {
+            final Macro macro = candidate.getMacro();
+            if (!isEnabled(macro)) {
+                continue;
+            }
+            final long[] mask = candidate.getChordMask();
+            if (mask != null && !state.containsAll(mask) || !state.endsWith(macro.getSequence())) {
+                continue;
+            }
+            final int size = macro.getTriggerSize();
+            if (size > bestSize) {
+                matched.clear();
+                bestSize = size;
+            }
+            if (size == bestSize) {
+                matched.add(macro);
+            }
+        }
+    }
+
+    /**
+     * Finds the enabled macros whose chat trigger occurs in a received chat message.
+     *
+     * @param message The message, without formatting codes.
+     * @param matched The list to which the triggered macros are written. It is cleared first.
+     */
+    public void matchChat(final String message, final List<Macro> matched) {
+        chatTriggers.match(message, matched);
+        matched.removeIf(macro -> !isEnabled(macro));
+    }
+
+    /**
+     * Checks whether any macro has a chat trigger.
+     *
+     * @return Whether there are chat triggers.
+     */
+    public boolean hasChatTriggers() {
+        return !chatTriggers.isEmpty();
+    }
+
+    /**
+     * Checks whether a macro is enabled in the active group.
+     *
+     * @param macro The macro.
+     *
+     * @return Whether the macro is enabled.
+     */
+    public boolean isEnabled(final Macro macro) {
+        return groups.isEnabled(macro, activeGroup);
+    }
+
+    /**
+     * Activates the next group in the group cycle.
+     *
+     * @return The (lowercase) name of the now active group, empty for the global group.
+     */
+    public String cycleGroup() {
+        groupSwitches++;
+        activeGroup = groups.next(activeGroup);
+        return groups.getName(activeGroup);
+    }
+
+    /**
+     * Sets the groups which are part of the group cycle even if none of the macros are in them, e.g. groups whose
+     * macros are not loaded. They are cycled through first. Takes effect on the next rebuild.
+     *
+     * @param knownGroups The groups.
+     */
+    public void setKnownGroups(final Iterable<String> knownGroups) {
+        this.knownGroups = knownGroups;
+    }
+
+    /**
+     * Activates a group without counting it as a group switch, e.g. to restore the group of the last session.
+     *
+     * @param name The name of the group. The global group is activated if it does not exist.
+     */
+    public void setActiveGroup(final String name) {
+        activeGroup = groups.getId(name);
+    }
+
+    /**
+     * Returns the number of group switches so far. Executions of group macros are cancelled when this changes.
+     *
+     * @return The number of group switches.
+     */
+    public int getGroupSwitches() {
+        return groupSwitches;
+    }
+
+    /**
+     * Marks a macro as active until its key is released.
+     *
+     * @param state The state of the macro.
+     */
+    public void activate(final MacroState state) {
+        state.setActive(true);
+        activeMacros.add(state);
+    }
+
+    /**
+     * Deactivates all active macros whose key is no longer held down. Cancels the executions of macros which repeat
+     * while their key is held.
+     *
+     * @param keyDown Checks whether a key is held down.
+     */
+    public void releaseInactive(final IntPredicate keyDown) {
+        for (int i = activeMacros.size() - 1; i >= 0; i--) {
+            final MacroState state = activeMacros.get(i);
+            if (!keyDown.test(state.getMacro().getMacroKey())) {
+                state.setActive(false);
+                if (state.getMacro().getMode() == MacroMode.REPEAT_WHILE_HELD) {
+                    state.cancelExecutions();
+                }
+                // Swap-remove, the order of active macros is irrelevant.
+                final MacroState last = activeMacros.remove(activeMacros.size() - 1);
+                if (i < activeMacros.size()) {
+                    activeMacros.set(i, last);
+                }
+            }
+        }
+    }
+}
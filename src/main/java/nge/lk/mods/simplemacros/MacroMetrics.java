@@ -0,0 +1,189 @@
+package nge.lk.mods.simplemacros;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects runtime metrics of macro execution. Recording does not allocate.
+ */
+public class MacroMetrics {
+
+    /**
+     * The number of triggered macros.
+     */
+    private final LongAdder triggers = new LongAdder();
+
+    /**
+     * The number of sent commands.
+     */
+    private final LongAdder commandsSent = new LongAdder();
+
+    /**
+     * The number of pending scheduler tasks, sampled each tick.
+     */
+    private final Histogram queueDepth = new Histogram();
+
+    /**
+     * The difference between the tick a command was scheduled for and the tick it was sent in.
+     */
+    private final Histogram drift = new Histogram();
+
+    /**
+     * The time by which commands with precise delays were late, in microseconds.
+     */
+    private final Histogram lateness = new Histogram();
+
+    /**
+     * The time spent handling key events, in microseconds.
+     */
+    private final Histogram keyPressTime = new Histogram();
+
+    /**
+     * The time spent matching received chat messages, in microseconds.
+     */
+    private final Histogram chatTime = new Histogram();
+
+    /**
+     * The time spent handling ticks, in microseconds.
+     */
+    private final Histogram tickTime = new Histogram();
+
+    /**
+     * The number of ticks which exceeded their budget.
+     */
+    private final LongAdder overrunTicks = new LongAdder();
+
+    /**
+     * The number of due tasks which were deferred to the next tick, sampled each tick which exceeded its budget.
+     */
+    private final Histogram deferredTasks = new Histogram();
+
+    /**
+     * Records that a macro was triggered.
+     *
+     * @param macro The macro.
+     */
+    public void recordTrigger(final Macro macro) {
+        triggers.increment();
+        macro.setTriggerCount(macro.getTriggerCount() + 1);
+    }
+
+    /**
+     * Records that a command was sent.
+     *
+     * @param scheduledTick The tick the command was scheduled for.
+     * @param actualTick The tick the command was sent in.
+     */
+    public void recordCommand(final long scheduledTick, final long actualTick) {
+        commandsSent.increment();
+        drift.record(actualTick - scheduledTick);
+    }
+
+    /**
+     * Records that a command with a precise delay was sent.
+     *
+     * @param lateNanos The time by which the command was late, in nanoseconds.
+     */
+    public void recordPreciseCommand(final long lateNanos) {
+        commandsSent.increment();
+        lateness.record(lateNanos / 1000);
+    }
+
+    /**
+     * Records the number of pending scheduler tasks.
+     *
+     * @param depth The number of pending tasks.
+     */
+    public void recordQueueDepth(final int depth) {
+        queueDepth.record(depth);
+    }
+
+    /**
+     * Records the time spent handling a key event.
+     *
+     * @param nanos The time in nanoseconds.
+     */
+    public void recordKeyPress(final long nanos) {
+        keyPressTime.record(nanos / 1000);
+    }
+
+    /**
+     * Records the time spent matching a received chat message against the chat triggers.
+     *
+     * @param nanos The time in nanoseconds.
+     */
+    public void recordChatMessage(final long nanos) {
+        chatTime.record(nanos / 1000);
+    }
+
+    /**
+     * Records the time spent handling a tick.
+     *
+     * @param nanos The time in nanoseconds.
+     */
+    public void recordTick(final long nanos) {
+        tickTime.record(nanos / 1000);
+    }
+
+    /**
+     * Records that a tick exceeded its budget.
+     *
+     * @param deferred The number of due tasks which were deferred to the next tick.
+     */
+    public void recordOverrun(final int deferred) {
+        overrunTicks.increment();
+        deferredTasks.record(deferred);
+    }
+
+    /**
+     * Returns a one-line summary of the metrics.
+     *
+     * @return The summary.
+     */
+    public String summary() {
+        return "triggers=" + triggers.sum() + " commands=" + commandsSent.sum() + " queue[" + queueDepth.summary("")
+                + "] drift[" + drift.summary("t") + "] late[" + lateness.summary("us") + "] keyPress["
+                + keyPressTime.summary("us") + "] chat[" + chatTime.summary("us") + "] tick["
+                + tickTime.summary("us") + "] overruns=" + overrunTicks.sum() + " deferred["
+                + deferredTasks.summary("") + "]";
+    }
+
+    /**
+     * Returns a detailed report of the metrics, one entry per line.
+     *
+     * @return The report.
+     */
+    public List<String> report() {
+        final List<String> lines = new ArrayList<>();
+        lines.add("Triggers: " + triggers.sum() + ", commands sent: " + commandsSent.sum());
+        lines.add("Queue depth: " + queueDepth.summary(""));
+        lines.add("Drift: " + drift.summary(" ticks"));
+        lines.add("Lateness (precise delays): " + lateness.summary("us"));
+        lines.add("Key press: " + keyPressTime.summary("us"));
+        lines.add("Chat message: " + chatTime.summary("us"));
+        lines.add("Tick: " + tickTime.summary("us"));
+        lines.add("Budget overruns: " + overrunTicks.sum() + " ticks, deferred tasks: " + deferredTasks.summary(""));
+        return lines;
+    }
+
+    /**
+     * Returns the most frequently triggered macros.
+     *
+     * @param macros The macros.
+     * @param limit The maximum number of macros.
+     *
+     * @return The macros which were triggered at least once, most frequently triggered first.
+     */
+    public static List<Macro> topMacros(final Iterable<Macro> macros, final int limit) {
+        final List<Macro> top = new ArrayList<>();
+        for (final Macro macro : macros) {
+            if (macro.getTriggerCount() > 0) {
+                top.add(macro);
+            }
+        }
+        top.sort(Comparator.comparingLong(Macro::getTriggerCount).reversed());
+        return top.size() > limit ? top.subList(0, limit) : top;
+    }
+}
@@ -0,0 +1,49 @@
+package nge.lk.mods.simplemacros;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * The ways in which a macro can be executed.
+ */
+@RequiredArgsConstructor
+public enum MacroMode {
+
+    /**
+     * The commands are sent once per key press.
+     */
+    ONCE("Once"),
+
+    /**
+     * The commands are repeated while the key is held down.
+     */
+    REPEAT_WHILE_HELD("Repeat While Held"),
+
+    /**
+     * The commands are repeated until the key is pressed again.
+     */
+    TOGGLE_LOOP("Toggle Loop");
+
+    /**
+     * The name which is displayed in the editor.
+     */
+    @Getter private final String displayName;
+
+    /**
+     * Whether macros in this mode repeat their commands.
+     *
+     * @return Whether the commands are repeated.
+     */
+    public boolean isLooping() {
+        return this != ONCE;
+    }
+
+    /**
+     * Returns the mode which follows this mode in the editor.
+     *
+     * @return The next mode.
+     */
+    public MacroMode next() {
+        return values()[(ordinal() + 1) % values().length];
+    }
+}
@@ -0,0 +1,145 @@
+package nge.lk.mods.simplemacros;
+
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * The compiled, immutable form of a macro which is executed at runtime.
+ *
+ * Only the non-empty commands are kept as parsed templates, together with their precomputed offsets from the start of
+ * the execution. Empty commands still take up their delay, as they did before compilation.
+ */
+public final class MacroProgram {
+
+    /**
+     * The non-empty commands.
+     */
+    private final CommandTemplate[] commands;
+
+    /**
+     * The offset in ticks of each command from the first command.
+     */
+    private final long[] tickOffsets;
+
+    /**
+     * The offset in milliseconds of each command from the first command.
+     */
+    private final long[] millisOffsets;
+
+    /**
+     * Whether the commands are repeated.
+     */
+    @Getter private final boolean looping;
+
+    /**
+     * The length of one repetition in ticks.
+     */
+    @Getter private final long loopTicks;
+
+    /**
+     * The length of one repetition in milliseconds.
+     */
+    @Getter private final long loopMillis;
+
+    /**
+     * Whether the macro should be saved.
+     */
+    @Getter private final boolean save;
+
+    /**
+     * Compiles a macro.
+     *
+     * @param macro The macro.
+     */
+    public MacroProgram(final Macro macro) {
+        final List<String> source = macro.getCommands();
+        looping = macro.getMode().isLooping();
+
+        // Repeating without a delay would never yield to the game.
+        final int delay = looping ? Math.max(1, macro.getDelay()) : macro.getDelay();
+        final int tickDelay = looping ? Math.max(1, delay / 50) : delay / 50;
+
+        int count = 0;
+        for (final String command : source) {
+            if (!command.isEmpty()) {
+                count++;
+            }
+        }
+        save = hasContent(source);
+
+        commands = new CommandTemplate[count];
+        tickOffsets = new long[count];
+        millisOffsets = new long[count];
+        int next = 0;
+        for (int position = 0; position < source.size(); position++) {
+            final String command = source.get(position);
+            if (!command.isEmpty()) {
+                commands[next] = CommandTemplate.compile(command);
+                tickOffsets[next] = (long) position * tickDelay;
+                millisOffsets[next] = (long) position * delay;
+                next++;
+            }
+        }
+        loopTicks = (long) source.size() * tickDelay;
+        loopMillis = (long) source.size() * delay;
+    }
+
+    /**
+     * Returns the number of non-empty commands.
+     *
+     * @return The number of commands.
+     */
+    public int size() {
+        return commands.length;
+    }
+
+    /**
+     * Returns a command.
+     *
+     * @param index The index of the command.
+     *
+     * @return The command.
+     */
+    public CommandTemplate getCommand(final int index) {
+        return commands[index];
+    }
+
+    /**
+     * Returns the offset in ticks of a command from the first command.
+     *
+     * @param index The index of the command.
+     *
+     * @return The offset in ticks.
+     */
+    public long getTickOffset(final int index) {
+        return tickOffsets[index];
+    }
+
+    /**
+     * Returns the offset in milliseconds of a command from the first command.
+     *
+     * @param index The index of the command.
+     *
+     * @return The offset in milliseconds.
+     */
+    public long getMillisOffset(final int index) {
+        return millisOffsets[index];
+    }
+
+    /**
+     * Checks whether any command has content besides whitespace, i.e. whether a macro with these commands is saved.
+     *
+     * @param commands The commands.
+     *
+     * @return Whether any command has content.
+     */
+    public static boolean hasContent(final List<String> commands) {
+        for (final String command : commands) {
+            if (!command.trim().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,306 @@
+package nge.lk.mods.simplemacros;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatches key events to macros and runs their executions, independent of the game client.
+ *
+ * The keyboard, the chat and the clock are accessed through {@link InputSource}, {@link ChatSink} and
+ * {@link TickClock}, so the runtime can be driven by the mod as well as by a simulation. Simulations are
+ * deterministic if delays are measured in ticks. All methods must be called from the same thread, which is the client
+ * thread in the game.
+ */
+public class MacroRuntime {
+
+    /**
+     * The maximum number of key presses which are buffered while the macros are loaded.
+     */
+    private static final int MAX_BUFFERED_KEYS = 32;
+
+    /**
+     * The maximum age in nanoseconds of buffered key presses which are replayed after loading.
+     */
+    private static final long MAX_BUFFERED_KEY_AGE = TimeUnit.SECONDS.toNanos(2);
+
+    /**
+     * The number of ticks after a macro sent a command in which it is not triggered by chat again, so that macros do
+     * not trigger themselves through the echo of their own messages.
+     */
+    private static final long CHAT_TRIGGER_COOLDOWN = 20;
+
+    /**
+     * The scheduler for all tick runnables.
+     */
+    @Getter private final TickScheduler tickScheduler = new TickScheduler();
+
+    /**
+     * The index of macro key bindings.
+     */
+    @Getter private final MacroIndex macroIndex = new MacroIndex();
+
+    /**
+     * The runtime metrics.
+     */
+    @Getter private final MacroMetrics metrics = new MacroMetrics();
+
+    /**
+     * The pacer for outgoing chat messages.
+     */
+    @Getter private final ChatPacer chatPacer;
+
+    /**
+     * Provides the keyboard state.
+     */
+    private final InputSource input;
+
+    /**
+     * The clock for the times of key presses.
+     */
+    private final TickClock clock;
+
+    /**
+     * Provides the values of variables in commands.
+     */
+    private final CommandTemplate.VariableSource variables;
+
+    /**
+     * The timer for precise delays, or {@code null} if delays are measured in ticks.
+     */
+    @Getter private final PrecisionTimer precisionTimer;
+
+    /**
+     * The key presses which arrived while loading.
+     */
+    private final Queue<BufferedPress> bufferedKeys = new ArrayDeque<>();
+
+    /**
+     * The snapshot of the keyboard, taken once per key event.
+     */
+    private final KeyState keyState = new KeyState();
+
+    /**
+     * The macros triggered by the current key press, reused between key presses.
+     */
+    private final List<Macro> matchedMacros = new ArrayList<>();
+
+    /**
+     * The current version of the loaded macros, which can be shared as a snapshot. The index has to be rebuilt after
+     * a new version was set.
+     */
+    @Getter @Setter private PersistentVector<Macro> macros = PersistentVector.empty();
+
+    /**
+     * Whether the macros are being loaded. Key presses are buffered until then.
+     */
+    @Getter private boolean loading;
+
+    /**
+     * Counts the ticks, for decreasing click speeds.
+     */
+    @Getter private long tickCounter;
+
+    /**
+     * Limits the executions run and the messages sent per tick. Unlimited by default.
+     */
+    @Getter @Setter private TickBudget tickBudget = new TickBudget(0, 0);
+
+    /**
+     * Constructor.
+     *
+     * @param input Provides the keyboard state.
+     * @param clock The clock for the times of key presses.
+     * @param chatPacer The pacer for outgoing chat messages, which sends them to a {@link ChatSink}.
+     * @param precisionTimer The timer for precise delays, or {@code null} if delays are measured in ticks.
+     * @param variables Provides the values of variables in commands.
+     */
+    public MacroRuntime(final InputSource input, final TickClock clock, final ChatPacer chatPacer,
+                        final PrecisionTimer precisionTimer, final CommandTemplate.VariableSource variables) {
+        this.input = input;
+        this.clock = clock;
+        this.chatPacer = chatPacer;
+        this.precisionTimer = precisionTimer;
+        this.variables = variables;
+    }
+
+    /**
+     * Handles the current key event of the input source: releases macros whose key is no longer held and triggers
+     * the macros matching a key press. Key presses are buffered while loading.
+     */
+    public void onKeyEvent() {
+        final long start = System.nanoTime();
+        keyState.capture(input::isKeyDown);
+        macroIndex.releaseInactive(keyState::isDown);
+        if (input.getEventKeyState()) {
+            final int key = input.getEventKey();
+            final long time = clock.nanoTime();
+            keyState.recordPress(key, time);
+            if (!loading) {
+                macroIndex.match(key, keyState, matchedMacros);
+                triggerMacros(matchedMacros);
+            } else if (bufferedKeys.size() < MAX_BUFFERED_KEYS) {
+                bufferedKeys.add(new BufferedPress(time, key, new KeyState(keyState)));
+            }
+        }
+        metrics.recordKeyPress(System.nanoTime() - start);
+    }
+
+    /**
+     * Handles a received chat message: triggers the enabled macros whose chat trigger occurs in the message. Macros
+     * are not triggered while they run or shortly after they sent a command, and macros which repeat while their key
+     * is held are never triggered by chat. Messages are ignored while loading.
+     *
+     * @param message The message, without formatting codes.
+     */
+    public void onChatMessage(final String message) {
+        if (loading || !macroIndex.hasChatTriggers()) {
+            return;
+        }
+        final long start = System.nanoTime();
+        macroIndex.matchChat(message, matchedMacros);
+        for (final Macro macro : matchedMacros) {
+            final MacroState state = macroIndex.getState(macro);
+            final MacroExecution running = state.getExecution();
+            if (macro.getMode() == MacroMode.REPEAT_WHILE_HELD || running != null && running.isRunning()
+                    || macro.getRunCount() > 0 && tickCounter - macro.getLastSentTick() < CHAT_TRIGGER_COOLDOWN) {
+                continue;
+            }
+            startExecution(state);
+        }
+        metrics.recordChatMessage(System.nanoTime() - start);
+    }
+
+    /**
+     * Advances by one tick: runs the due executions and sends the chat messages the rate limit allows. Executions
+     * and messages which exceed the tick budget are deferred to the next tick.
+     */
+    public void onTick() {
+        final long start = System.nanoTime();
+        tickCounter++;
+        tickBudget.begin();
+        tickScheduler.advanceTo(tickCounter, tickBudget);
+        if (precisionTimer != null) {
+            precisionTimer.drain();
+        }
+        chatPacer.onTick(tickBudget);
+        if (tickBudget.isOverrun()) {
+            metrics.recordOverrun(tickScheduler.getReadyCount());
+        }
+        metrics.recordQueueDepth(tickScheduler.size());
+        metrics.recordTick(System.nanoTime() - start);
+    }
+
+    /**
+     * Runs the executions with precise delays which are due between ticks.
+     */
+    public void onFrame() {
+        if (precisionTimer == null) {
+            return;
+        }
+        precisionTimer.drain();
+        chatPacer.flush();
+    }
+
+    /**
+     * Starts buffering key presses until the macros are loaded.
+     */
+    public void beginLoad() {
+        loading = true;
+    }
+
+    /**
+     * Stops buffering key presses and replays the buffered ones. Recent key presses trigger their macros, older ones
+     * are dropped. The macros have to be set and the index rebuilt before.
+     *
+     * @return The number of replayed key presses.
+     */
+    public int finishLoad() {
+        loading = false;
+        int replayed = 0;
+        for (BufferedPress press = bufferedKeys.poll(); press != null; press = bufferedKeys.poll()) {
+            if (clock.nanoTime() - press.getTime() <= MAX_BUFFERED_KEY_AGE) {
+                macroIndex.match(press.getKey(), press.getState(), matchedMacros);
+                triggerMacros(matchedMacros);
+                replayed++;
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * Returns the number of key presses which were buffered while loading.
+     *
+     * @return The number of buffered key presses.
+     */
+    public int getBufferedKeyCount() {
+        return bufferedKeys.size();
+    }
+
+    /**
+     * Triggers the given macros unless they are already active. Pressing a macro again while it runs cancels the
+     * running execution, so two executions never interleave their commands: toggle loops stop, other macros start
+     * over.
+     *
+     * @param candidates The enabled macros triggered by the pressed key.
+     */
+    private void triggerMacros(final List<Macro> candidates) {
+        for (final Macro macro : candidates) {
+            final MacroState state = macroIndex.getState(macro);
+            if (state.isActive()) {
+                continue;
+            }
+            macroIndex.activate(state);
+
+            final MacroExecution running = state.getExecution();
+            if (running != null && running.isRunning()) {
+                state.cancelExecutions();
+                if (macro.getMode() == MacroMode.TOGGLE_LOOP) {
+                    continue;
+                }
+            }
+
+            startExecution(state);
+        }
+    }
+
+    /**
+     * Starts a new execution of a macro in the next tick.
+     *
+     * @param state The state of the macro.
+     */
+    private void startExecution(final MacroState state) {
+        metrics.recordTrigger(state.getMacro());
+        new MacroExecution(tickScheduler, precisionTimer, chatPacer, variables, metrics, macroIndex, state)
+                .start(tickCounter + 1);
+    }
+
+    /**
+     * A key press which arrived while the macros were loaded.
+     */
+    @Getter
+    @RequiredArgsConstructor
+    private static class BufferedPress {
+
+        /**
+         * The time of the press, as returned by the clock of the runtime.
+         */
+        private final long time;
+
+        /**
+         * The pressed key.
+         */
+        private final int key;
+
+        /**
+         * The snapshot of the keyboard at the time of the press.
+         */
+        private final KeyState state;
+    }
+}
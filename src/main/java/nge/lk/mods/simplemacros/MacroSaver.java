@@ -0,0 +1,108 @@
+package nge.lk.mods.simplemacros;
+
+import nge.lk.mods.commonlib.util.DebugUtil;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Saves macros on a background thread. Saves which are requested while another save is still pending are coalesced
+ * into a single write of the latest state.
+ */
+public class MacroSaver {
+
+    /**
+     * The macro IO manager.
+     */
+    private final MacroIO macroIO;
+
+    /**
+     * The executor which performs the writes.
+     */
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        final Thread thread = new Thread(r, "SimpleMacros Saver");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The version of the macros which waits for being written, if any.
+     */
+    private final AtomicReference<PersistentVector<Macro>> pending = new AtomicReference<>();
+
+    /**
+     * The number of requested saves. Only accessed by the client thread.
+     */
+    private long saveRequests;
+
+    /**
+     * Constructor.
+     *
+     * @param macroIO The macro IO manager.
+     */
+    public MacroSaver(final MacroIO macroIO) {
+        this.macroIO = macroIO;
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "SimpleMacros Saver Shutdown"));
+    }
+
+    /**
+     * Requests the macros to be saved. The version of the macros is never changed, so it is saved as it is.
+     *
+     * @param macros The macros.
+     */
+    public void requestSave(final PersistentVector<Macro> macros) {
+        // Only schedule a write if none is pending, otherwise the pending write picks up the new version.
+        saveRequests++;
+        if (pending.getAndSet(macros) == null) {
+            executor.execute(this::writePending);
+        }
+    }
+
+    /**
+     * Returns the number of requested saves, which can be used to detect whether changes have been saved since.
+     *
+     * @return The number of requested saves.
+     */
+    public long getSaveRequests() {
+        return saveRequests;
+    }
+
+    /**
+     * Runs an IO task on the background thread after all writes that were requested before, so it never observes a
+     * save file which is about to be replaced.
+     *
+     * @param task The task.
+     */
+    public void execute(final Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Waits for outstanding writes and writes the pending version, if any.
+     */
+    public void flush() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writePending();
+    }
+
+    /**
+     * Writes the pending version, if any.
+     */
+    private void writePending() {
+        final PersistentVector<Macro> macros = pending.getAndSet(null);
+        if (macros != null) {
+            try {
+                macroIO.saveState(macros);
+            } catch (final RuntimeException e) {
+                DebugUtil.recoverableError(e);
+            }
+        }
+    }
+}
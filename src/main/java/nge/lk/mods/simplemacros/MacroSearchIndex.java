@@ -0,0 +1,230 @@
+package nge.lk.mods.simplemacros;
+
+import org.lwjgl.input.Keyboard;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * A full-text index over the commands, groups, key bindings and chat triggers of macros, for finding macros in large
+ * libraries.
+ *
+ * Macros are identified by their position in the library. Every trigram of the lower-case text of a macro is mapped
+ * to the set of macros containing it, so queries of three or more characters only verify the macros which contain
+ * all trigrams of the query. Shorter queries check every macro.
+ */
+public class MacroSearchIndex {
+
+    /**
+     * Separates the fields of a macro in the indexed text, so that matches do not span fields.
+     */
+    private static final char FIELD_SEPARATOR = '\n';
+
+    /**
+     * The score of a match of the whole key binding.
+     */
+    private static final int SCORE_BINDING = 400;
+
+    /**
+     * The score of a match at the start of a field.
+     */
+    private static final int SCORE_FIELD_PREFIX = 300;
+
+    /**
+     * The score of a match at the start of a word.
+     */
+    private static final int SCORE_WORD_PREFIX = 200;
+
+    /**
+     * The score of a match anywhere else.
+     */
+    private static final int SCORE_SUBSTRING = 100;
+
+    /**
+     * The indexed lower-case text of each macro, or {@code null} if the position is not indexed.
+     */
+    private final List<String> texts = new ArrayList<>();
+
+    /**
+     * The positions of the macros by the trigrams their text contains.
+     */
+    private final Map<Long, BitSet> postings = new HashMap<>();
+
+    /**
+     * Rebuilds the index from the given macros.
+     *
+     * @param macros The macros.
+     */
+    public void rebuild(final List<Macro> macros) {
+        texts.clear();
+        postings.clear();
+        for (int i = 0; i < macros.size(); i++) {
+            update(i, macros.get(i));
+        }
+    }
+
+    /**
+     * Indexes a macro again after it was changed or added.
+     *
+     * @param position The position of the macro in the library.
+     * @param macro The macro.
+     */
+    public void update(final int position, final Macro macro) {
+        final String text = indexedText(macro);
+        while (texts.size() <= position) {
+            texts.add(null);
+        }
+        final String old = texts.get(position);
+        if (text.equals(old)) {
+            return;
+        }
+        if (old != null) {
+            for (int i = 0; i + 3 <= old.length(); i++) {
+                final BitSet positions = postings.get(trigram(old, i));
+                if (positions != null) {
+                    positions.clear(position);
+                }
+            }
+        }
+        texts.set(position, text);
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            postings.computeIfAbsent(trigram(text, i), k -> new BitSet()).set(position);
+        }
+    }
+
+    /**
+     * Searches for macros.
+     *
+     * @param query The query, which is matched ignoring case.
+     * @param limit The maximum number of results.
+     *
+     * @return The positions of the matching macros, best match first.
+     */
+    public List<Integer> search(final String query, final int limit) {
+        final String needle = query.trim().toLowerCase(Locale.ROOT);
+        final List<Integer> results = new ArrayList<>();
+        if (needle.isEmpty() || limit <= 0) {
+            return results;
+        }
+
+        final BitSet candidates = candidates(needle);
+        // The worst of the best results is at the head, ties are broken in favor of earlier macros.
+        final PriorityQueue<long[]> best = new PriorityQueue<>(
+                (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(b[1], a[1]));
+        for (int position = candidates.nextSetBit(0); position >= 0;
+             position = candidates.nextSetBit(position + 1)) {
+            final String text = texts.get(position);
+            if (text == null) {
+                continue;
+            }
+            final int score = score(text, needle);
+            if (score > 0 && (best.size() < limit || score > best.peek()[0])) {
+                best.add(new long[]{score, position});
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+        }
+        while (!best.isEmpty()) {
+            results.add(0, (int) best.poll()[1]);
+        }
+        return results;
+    }
+
+    /**
+     * Finds the macros which may match a query.
+     *
+     * @param needle The lower-case query.
+     *
+     * @return The positions of the candidates. The caller may modify the set.
+     */
+    private BitSet candidates(final String needle) {
+        if (needle.length() < 3) {
+            final BitSet all = new BitSet();
+            all.set(0, texts.size());
+            return all;
+        }
+        BitSet result = null;
+        for (int i = 0; i + 3 <= needle.length(); i++) {
+            final BitSet positions = postings.get(trigram(needle, i));
+            if (positions == null) {
+                return new BitSet();
+            }
+            if (result == null) {
+                result = (BitSet) positions.clone();
+            } else {
+                result.and(positions);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Scores how well a text matches a query. The best occurrence counts, and shorter texts rank higher among
+     * equally good matches.
+     *
+     * @param text The lower-case text.
+     * @param needle The lower-case query.
+     *
+     * @return The score, or 0 if the text does not contain the query.
+     */
+    private static int score(final String text, final String needle) {
+        int best = 0;
+        // Only the binding can beat a field prefix, and it is checked by the first occurrence.
+        for (int at = text.indexOf(needle); at >= 0 && best < SCORE_FIELD_PREFIX; at = text.indexOf(needle, at + 1)) {
+            final int score;
+            if (at == 0 && text.length() > needle.length() && text.charAt(needle.length()) == FIELD_SEPARATOR) {
+                score = SCORE_BINDING;
+            } else if (at == 0 || text.charAt(at - 1) == FIELD_SEPARATOR) {
+                score = SCORE_FIELD_PREFIX;
+            } else if (!Character.isLetterOrDigit(text.charAt(at - 1))) {
+                score = SCORE_WORD_PREFIX;
+            } else {
+                score = SCORE_SUBSTRING;
+            }
+            best = Math.max(best, score);
+        }
+        return best == 0 ? 0 : best + Math.max(0, 99 - text.length() / 8);
+    }
+
+    /**
+     * Builds the indexed text of a macro: the key binding, the group, the chat trigger and the commands.
+     *
+     * @param macro The macro.
+     *
+     * @return The lower-case text.
+     */
+    private static String indexedText(final Macro macro) {
+        final StringBuilder text = new StringBuilder();
+        if (macro.getMacroKey() != Keyboard.KEY_ESCAPE) {
+            text.append(macro.getBindingName());
+        }
+        text.append(FIELD_SEPARATOR).append(macro.getGroup());
+        if (!macro.getChatTrigger().isEmpty()) {
+            text.append(FIELD_SEPARATOR).append(macro.getChatTrigger());
+        }
+        for (final String command : macro.getCommands()) {
+            if (!command.isEmpty()) {
+                text.append(FIELD_SEPARATOR).append(command);
+            }
+        }
+        return text.toString().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Packs the three characters at an index into a key.
+     *
+     * @param text The text.
+     * @param index The index of the first character.
+     *
+     * @return The trigram key.
+     */
+    private static long trigram(final String text, final int index) {
+        return (long) text.charAt(index) << 32 | (long) text.charAt(index + 1) << 16 | text.charAt(index + 2);
+    }
+}
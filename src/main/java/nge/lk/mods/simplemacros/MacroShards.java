@@ -0,0 +1,366 @@
+package nge.lk.mods.simplemacros;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import nge.lk.mods.commonlib.util.DebugUtil;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Loads the shards of macro groups on demand.
+ *
+ * At startup only the global group and the last active group are loaded. Other groups are loaded in the background
+ * when the group cycle reaches them, together with the following group. Groups which were not active for a while are
+ * evicted when more than the configured number of groups are loaded. Loads run on the saver thread, so they always
+ * observe the latest saved state.
+ *
+ * Groups whose shards could not be read stay in the group cycle, and loading them is retried when they are requested
+ * again. Saves keep their shards as they are.
+ *
+ * All methods must be called from the client thread, except {@link #loadInitial()} which may run in the background
+ * before any other method is called.
+ */
+public class MacroShards {
+
+    /**
+     * The macro IO manager.
+     */
+    private final MacroIO macroIO;
+
+    /**
+     * The background saver for macros, which also performs loads.
+     */
+    private final MacroSaver macroSaver;
+
+    /**
+     * The maximum number of non-global groups which are kept loaded.
+     */
+    private final int cacheSize;
+
+    /**
+     * The loaded groups.
+     */
+    private final Set<String> loaded = new HashSet<>();
+
+    /**
+     * The groups which are being loaded in the background.
+     */
+    private final Set<String> loading = new HashSet<>();
+
+    /**
+     * The groups whose shards could not be read when they were loaded last.
+     */
+    private final Set<String> failed = new HashSet<>();
+
+    /**
+     * The loaded non-global groups, least recently used first.
+     */
+    private final Map<String, Boolean> recent = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The shards which were loaded in the background but not yet added to the macros.
+     */
+    private final Queue<LoadedShard> completed = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The (lowercase) names of all groups in their cycle order, starting with the global group.
+     */
+    @Getter private List<String> groups = Collections.singletonList("");
+
+    /**
+     * The (lowercase) name of the active group.
+     */
+    @Getter private String activeGroup = "";
+
+    /**
+     * The number of requested saves when all groups were loaded for editing, or -1 if groups may be evicted.
+     */
+    private long pinnedSaves = -1;
+
+    /**
+     * Whether the macros are sorted by the cycle order of their groups once all groups are loaded.
+     */
+    private boolean sortPending;
+
+    /**
+     * Constructor.
+     *
+     * @param macroIO The macro IO manager, which must use shards.
+     * @param macroSaver The background saver for macros.
+     * @param cacheSize The maximum number of non-global groups which are kept loaded.
+     */
+    public MacroShards(final MacroIO macroIO, final MacroSaver macroSaver, final int cacheSize) {
+        this.macroIO = macroIO;
+        this.macroSaver = macroSaver;
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Loads the global group and the last active group. If there are no shards yet, the save file is migrated and all
+     * groups are loaded.
+     *
+     * @return The loaded macros.
+     */
+    public List<Macro> loadInitial() {
+        if (!macroIO.hasManifest()) {
+            final List<Macro> macros = macroIO.loadState();
+            groups = groupsOf(macros);
+            for (final String group : groups) {
+                markLoaded(group);
+            }
+            return macros;
+        }
+
+        try {
+            groups = macroIO.readManifest();
+        } catch (final IOException e) {
+            DebugUtil.recoverableError(e);
+        }
+        final String lastActive = macroIO.readActiveGroup();
+        activeGroup = groups.contains(lastActive) ? lastActive : "";
+
+        final List<Macro> macros = new ArrayList<>();
+        loadNow("", macros);
+        loadNow(activeGroup, macros);
+        return macros;
+    }
+
+    /**
+     * Remembers a group as active and loads it in the background, together with the next group in the cycle.
+     *
+     * @param group The (lowercase) name of the group.
+     */
+    public void activate(final String group) {
+        activeGroup = group;
+        macroSaver.execute(() -> macroIO.writeActiveGroup(group));
+        recent.get(group);
+        request(group);
+        final int index = groups.indexOf(group);
+        if (index >= 0) {
+            request(groups.get((index + 1) % groups.size()));
+        }
+    }
+
+    /**
+     * Adds the groups which were loaded in the background to the macros. Once all groups requested by
+     * {@link #loadAll()} are loaded, the macros are sorted by the cycle order of their groups.
+     *
+     * @param macros The macros.
+     *
+     * @return The macros with the loaded groups, or the given macros if no group was loaded or sorted.
+     */
+    public PersistentVector<Macro> poll(final PersistentVector<Macro> macros) {
+        PersistentVector<Macro> result = macros;
+        for (LoadedShard shard = completed.poll(); shard != null; shard = completed.poll()) {
+            loading.remove(shard.getGroup());
+            if (shard.getMacros() == null) {
+                failed.add(shard.getGroup());
+            } else if (!loaded.contains(shard.getGroup())) {
+                result = result.plusAll(shard.getMacros());
+                markLoaded(shard.getGroup());
+            }
+        }
+        if (sortPending && loading.isEmpty()) {
+            sortPending = false;
+            result = sortByGroup(result);
+        }
+        return result;
+    }
+
+    /**
+     * Loads all groups which are not loaded yet in the background, e.g. for editing. The groups are added by
+     * {@link #poll(PersistentVector)}, which also sorts the macros by the cycle order of their groups once all groups
+     * are loaded, so saving them keeps the order. No groups are evicted until the changes have been saved, since
+     * evicted groups are loaded from the shards again.
+     *
+     * Groups whose shards can not be read are left out, so {@link #isLoading()} turns false nevertheless.
+     */
+    public void loadAll() {
+        for (final String group : groups) {
+            request(group);
+        }
+        sortPending = true;
+        pinnedSaves = macroSaver.getSaveRequests();
+    }
+
+    /**
+     * Checks whether groups are being loaded or their macros have not been polled yet.
+     *
+     * @return Whether groups are being loaded.
+     */
+    public boolean isLoading() {
+        return !loading.isEmpty() || sortPending;
+    }
+
+    /**
+     * Evicts the least recently used groups if more groups are loaded than the cache size. The global group and the
+     * active group are never evicted. Rebuilding the index with the remaining macros cancels the executions of the
+     * evicted groups.
+     *
+     * @param macros The macros.
+     *
+     * @return The macros without the evicted groups, or the given macros if no group was evicted.
+     */
+    public PersistentVector<Macro> evict(final PersistentVector<Macro> macros) {
+        if (pinnedSaves >= 0) {
+            if (macroSaver.getSaveRequests() == pinnedSaves) {
+                return macros;
+            }
+            // The saved macros are complete, so their groups are the groups of the shards now.
+            pinnedSaves = -1;
+            final Set<String> saved = new LinkedHashSet<>(groupsOf(macros));
+            saved.addAll(failed);
+            groups = new ArrayList<>(saved);
+        }
+
+        final Set<String> evicted = new HashSet<>();
+        final Iterator<String> leastRecent = recent.keySet().iterator();
+        while (recent.size() - evicted.size() > cacheSize && leastRecent.hasNext()) {
+            final String group = leastRecent.next();
+            if (!group.equals(activeGroup)) {
+                evicted.add(group);
+            }
+        }
+        if (evicted.isEmpty()) {
+            return macros;
+        }
+
+        final List<Macro> kept = new ArrayList<>(macros.size());
+        for (final Macro macro : macros) {
+            if (!evicted.contains(macro.getGroup().toLowerCase(Locale.ROOT))) {
+                kept.add(macro);
+            }
+        }
+        loaded.removeAll(evicted);
+        recent.keySet().removeAll(evicted);
+        return PersistentVector.copyOf(kept);
+    }
+
+    /**
+     * Loads a group in the background if it is not loaded yet.
+     *
+     * @param group The (lowercase) name of the group.
+     */
+    private void request(final String group) {
+        if (loaded.contains(group) || !loading.add(group)) {
+            return;
+        }
+        macroSaver.execute(() -> completed.add(new LoadedShard(group, read(group))));
+    }
+
+    /**
+     * Loads a group on the calling thread if it is not loaded yet.
+     *
+     * @param group The (lowercase) name of the group.
+     * @param macros The macros, to which the group is added.
+     */
+    private void loadNow(final String group, final List<Macro> macros) {
+        if (loaded.contains(group)) {
+            return;
+        }
+        final List<Macro> shard = read(group);
+        if (shard == null) {
+            failed.add(group);
+        } else {
+            macros.addAll(shard);
+            markLoaded(group);
+        }
+    }
+
+    /**
+     * Marks a group as loaded.
+     *
+     * @param group The (lowercase) name of the group.
+     */
+    private void markLoaded(final String group) {
+        loaded.add(group);
+        failed.remove(group);
+        if (!group.isEmpty()) {
+            recent.put(group, true);
+        }
+    }
+
+    /**
+     * Reads the shard of a group.
+     *
+     * @param group The (lowercase) name of the group.
+     *
+     * @return The macros, or {@code null} if reading failed.
+     */
+    private List<Macro> read(final String group) {
+        try {
+            return macroIO.readShard(group);
+        } catch (final IOException e) {
+            DebugUtil.recoverableError(e);
+            return null;
+        }
+    }
+
+    /**
+     * Sorts macros by the cycle order of their groups. Macros of unknown groups come last.
+     *
+     * @param macros The macros.
+     *
+     * @return The sorted macros.
+     */
+    private PersistentVector<Macro> sortByGroup(final PersistentVector<Macro> macros) {
+        final Map<String, Integer> order = new HashMap<>();
+        for (final String group : groups) {
+            order.put(group, order.size());
+        }
+        final List<Macro> sorted = new ArrayList<>(macros);
+        sorted.sort(Comparator.comparingInt(
+                macro -> order.getOrDefault(macro.getGroup().toLowerCase(Locale.ROOT), order.size())));
+        return PersistentVector.copyOf(sorted);
+    }
+
+    /**
+     * Returns the groups of macros in the order in which they first appear, starting with the global group.
+     *
+     * @param macros The macros.
+     *
+     * @return The (lowercase) names of the groups.
+     */
+    private static List<String> groupsOf(final List<Macro> macros) {
+        final Set<String> groups = new LinkedHashSet<>();
+        groups.add("");
+        for (final Macro macro : macros) {
+            if (macro.shouldSave()) {
+                groups.add(macro.getGroup().toLowerCase(Locale.ROOT));
+            }
+        }
+        return new ArrayList<>(groups);
+    }
+
+    /**
+     * The macros of a group which were loaded in the background.
+     */
+    @Getter
+    @RequiredArgsConstructor
+    private static class LoadedShard {
+
+        /**
+         * The (lowercase) name of the group.
+         */
+        private final String group;
+
+        /**
+         * The macros, or {@code null} if reading failed.
+         */
+        private final List<Macro> macros;
+    }
+}
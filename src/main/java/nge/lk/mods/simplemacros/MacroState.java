@@ -0,0 +1,73 @@
+package nge.lk.mods.simplemacros;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * The state of a macro in the runtime, kept by the {@link MacroIndex}. Macros themselves are values which are shared
+ * by the versions of the library, so nothing about running them is stored in them.
+ *
+ * The state belongs to one macro at a time. When a reloaded macro replaces a loaded one, it takes over the state of
+ * the loaded macro, so its running execution can be stopped through the reloaded macro.
+ */
+@Getter
+public class MacroState {
+
+    /**
+     * The macro this state belongs to.
+     */
+    private Macro macro;
+
+    /**
+     * The compiled program of the macro.
+     */
+    private MacroProgram program;
+
+    /**
+     * The mask of the chord, or {@code null} if there is no chord.
+     */
+    private long[] chordMask;
+
+    /**
+     * Whether the macro is currently active, i.e. was triggered and its key was not released yet.
+     */
+    @Setter private boolean active;
+
+    /**
+     * The generation of the macro's executions. Executions of older generations are cancelled.
+     */
+    private int generation;
+
+    /**
+     * The latest execution of the macro, if any.
+     */
+    @Setter private MacroExecution execution;
+
+    /**
+     * Constructor.
+     *
+     * @param macro The macro this state belongs to.
+     */
+    public MacroState(final Macro macro) {
+        setMacro(macro);
+    }
+
+    /**
+     * Assigns this state to a macro and compiles its program and chord. Running executions keep the program they were
+     * started with.
+     *
+     * @param macro The macro.
+     */
+    void setMacro(final Macro macro) {
+        this.macro = macro;
+        program = new MacroProgram(macro);
+        chordMask = KeyState.mask(macro.getChord());
+    }
+
+    /**
+     * Cancels all running executions of the macro.
+     */
+    public void cancelExecutions() {
+        generation++;
+    }
+}
@@ -0,0 +1,284 @@
+package nge.lk.mods.simplemacros;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes and decodes macros in the text format, one macro per line.
+ *
+ * The fields are separated by '§' (group, shift, ctrl, key, delay, commands) and the commands are separated by tabs.
+ * Optional fields follow the commands (mode, chord keys, sequence keys, chat trigger) and are only written if they
+ * differ from their defaults, so files of plain macros stay readable by older versions. Keys are separated by commas.
+ */
+public final class MacroTextCodec {
+
+    /**
+     * The separator between fields.
+     */
+    private static final char FIELD_SEPARATOR = '§';
+
+    /**
+     * The separator between commands.
+     */
+    private static final char COMMAND_SEPARATOR = '\t';
+
+    /**
+     * The separator between keys.
+     */
+    private static final char KEY_SEPARATOR = ',';
+
+    /**
+     * The number of fields in a line.
+     */
+    private static final int FIELD_COUNT = 6;
+
+    private MacroTextCodec() {
+    }
+
+    /**
+     * Appends the encoded macro to a buffer.
+     *
+     * @param macro The macro.
+     * @param out The buffer.
+     */
+    public static void encode(final Macro macro, final StringBuilder out) {
+        out.append(macro.getGroup()).append(FIELD_SEPARATOR)
+                .append(macro.isShiftModifier()).append(FIELD_SEPARATOR)
+                .append(macro.isCtrlModifier()).append(FIELD_SEPARATOR)
+                .append(macro.getMacroKey()).append(FIELD_SEPARATOR)
+                .append(macro.getDelay()).append(FIELD_SEPARATOR);
+        final List<String> commands = macro.getCommands();
+        for (int i = 0; i < commands.size(); i++) {
+            if (i > 0) {
+                out.append(COMMAND_SEPARATOR);
+            }
+            out.append(commands.get(i));
+        }
+        final boolean hasChatTrigger = !macro.getChatTrigger().isEmpty();
+        final boolean hasTrigger = macro.getChord().length > 0 || macro.getSequence().length > 0 || hasChatTrigger;
+        if (macro.getMode() != MacroMode.ONCE || hasTrigger) {
+            out.append(FIELD_SEPARATOR).append(macro.getMode().name());
+        }
+        if (hasTrigger) {
+            out.append(FIELD_SEPARATOR);
+            appendKeys(macro.getChord(), out);
+            out.append(FIELD_SEPARATOR);
+            appendKeys(macro.getSequence(), out);
+        }
+        if (hasChatTrigger) {
+            out.append(FIELD_SEPARATOR).append(macro.getChatTrigger());
+        }
+    }
+
+    /**
+     * Appends comma-separated keys to a buffer.
+     *
+     * @param keys The keys.
+     * @param out The buffer.
+     */
+    private static void appendKeys(final int[] keys, final StringBuilder out) {
+        for (int i = 0; i < keys.length; i++) {
+            if (i > 0) {
+                out.append(KEY_SEPARATOR);
+            }
+            out.append(keys[i]);
+        }
+    }
+
+    /**
+     * Decodes a macro from a line.
+     *
+     * @param line The line.
+     * @param lineNo The number of the line, for error reporting.
+     *
+     * @return The macro.
+     *
+     * @throws IOException If the line is malformed.
+     */
+    public static Macro decode(final String line, final int lineNo) throws IOException {
+        // Find the field boundaries of the mandatory fields in a single pass.
+        final int[] starts = new int[FIELD_COUNT + 1];
+        int field = 1;
+        for (int i = 0; i < line.length() && field < FIELD_COUNT; i++) {
+            if (line.charAt(i) == FIELD_SEPARATOR) {
+                starts[field++] = i + 1;
+            }
+        }
+        if (field < FIELD_COUNT) {
+            throw malformed(lineNo, "expected " + FIELD_COUNT + " fields, found " + field);
+        }
+        final int commandsEnd = line.indexOf(FIELD_SEPARATOR, starts[FIELD_COUNT - 1]);
+        starts[FIELD_COUNT] = (commandsEnd < 0 ? line.length() : commandsEnd) + 1;
+
+        final String group = line.substring(starts[0], starts[1] - 1);
+        final boolean shiftModifier = parseBoolean(line, starts[1], starts[2] - 1);
+        final boolean ctrlModifier = parseBoolean(line, starts[2], starts[3] - 1);
+        final int macroKey = parseInt(line, starts[3], starts[4] - 1, lineNo, "key");
+        final int delay = parseInt(line, starts[4], starts[5] - 1, lineNo, "delay");
+        final List<String> commands = parseCommands(line, starts[5], starts[6] - 1);
+        final Macro macro = new Macro(group, shiftModifier, ctrlModifier, macroKey, delay, commands);
+
+        if (commandsEnd >= 0) {
+            final int modeEnd = fieldEnd(line, commandsEnd + 1);
+            final String mode = line.substring(commandsEnd + 1, modeEnd);
+            try {
+                macro.setMode(MacroMode.valueOf(mode));
+            } catch (final IllegalArgumentException ignored) {
+                // Unknown modes (e.g. from newer versions) fall back to the default mode.
+            }
+            if (modeEnd < line.length()) {
+                final int chordEnd = fieldEnd(line, modeEnd + 1);
+                macro.setChord(parseKeys(line, modeEnd + 1, chordEnd, lineNo, "chord key"));
+                if (chordEnd < line.length()) {
+                    final int sequenceEnd = fieldEnd(line, chordEnd + 1);
+                    macro.setSequence(parseKeys(line, chordEnd + 1, sequenceEnd, lineNo, "sequence key"));
+                    if (sequenceEnd < line.length()) {
+                        macro.setChatTrigger(line.substring(sequenceEnd + 1, fieldEnd(line, sequenceEnd + 1)));
+                    }
+                }
+            }
+        }
+        return macro;
+    }
+
+    /**
+     * Finds the end of a field.
+     *
+     * @param line The line.
+     * @param start The start index of the field.
+     *
+     * @return The end index of the field (exclusive).
+     */
+    private static int fieldEnd(final String line, final int start) {
+        final int end = line.indexOf(FIELD_SEPARATOR, start);
+        return end < 0 ? line.length() : end;
+    }
+
+    /**
+     * Parses comma-separated keys.
+     *
+     * @param line The line.
+     * @param start The start index of the keys.
+     * @param end The end index of the keys (exclusive).
+     * @param lineNo The number of the line, for error reporting.
+     * @param name The name of the keys, for error reporting.
+     *
+     * @return The keys.
+     *
+     * @throws IOException If a key is not a valid integer.
+     */
+    private static int[] parseKeys(final String line, final int start, final int end, final int lineNo,
+                                   final String name) throws IOException {
+        if (start == end) {
+            return KeyState.NO_KEYS;
+        }
+        int count = 1;
+        for (int i = start; i < end; i++) {
+            if (line.charAt(i) == KEY_SEPARATOR) {
+                count++;
+            }
+        }
+        final int[] keys = new int[count];
+        int keyStart = start;
+        for (int k = 0; k < count; k++) {
+            int keyEnd = line.indexOf(KEY_SEPARATOR, keyStart);
+            keyEnd = keyEnd < 0 || keyEnd > end ? end : keyEnd;
+            keys[k] = parseInt(line, keyStart, keyEnd, lineNo, name);
+            keyStart = keyEnd + 1;
+        }
+        return keys;
+    }
+
+    /**
+     * Parses a boolean, which is true if the text is "true" ignoring case.
+     *
+     * @param line The line.
+     * @param start The start index of the text.
+     * @param end The end index of the text (exclusive).
+     *
+     * @return The boolean.
+     */
+    private static boolean parseBoolean(final String line, final int start, final int end) {
+        return end - start == 4 && line.regionMatches(true, start, "true", 0, 4);
+    }
+
+    /**
+     * Parses a decimal integer.
+     *
+     * @param line The line.
+     * @param start The start index of the text.
+     * @param end The end index of the text (exclusive).
+     * @param lineNo The number of the line, for error reporting.
+     * @param name The name of the field, for error reporting.
+     *
+     * @return The integer.
+     *
+     * @throws IOException If the text is not a valid integer.
+     */
+    private static int parseInt(final String line, final int start, final int end, final int lineNo,
+                                final String name) throws IOException {
+        int i = start;
+        final boolean negative = i < end && line.charAt(i) == '-';
+        if (negative || i < end && line.charAt(i) == '+') {
+            i++;
+        }
+        if (i == end) {
+            throw malformed(lineNo, "empty " + name);
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            final int digit = line.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw malformed(lineNo, "invalid " + name + " '" + line.substring(start, end) + "'");
+            }
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE + 1L) {
+                throw malformed(lineNo, name + " out of range");
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw malformed(lineNo, name + " out of range");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Parses the tab-separated commands. Trailing empty commands are dropped.
+     *
+     * @param line The line.
+     * @param start The start index of the commands.
+     * @param end The end index of the commands (exclusive).
+     *
+     * @return The commands.
+     */
+    private static List<String> parseCommands(final String line, final int start, final int end) {
+        final List<String> commands = new ArrayList<>();
+        int lastNonEmpty = 0;
+        int commandStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i == end || line.charAt(i) == COMMAND_SEPARATOR) {
+                commands.add(line.substring(commandStart, i));
+                if (i > commandStart) {
+                    lastNonEmpty = commands.size();
+                }
+                commandStart = i + 1;
+            }
+        }
+        commands.subList(lastNonEmpty, commands.size()).clear();
+        return commands;
+    }
+
+    /**
+     * Creates an exception for a malformed line.
+     *
+     * @param lineNo The number of the line.
+     * @param reason The reason.
+     *
+     * @return The exception.
+     */
+    private static IOException malformed(final int lineNo, final String reason) {
+        return new IOException("Malformed macro on line " + lineNo + ": " + reason);
+    }
+}
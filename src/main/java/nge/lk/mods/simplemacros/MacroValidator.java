@@ -0,0 +1,111 @@
+package nge.lk.mods.simplemacros;
+
+import org.lwjgl.input.Keyboard;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Finds problems in loaded macros which do not prevent loading them, but most likely are mistakes.
+ *
+ * Two macros conflict if they are in the same group and have the same key binding or the same chat trigger, so they
+ * always run together. Commands which are longer than the chat limit are cut off or rejected by servers.
+ */
+public final class MacroValidator {
+
+    /**
+     * The maximum length of a chat message which servers accept.
+     */
+    public static final int MAX_COMMAND_LENGTH = 256;
+
+    private MacroValidator() {
+    }
+
+    /**
+     * Validates macros.
+     *
+     * @param macros The macros.
+     *
+     * @return The descriptions of the problems, in the order of the macros. Macros are referred to by their position,
+     *         starting at 1.
+     */
+    public static List<String> validate(final List<Macro> macros) {
+        final List<String> problems = new ArrayList<>();
+        // Maps the triggers to the position of the first macro with that trigger.
+        final Map<String, Integer> conflicts = new HashMap<>();
+        for (int i = 0; i < macros.size(); i++) {
+            final Macro macro = macros.get(i);
+            checkConflict(bindingKey(macro), "key binding", i, macro, conflicts, problems);
+            checkConflict(chatTriggerKey(macro), "chat trigger", i, macro, conflicts, problems);
+
+            final List<String> commands = macro.getCommands();
+            for (int j = 0; j < commands.size(); j++) {
+                if (commands.get(j).length() > MAX_COMMAND_LENGTH) {
+                    problems.add(String.format("Command %d of macro %d is %d characters long, servers accept at most "
+                            + "%d", j + 1, i + 1, commands.get(j).length(), MAX_COMMAND_LENGTH));
+                }
+            }
+        }
+        return problems;
+    }
+
+    /**
+     * Reports a conflict if an earlier macro has the same trigger as a macro.
+     *
+     * @param trigger The key which identifies the group and trigger of the macro, or {@code null} if there is none.
+     * @param kind The kind of the trigger.
+     * @param index The position of the macro, starting at 0.
+     * @param macro The macro.
+     * @param conflicts The position of the first macro with each trigger, starting at 1.
+     * @param problems The descriptions of the problems.
+     */
+    private static void checkConflict(final String trigger, final String kind, final int index, final Macro macro,
+                                      final Map<String, Integer> conflicts, final List<String> problems) {
+        if (trigger == null) {
+            return;
+        }
+        final Integer first = conflicts.putIfAbsent(trigger, index + 1);
+        if (first != null) {
+            problems.add(String.format("Macro %d has the same %s as macro %d in group '%s'", index + 1, kind, first,
+                    macro.getGroup()));
+        }
+    }
+
+    /**
+     * Returns a key which identifies the group and key binding of a macro. The keys of the chord may be held in any
+     * order, so they are compared sorted.
+     *
+     * @param macro The macro.
+     *
+     * @return The key, or {@code null} if the macro is not bound to a key.
+     */
+    private static String bindingKey(final Macro macro) {
+        final int key = macro.getMacroKey();
+        if (key <= Keyboard.KEY_ESCAPE || key >= KeyState.KEY_COUNT) {
+            return null;
+        }
+        final int[] chord = macro.getChord().clone();
+        Arrays.sort(chord);
+        return macro.getGroup().toLowerCase(Locale.ROOT) + "\nkey\n" + key + '\n' + macro.isCtrlModifier() + '\n'
+                + macro.isShiftModifier() + '\n' + Arrays.toString(chord) + '\n'
+                + Arrays.toString(macro.getSequence());
+    }
+
+    /**
+     * Returns a key which identifies the group and chat trigger of a macro. Chat triggers ignore case.
+     *
+     * @param macro The macro.
+     *
+     * @return The key, or {@code null} if the macro has no chat trigger.
+     */
+    private static String chatTriggerKey(final Macro macro) {
+        if (macro.getChatTrigger().isEmpty()) {
+            return null;
+        }
+        return macro.getGroup().toLowerCase(Locale.ROOT) + "\nchat\n" + macro.getChatTrigger().toLowerCase(Locale.ROOT);
+    }
+}
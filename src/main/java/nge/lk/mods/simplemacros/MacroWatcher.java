@@ -0,0 +1,226 @@
+package nge.lk.mods.simplemacros;
+
+import nge.lk.mods.commonlib.util.DebugUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Watches the save file for changes by other programs and reads it again on a background thread.
+ *
+ * The reloaded macros are handed over to the client thread, which merges them into the loaded macros with
+ * {@link #merge(List, List, MacroIndex)}. Changes made by the mod itself are picked up as well, but merging them
+ * changes nothing. A file with malformed lines, e.g. one which another program is still writing, is not merged, so it
+ * can not remove macros. It is read again on its next change.
+ */
+public class MacroWatcher {
+
+    /**
+     * The time in milliseconds without further changes after which the file is read.
+     */
+    private static final long DEBOUNCE_MILLIS = 500;
+
+    /**
+     * The macro IO manager.
+     */
+    private final MacroIO macroIO;
+
+    /**
+     * The macros which were read but not yet merged, if any.
+     */
+    private final AtomicReference<List<Macro>> reloaded = new AtomicReference<>();
+
+    /**
+     * Constructor. Starts the watcher thread.
+     *
+     * @param macroIO The macro IO manager.
+     */
+    public MacroWatcher(final MacroIO macroIO) {
+        this.macroIO = macroIO;
+        final Thread thread = new Thread(this::run, "SimpleMacros Watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Takes the macros which were read since the last call.
+     *
+     * @return The macros, or {@code null} if the file did not change.
+     */
+    public List<Macro> poll() {
+        return reloaded.getAndSet(null);
+    }
+
+    /**
+     * Merges reloaded macros into the loaded macros. Must be called from the client thread.
+     *
+     * Loaded macros which are equal to a reloaded macro are kept as they are. Changed macros are replaced by the
+     * reloaded macro, which takes over the statistics of the loaded macro with the same group and key binding, if
+     * any. Unless the mode changed, it also takes over the state of the loaded macro, so a running execution finishes
+     * with the old commands and can still be stopped through the reloaded macro. Macros which are not saved, e.g. new
+     * macros in the editor, are kept at the end. The index has to be rebuilt with the merged macros afterwards, which
+     * cancels the executions of the removed macros and of those whose mode changed.
+     *
+     * @param macros The loaded macros, which are changed to the reloaded macros.
+     * @param reloadedMacros The reloaded macros.
+     * @param macroIndex The index which keeps the state of the loaded macros.
+     *
+     * @return The number of added, changed and removed macros.
+     */
+    public static int merge(final List<Macro> macros, final List<Macro> reloadedMacros,
+                            final MacroIndex macroIndex) {
+        final Map<Macro, Deque<Macro>> byValue = new HashMap<>();
+        final List<Macro> unsaved = new ArrayList<>();
+        for (final Macro macro : macros) {
+            if (macro.shouldSave()) {
+                byValue.computeIfAbsent(macro, k -> new ArrayDeque<>()).add(macro);
+            } else {
+                unsaved.add(macro);
+            }
+        }
+        final Macro[] merged = new Macro[reloadedMacros.size()];
+        for (int i = 0; i < merged.length; i++) {
+            final Deque<Macro> equal = byValue.get(reloadedMacros.get(i));
+            if (equal != null && !equal.isEmpty()) {
+                merged[i] = equal.poll();
+            }
+        }
+
+        // The remaining loaded macros were changed or removed.
+        final Map<String, Deque<Macro>> byBinding = new HashMap<>();
+        for (final Deque<Macro> remaining : byValue.values()) {
+            for (final Macro macro : remaining) {
+                byBinding.computeIfAbsent(bindingKey(macro), k -> new ArrayDeque<>()).add(macro);
+            }
+        }
+        int changes = 0;
+        for (int i = 0; i < merged.length; i++) {
+            if (merged[i] != null) {
+                continue;
+            }
+            final Macro macro = reloadedMacros.get(i);
+            final Deque<Macro> sameBinding = byBinding.get(bindingKey(macro));
+            if (sameBinding != null && !sameBinding.isEmpty()) {
+                final Macro loaded = sameBinding.poll();
+                macro.takeOverStatistics(loaded);
+                // Otherwise the running execution could not be stopped the way its mode is stopped anymore.
+                if (loaded.getMode() == macro.getMode()) {
+                    macroIndex.transferState(loaded, macro);
+                }
+            }
+            merged[i] = macro;
+            changes++;
+        }
+        for (final Deque<Macro> removed : byBinding.values()) {
+            changes += removed.size();
+        }
+
+        if (changes > 0) {
+            macros.clear();
+            for (final Macro macro : merged) {
+                macros.add(macro);
+            }
+            macros.addAll(unsaved);
+        }
+        return changes;
+    }
+
+    /**
+     * Returns a key which identifies the group and key binding of a macro.
+     *
+     * @param macro The macro.
+     *
+     * @return The key.
+     */
+    private static String bindingKey(final Macro macro) {
+        return macro.getGroup().toLowerCase(Locale.ROOT) + '\n' + macro.getMacroKey() + '\n'
+                + macro.isCtrlModifier() + '\n' + macro.isShiftModifier() + '\n' + Arrays.toString(macro.getChord())
+                + '\n' + Arrays.toString(macro.getSequence()) + '\n' + macro.getChatTrigger();
+    }
+
+    /**
+     * The loop of the watcher thread.
+     */
+    private void run() {
+        final File saveFile = macroIO.getSaveFile().getAbsoluteFile();
+        final Path directory = saveFile.getParentFile().toPath();
+        final Path fileName = saveFile.toPath().getFileName();
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            while (true) {
+                // Wait for a change of the save file, then until it was not changed for a while.
+                if (!isSaveFileChanged(watchService.take(), fileName)) {
+                    continue;
+                }
+                long quietSince = System.nanoTime();
+                while (true) {
+                    final long wait = DEBOUNCE_MILLIS - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - quietSince);
+                    final WatchKey key = wait > 0 ? watchService.poll(wait, TimeUnit.MILLISECONDS) : null;
+                    if (key == null) {
+                        break;
+                    }
+                    if (isSaveFileChanged(key, fileName)) {
+                        quietSince = System.nanoTime();
+                    }
+                }
+                reload(saveFile);
+            }
+        } catch (final IOException e) {
+            DebugUtil.recoverableError(e);
+        } catch (final InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Checks whether the events of a watch key include a change of the save file, and resets the key.
+     *
+     * @param key The watch key.
+     * @param fileName The name of the save file.
+     *
+     * @return Whether the save file was changed.
+     */
+    private static boolean isSaveFileChanged(final WatchKey key, final Path fileName) {
+        boolean changed = false;
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            // Overflows may have dropped events of the save file.
+            changed |= event.kind() == StandardWatchEventKinds.OVERFLOW || fileName.equals(event.context());
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * Reads the save file and hands the macros over to the client thread.
+     *
+     * @param saveFile The save file.
+     */
+    private void reload(final File saveFile) {
+        if (saveFile.length() == 0) {
+            // Most likely truncated by a writer which is not done yet.
+            return;
+        }
+        try {
+            reloaded.set(macroIO.reloadState());
+        } catch (final IOException e) {
+            DebugUtil.recoverableError(e);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package nge.lk.mods.simplemacros;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * An immutable list which shares its structure with the versions it was derived from.
+ *
+ * The elements are stored in a trie with 32 children per node, except for the last up to 32 elements, which are kept
+ * in a separate tail. Reading, replacing and appending an element are O(log32 n) and only copy the nodes on the path
+ * to the element, so old versions stay valid and can be kept cheaply, e.g. for undo. Taking a snapshot is free, since
+ * a version never changes. The mutating methods of {@link java.util.List} are not supported.
+ *
+ * @param <E> The type of the elements.
+ */
+public final class PersistentVector<E> extends AbstractList<E> implements RandomAccess {
+
+    /**
+     * The number of index bits per level of the trie.
+     */
+    private static final int BITS = 5;
+
+    /**
+     * The number of children of a node.
+     */
+    private static final int WIDTH = 1 << BITS;
+
+    /**
+     * The mask of the index bits of one level.
+     */
+    private static final int MASK = WIDTH - 1;
+
+    /**
+     * The empty vector.
+     */
+    private static final PersistentVector<?> EMPTY = new PersistentVector<>(0, BITS, new Object[WIDTH],
+            new Object[0]);
+
+    /**
+     * The number of elements.
+     */
+    private final int size;
+
+    /**
+     * The shift of the index bits of the root level.
+     */
+    private final int shift;
+
+    /**
+     * The root node of the trie. Inner nodes hold nodes, leaves hold elements.
+     */
+    private final Object[] root;
+
+    /**
+     * The last elements, which are not in the trie yet.
+     */
+    private final Object[] tail;
+
+    /**
+     * Constructor.
+     *
+     * @param size The number of elements.
+     * @param shift The shift of the index bits of the root level.
+     * @param root The root node of the trie.
+     * @param tail The last elements.
+     */
+    private PersistentVector(final int size, final int shift, final Object[] root, final Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    /**
+     * Returns the empty vector.
+     *
+     * @param <E> The type of the elements.
+     *
+     * @return The empty vector.
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentVector<E> empty() {
+        return (PersistentVector<E>) EMPTY;
+    }
+
+    /**
+     * Creates a vector with the given elements. The trie is built bottom-up, which is faster than appending each
+     * element.
+     *
+     * @param elements The elements.
+     * @param <E> The type of the elements.
+     *
+     * @return The vector, which is the given collection if it is a vector already.
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentVector<E> copyOf(final Collection<? extends E> elements) {
+        if (elements instanceof PersistentVector) {
+            return (PersistentVector<E>) elements;
+        }
+        final Object[] array = elements.toArray();
+        if (array.length == 0) {
+            return empty();
+        }
+        final int tailOffset = (array.length - 1) >>> BITS << BITS;
+        Object[] nodes = new Object[tailOffset >>> BITS];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = Arrays.copyOfRange(array, i << BITS, (i + 1) << BITS);
+        }
+        int shift = BITS;
+        while (nodes.length > WIDTH) {
+            final Object[] parents = new Object[(nodes.length + MASK) >>> BITS];
+            for (int i = 0; i < parents.length; i++) {
+                // Copying past the end pads the last parent with null.
+                parents[i] = Arrays.copyOfRange(nodes, i << BITS, (i + 1) << BITS);
+            }
+            nodes = parents;
+            shift += BITS;
+        }
+        return new PersistentVector<>(array.length, shift, Arrays.copyOf(nodes, WIDTH),
+                Arrays.copyOfRange(array, tailOffset, array.length));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(final int index) {
+        return (E) leafFor(index)[index & MASK];
+    }
+
+    /**
+     * Returns a version of this vector in which an element is replaced.
+     *
+     * @param index The index of the element.
+     * @param element The new element.
+     *
+     * @return The new version.
+     */
+    public PersistentVector<E> with(final int index, final E element) {
+        checkIndex(index);
+        if (index >= tailOffset()) {
+            final Object[] newTail = tail.clone();
+            newTail[index & MASK] = element;
+            return new PersistentVector<>(size, shift, root, newTail);
+        }
+        return new PersistentVector<>(size, shift, replace(shift, root, index, element), tail);
+    }
+
+    /**
+     * Returns a version of this vector with an element appended.
+     *
+     * @param element The element.
+     *
+     * @return The new version.
+     */
+    public PersistentVector<E> plus(final E element) {
+        if (size - tailOffset() < WIDTH) {
+            final Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = element;
+            return new PersistentVector<>(size + 1, shift, root, newTail);
+        }
+
+        // The tail is full, so it moves into the trie. The trie grows a level if the root is full.
+        final Object[] newRoot;
+        int newShift = shift;
+        if (size >>> BITS > 1 << shift) {
+            newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            newRoot[1] = newPath(shift, tail);
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(shift, root, tail);
+        }
+        return new PersistentVector<>(size + 1, newShift, newRoot, new Object[]{element});
+    }
+
+    /**
+     * Returns a version of this vector with elements appended.
+     *
+     * @param elements The elements.
+     *
+     * @return The new version.
+     */
+    public PersistentVector<E> plusAll(final Iterable<? extends E> elements) {
+        PersistentVector<E> result = this;
+        for (final E element : elements) {
+            result = result.plus(element);
+        }
+        return result;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+
+            /**
+             * The index of the next element.
+             */
+            private int next;
+
+            /**
+             * The leaf which contains the next element.
+             */
+            private Object[] leaf;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public E next() {
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                if ((next & MASK) == 0 || leaf == null) {
+                    leaf = leafFor(next);
+                }
+                return (E) leaf[next++ & MASK];
+            }
+        };
+    }
+
+    /**
+     * Returns the index of the first element in the tail.
+     *
+     * @return The index.
+     */
+    private int tailOffset() {
+        return size < WIDTH ? 0 : (size - 1) >>> BITS << BITS;
+    }
+
+    /**
+     * Returns the leaf which contains an element.
+     *
+     * @param index The index of the element.
+     *
+     * @return The leaf, or the tail.
+     */
+    private Object[] leafFor(final int index) {
+        checkIndex(index);
+        if (index >= tailOffset()) {
+            return tail;
+        }
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(index >>> level) & MASK];
+        }
+        return node;
+    }
+
+    /**
+     * Checks whether an index is in range.
+     *
+     * @param index The index.
+     */
+    private void checkIndex(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+    }
+
+    /**
+     * Copies the path to an element and replaces the element.
+     *
+     * @param level The shift of the level of the node.
+     * @param node The node.
+     * @param index The index of the element.
+     * @param element The new element.
+     *
+     * @return The copy of the node.
+     */
+    private static Object[] replace(final int level, final Object[] node, final int index, final Object element) {
+        final Object[] copy = node.clone();
+        if (level == 0) {
+            copy[index & MASK] = element;
+        } else {
+            final int child = (index >>> level) & MASK;
+            copy[child] = replace(level - BITS, (Object[]) node[child], index, element);
+        }
+        return copy;
+    }
+
+    /**
+     * Copies the path to the last leaf and appends a full tail as the next leaf.
+     *
+     * @param level The shift of the level of the node.
+     * @param node The node.
+     * @param tailNode The full tail.
+     *
+     * @return The copy of the node.
+     */
+    private Object[] pushTail(final int level, final Object[] node, final Object[] tailNode) {
+        final Object[] copy = node.clone();
+        final int child = ((size - 1) >>> level) & MASK;
+        if (level == BITS) {
+            copy[child] = tailNode;
+        } else {
+            final Object[] next = (Object[]) node[child];
+            copy[child] = next == null ? newPath(level - BITS, tailNode) : pushTail(level - BITS, next, tailNode);
+        }
+        return copy;
+    }
+
+    /**
+     * Creates a path of nodes down to a leaf.
+     *
+     * @param level The shift of the level of the top node.
+     * @param leaf The leaf.
+     *
+     * @return The top node.
+     */
+    private static Object[] newPath(final int level, final Object[] leaf) {
+        if (level == 0) {
+            return leaf;
+        }
+        final Object[] node = new Object[WIDTH];
+        node[0] = newPath(level - BITS, leaf);
+        return node;
+    }
+}
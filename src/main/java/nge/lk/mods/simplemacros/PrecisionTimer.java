@@ -0,0 +1,115 @@
+package nge.lk.mods.simplemacros;
+
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs tasks at wall-clock deadlines with millisecond precision.
+ *
+ * A timer thread waits for the deadlines and hands due tasks over to the client thread through a lock-free queue. The
+ * client thread runs them when it calls {@link #drain()}, which it does every frame and every tick.
+ */
+public class PrecisionTimer {
+
+    /**
+     * The tasks which wait for their deadline, guarded by {@link #lock}.
+     */
+    private final Queue<Timed> pending = new PriorityQueue<>(
+            (a, b) -> Long.signum(a.getDeadline() - b.getDeadline()));
+
+    /**
+     * The tasks whose deadline has passed.
+     */
+    private final Queue<Timed> due = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The lock for the pending tasks.
+     */
+    private final Lock lock = new ReentrantLock();
+
+    /**
+     * Signals that the earliest deadline changed.
+     */
+    private final Condition changed = lock.newCondition();
+
+    /**
+     * Constructor. Starts the timer thread.
+     */
+    public PrecisionTimer() {
+        final Thread thread = new Thread(this::run, "SimpleMacros Timer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Schedules a task for its deadline. The task must not be scheduled already.
+     *
+     * @param task The task.
+     */
+    public void schedule(final Timed task) {
+        lock.lock();
+        try {
+            pending.add(task);
+            if (pending.peek() == task) {
+                changed.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs all due tasks. Must be called from the client thread.
+     */
+    public void drain() {
+        Timed task = due.poll();
+        while (task != null) {
+            task.run();
+            task = due.poll();
+        }
+    }
+
+    /**
+     * The loop of the timer thread.
+     */
+    private void run() {
+        lock.lock();
+        try {
+            while (true) {
+                final Timed next = pending.peek();
+                if (next == null) {
+                    changed.await();
+                    continue;
+                }
+                final long wait = next.getDeadline() - System.nanoTime();
+                if (wait <= 0) {
+                    due.add(pending.poll());
+                } else {
+                    changed.await(wait, TimeUnit.NANOSECONDS);
+                }
+            }
+        } catch (final InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A task with a deadline.
+     */
+    public interface Timed extends Runnable {
+
+        /**
+         * Returns the deadline of this task.
+         *
+         * @return The deadline as returned by {@link System#nanoTime()}.
+         */
+        long getDeadline();
+    }
+}
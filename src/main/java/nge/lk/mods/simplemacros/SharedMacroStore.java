@@ -0,0 +1,275 @@
+package nge.lk.mods.simplemacros;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Shares the macros between the game clients on one computer through a memory-mapped file.
+ *
+ * The file starts with a header (magic, layout version, sequence, data length, checksum), followed by the macros in
+ * the binary format. Writers hold a lock on the file, make the sequence odd, write the data and make the sequence even
+ * again. Readers do not lock: they copy the data between two reads of the sequence and only use the copy if the
+ * sequence was even and unchanged, and the checksum matches. Checking the sequence is a single read, so clients can
+ * poll for changes every tick.
+ *
+ * The Java memory model does not cover memory which is shared with other processes, and Java 8 has no public memory
+ * fence. The accesses of the mapped buffer are therefore ordered on a best-effort basis only, see {@link #FENCE}.
+ * Correctness rests on the checksum: a copy which was torn by a concurrent writer, in whatever order its bytes were
+ * read, is rejected because its checksum does not match.
+ */
+public class SharedMacroStore {
+
+    /**
+     * The magic number at the start of the file ("SMSH").
+     */
+    private static final int MAGIC = 0x534D5348;
+
+    /**
+     * The version of the layout of the file.
+     */
+    private static final int LAYOUT_VERSION = 1;
+
+    /**
+     * The offset of the sequence, which is odd while the data is written and 0 if no data was written yet.
+     */
+    private static final int SEQUENCE_OFFSET = 8;
+
+    /**
+     * The offset of the length of the data.
+     */
+    private static final int LENGTH_OFFSET = 16;
+
+    /**
+     * The offset of the CRC-32 checksum of the data.
+     */
+    private static final int CHECKSUM_OFFSET = 20;
+
+    /**
+     * The size of the header in bytes. The data starts after it.
+     */
+    private static final int HEADER_SIZE = 64;
+
+    /**
+     * The initial size of the file in bytes. It is doubled whenever the data does not fit.
+     */
+    private static final int INITIAL_SIZE = 64 * 1024;
+
+    /**
+     * Updated between the accesses of the header and the data, to keep the compiler and the processor from reordering
+     * them. HotSpot compiles the atomic update to a full barrier, but this is best-effort: nothing guarantees the
+     * order in which another process sees the writes. Torn reads are caught by the sequence and the checksum.
+     */
+    private static final AtomicInteger FENCE = new AtomicInteger();
+
+    /**
+     * The channel of the file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The mapping of the file. It is replaced when the file grows.
+     */
+    private volatile MappedByteBuffer mapped;
+
+    /**
+     * The sequence of the data which this client has seen or written last.
+     */
+    private volatile long seen;
+
+    /**
+     * Constructor. Creates the file if it does not exist.
+     *
+     * @param file The file.
+     *
+     * @throws IOException If the file can not be opened or is not a shared macro store.
+     */
+    public SharedMacroStore(final File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            final FileLock lock = channel.lock();
+            try {
+                if (channel.size() < HEADER_SIZE) {
+                    remap(INITIAL_SIZE);
+                    mapped.putInt(0, MAGIC);
+                    mapped.putInt(4, LAYOUT_VERSION);
+                } else {
+                    remap(channel.size());
+                }
+                if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != LAYOUT_VERSION) {
+                    throw new IOException("Not a shared macro store: " + file);
+                }
+            } finally {
+                lock.release();
+            }
+        } catch (final IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the macros, waiting for a writer to finish. Used for loading, afterwards changes are taken by
+     * {@link #poll()}.
+     *
+     * @return The macros, or {@code null} if no macros were written yet or the last writer did not finish.
+     *
+     * @throws IOException If reading fails or the data is malformed.
+     */
+    public List<Macro> read() throws IOException {
+        final FileLock lock = channel.lock(0, Long.MAX_VALUE, true);
+        try {
+            final long sequence = mapped.getLong(SEQUENCE_OFFSET);
+            // An odd sequence while holding the lock means that a writer crashed, the next write repairs it.
+            if (sequence == 0 || (sequence & 1) != 0) {
+                return null;
+            }
+            final byte[] data = copyData(sequence);
+            if (data == null) {
+                throw new IOException("Corrupt shared macro store");
+            }
+            seen = sequence;
+            return decode(data);
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Takes the macros if another client changed them since the last call. Does not block, data which is being
+     * written is taken in a later call.
+     *
+     * @return The macros, or {@code null} if they did not change or are being written.
+     *
+     * @throws IOException If the data is malformed.
+     */
+    public List<Macro> poll() throws IOException {
+        final long sequence = mapped.getLong(SEQUENCE_OFFSET);
+        if (sequence == seen || (sequence & 1) != 0) {
+            return null;
+        }
+        final byte[] data = copyData(sequence);
+        if (data == null) {
+            return null;
+        }
+        seen = sequence;
+        return decode(data);
+    }
+
+    /**
+     * Writes the macros, so the other clients take them on their next poll.
+     *
+     * @param macros The macros, of which only those that should be saved are written.
+     *
+     * @throws IOException If writing fails.
+     */
+    public void write(final Iterable<Macro> macros) throws IOException {
+        final byte[] data = BinaryMacroFormat.encode(macros);
+        final CRC32 checksum = new CRC32();
+        checksum.update(data);
+
+        final FileLock lock = channel.lock();
+        try {
+            if (HEADER_SIZE + data.length > mapped.capacity()) {
+                long size = Math.max(channel.size(), mapped.capacity());
+                while (size < HEADER_SIZE + data.length) {
+                    size *= 2;
+                }
+                remap(size);
+            }
+            final MappedByteBuffer buffer = mapped;
+            // Round up if a writer crashed while the sequence was odd.
+            final long sequence = buffer.getLong(SEQUENCE_OFFSET) + 1 | 1;
+            buffer.putLong(SEQUENCE_OFFSET, sequence);
+            FENCE.incrementAndGet();
+            final ByteBuffer target = buffer.duplicate();
+            target.position(HEADER_SIZE);
+            target.put(data);
+            buffer.putInt(LENGTH_OFFSET, data.length);
+            buffer.putInt(CHECKSUM_OFFSET, (int) checksum.getValue());
+            FENCE.incrementAndGet();
+            buffer.putLong(SEQUENCE_OFFSET, sequence + 1);
+            seen = sequence + 1;
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Copies the data if it is consistent with a sequence.
+     *
+     * @param sequence The even sequence which was read before.
+     *
+     * @return The data, or {@code null} if it was changed while copying or is incomplete.
+     *
+     * @throws IOException If the file can not be mapped again after it grew.
+     */
+    private byte[] copyData(final long sequence) throws IOException {
+        FENCE.incrementAndGet();
+        MappedByteBuffer buffer = mapped;
+        final int length = buffer.getInt(LENGTH_OFFSET);
+        final int expectedChecksum = buffer.getInt(CHECKSUM_OFFSET);
+        if (length < 0 || HEADER_SIZE + (long) length > buffer.capacity()) {
+            // Another client grew the file.
+            remap(channel.size());
+            buffer = mapped;
+            if (HEADER_SIZE + (long) length > buffer.capacity()) {
+                return null;
+            }
+        }
+        final byte[] data = new byte[length];
+        final ByteBuffer source = buffer.duplicate();
+        source.position(HEADER_SIZE);
+        source.get(data);
+        FENCE.incrementAndGet();
+        if (buffer.getLong(SEQUENCE_OFFSET) != sequence) {
+            return null;
+        }
+        final CRC32 checksum = new CRC32();
+        checksum.update(data);
+        return (int) checksum.getValue() == expectedChecksum ? data : null;
+    }
+
+    /**
+     * Maps the file, growing it if needed.
+     *
+     * @param size The size of the mapping.
+     *
+     * @throws IOException If mapping fails.
+     */
+    private synchronized void remap(final long size) throws IOException {
+        if (mapped != null && mapped.capacity() >= size) {
+            return;
+        }
+        if (channel.size() < size) {
+            channel.write(ByteBuffer.allocate(1), size - 1);
+        }
+        // The previous mapping is released by the garbage collector, since the other thread may still use it.
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * Decodes macros.
+     *
+     * @param data The data.
+     *
+     * @return The macros.
+     *
+     * @throws IOException If the data is malformed.
+     */
+    private static List<Macro> decode(final byte[] data) throws IOException {
+        try {
+            return BinaryMacroFormat.decode(ByteBuffer.wrap(data));
+        } catch (final RuntimeException e) {
+            throw new IOException("Malformed shared macro store", e);
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package nge.lk.mods.simplemacros;
 
-import lombok.Getter;
-import lombok.RequiredArgsConstructor;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.settings.KeyBinding;
+import net.minecraft.util.text.ChatType;
 import net.minecraft.util.text.TextComponentString;
+import net.minecraft.util.text.TextFormatting;
+import net.minecraftforge.client.ClientCommandHandler;
+import net.minecraftforge.client.event.ClientChatReceivedEvent;
 import net.minecraftforge.common.MinecraftForge;
+import net.minecraftforge.common.config.Configuration;
 import net.minecraftforge.event.ForgeEventFactory;
 import net.minecraftforge.fml.client.registry.ClientRegistry;
 import net.minecraftforge.fml.common.Mod;
@@ -15,16 +18,18 @@ import net.minecraftforge.fml.common.event.FMLPreInitializationEvent;
 import net.minecraftforge.fml.common.eventhandler.SubscribeEvent;
 import net.minecraftforge.fml.common.gameevent.InputEvent.KeyInputEvent;
 import net.minecraftforge.fml.common.gameevent.TickEvent.ClientTickEvent;
+import net.minecraftforge.fml.common.gameevent.TickEvent.RenderTickEvent;
 import nge.lk.mods.commonlib.util.DebugUtil;
+import org.apache.logging.log4j.Logger;
 import org.lwjgl.input.Keyboard;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashSet;
 import java.util.List;
-import java.util.PriorityQueue;
-import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 import static nge.lk.mods.simplemacros.SimpleMacrosMod.MODID;
 import static nge.lk.mods.simplemacros.SimpleMacrosMod.VERSION;
@@ -46,15 +51,45 @@ public class SimpleMacrosMod {
     public static final String VERSION = "@VERSION@";
 
     /**
-     * All currently scheduled tick runnables.
+     * The maximum number of problems with the loaded macros which are logged.
      */
-    private final Queue<TickRunnable> tickRunnables = new PriorityQueue<>();
+    private static final int MAX_LOGGED_PROBLEMS = 20;
+
+    /**
+     * The macro runtime, which dispatches key events and runs the macros.
+     */
+    private MacroRuntime runtime;
+
+    /**
+     * The index of macro key bindings, owned by the runtime.
+     */
+    private MacroIndex macroIndex;
+
+    /**
+     * The logger of the mod.
+     */
+    private Logger logger;
 
     /**
      * The manager for macro IO.
      */
     private MacroIO macroIO;
 
+    /**
+     * The background saver for macros.
+     */
+    private MacroSaver macroSaver;
+
+    /**
+     * The watcher which reloads the save file when it is changed externally, or {@code null} if disabled.
+     */
+    private MacroWatcher macroWatcher;
+
+    /**
+     * The loader of group shards, or {@code null} if macros are stored in a single file.
+     */
+    private MacroShards macroShards;
+
     /**
      * The key binding for the editor.
      */
@@ -66,19 +101,19 @@ public class SimpleMacrosMod {
     private KeyBinding groupKey;
 
     /**
-     * All loaded macros.
+     * The macros which are loaded in the background, or {@code null} once they were loaded.
      */
-    private List<Macro> macros;
+    private CompletableFuture<List<Macro>> pendingLoad;
 
     /**
-     * The active macro group.
+     * Whether the editor is opened once all groups are loaded from their shards.
      */
-    private String activeGroup = "";
+    private boolean editorRequested;
 
     /**
-     * Counts the ticks, for decreasing click speeds.
+     * The interval in ticks in which the metrics are logged, or 0 if they are not logged.
      */
-    private long tickCounter;
+    private int metricsLogInterval;
 
     /**
      * Sends a chat message.
@@ -86,6 +121,9 @@ public class SimpleMacrosMod {
      * @param message The message.
      */
     private static void sendChat(final String message) {
+        if (Minecraft.getMinecraft().player == null) {
+            return;
+        }
         final String res = ForgeEventFactory.onClientSendMessage(message);
         if (res.isEmpty()) {
             return;
@@ -96,21 +134,82 @@ public class SimpleMacrosMod {
     @EventHandler
     public void onPreInit(final FMLPreInitializationEvent event) {
         DebugUtil.initializeLogger(MODID);
-        macroIO = new MacroIO(new File(event.getModConfigurationDirectory(), "macros.dat"));
+        logger = event.getModLog();
+
+        final Configuration config = new Configuration(event.getSuggestedConfigurationFile());
+        final boolean binaryFormat = config.getBoolean("binaryFormat", Configuration.CATEGORY_GENERAL, false,
+                "Whether macros are saved in the compact binary format. Text files are converted on the next start.");
+        metricsLogInterval = config.getInt("metricsLogInterval", Configuration.CATEGORY_GENERAL, 0, 0,
+                Integer.MAX_VALUE, "The interval in ticks in which runtime metrics are logged, 0 to disable.");
+        final float chatRate = config.getFloat("chatRate", Configuration.CATEGORY_GENERAL, 1, 0, 1000,
+                "The sustained number of chat messages per second sent by all macros together, 0 for no limit. "
+                        + "Vanilla servers kick players who send more than one message per second for a while.");
+        final int chatBurst = config.getInt("chatBurst", Configuration.CATEGORY_GENERAL, 5, 1, 1000,
+                "The number of chat messages that may be sent at once before the rate limit applies.");
+        final int chatQueueLimit = config.getInt("chatQueueLimit", Configuration.CATEGORY_GENERAL, 1000, 1,
+                Integer.MAX_VALUE, "The maximum number of queued chat messages, further messages are dropped.");
+        final boolean preciseDelays = config.getBoolean("preciseDelays", Configuration.CATEGORY_GENERAL, false,
+                "Whether delays between commands are measured in milliseconds of real time instead of game ticks. "
+                        + "Allows delays in 10ms steps which are not stretched by lag.");
+        final boolean hotReload = config.getBoolean("hotReload", Configuration.CATEGORY_GENERAL, true,
+                "Whether macros are reloaded when the macro file is changed by other programs. "
+                        + "Not supported with sharded storage.");
+        final boolean shardedStorage = config.getBoolean("shardedStorage", Configuration.CATEGORY_GENERAL, false,
+                "Whether macros are stored in one file per group, of which only the global group and the active "
+                        + "group are loaded at startup. The macro file is converted on the next start.");
+        final int shardCacheSize = config.getInt("shardCacheSize", Configuration.CATEGORY_GENERAL, 4, 2, 1000,
+                "The number of groups which are kept loaded with sharded storage, besides the global group. "
+                        + "The group after the active group in the cycle is loaded in advance, so at least 2.");
+        final int tickBudgetMicros = config.getInt("tickBudgetMicros", Configuration.CATEGORY_GENERAL, 5000, 0,
+                Integer.MAX_VALUE, "The time in microseconds which macros may spend per tick, 0 for no limit. "
+                        + "Commands which exceed it are sent in the next tick.");
+        final int tickTaskLimit = config.getInt("tickTaskLimit", Configuration.CATEGORY_GENERAL, 0, 0,
+                Integer.MAX_VALUE, "The number of commands which macros may send per tick, 0 for no limit. "
+                        + "Further commands are sent in the next tick.");
+        final boolean sharedStorage = config.getBoolean("sharedStorage", Configuration.CATEGORY_GENERAL, false,
+                "Whether macros are shared with other game clients on this computer through a memory-mapped file, "
+                        + "so changes in one client apply to the others within a tick. "
+                        + "Not supported with sharded storage.");
+        if (config.hasChanged()) {
+            config.save();
+        }
+
+        final File shardDirectory = shardedStorage ? new File(event.getModConfigurationDirectory(), "macros") : null;
+        SharedMacroStore sharedStore = null;
+        if (sharedStorage && !shardedStorage) {
+            try {
+                sharedStore = new SharedMacroStore(new File(event.getModConfigurationDirectory(), "macros.shm"));
+            } catch (final IOException e) {
+                DebugUtil.recoverableError(e);
+            }
+        }
+        macroIO = new MacroIO(new File(event.getModConfigurationDirectory(), "macros.dat"), binaryFormat,
+                shardDirectory, sharedStore);
+        macroSaver = new MacroSaver(macroIO);
+        if (shardedStorage) {
+            macroShards = new MacroShards(macroIO, macroSaver, shardCacheSize);
+        } else if (hotReload && sharedStore == null) {
+            macroWatcher = new MacroWatcher(macroIO);
+        }
+        final ChatPacer chatPacer = new ChatPacer(SimpleMacrosMod::sendChat, chatRate, chatBurst, chatQueueLimit);
+        runtime = new MacroRuntime(new KeyboardInput(), System::nanoTime, chatPacer,
+                preciseDelays ? new PrecisionTimer() : null, new GameVariables());
+        runtime.setTickBudget(new TickBudget(TimeUnit.MICROSECONDS.toNanos(tickBudgetMicros), tickTaskLimit));
+        macroIndex = runtime.getMacroIndex();
     }
 
     @EventHandler
     public void onInit(final FMLInitializationEvent event) {
-        macros = macroIO.loadState();
-        if (macros.isEmpty()) {
-            macros.add(new Macro("", false, false, Keyboard.KEY_ESCAPE, 1000,
-                    new ArrayList<>()));
-        }
+        // Loading large libraries takes a while, so it does not delay the startup of the game.
+        pendingLoad = CompletableFuture.supplyAsync(this::loadMacros, macroSaver::execute);
+        runtime.beginLoad();
 
         editorKey = new KeyBinding("Macro Manager", Keyboard.KEY_F7, "Simple Macros");
         ClientRegistry.registerKeyBinding(editorKey);
         groupKey = new KeyBinding("Change Macro Group", Keyboard.KEY_F8, "Simple Macros");
         ClientRegistry.registerKeyBinding(groupKey);
+        ClientCommandHandler.instance.registerCommand(new CommandMacroStats(runtime.getMetrics(),
+                runtime.getChatPacer(), runtime::getMacros));
         MinecraftForge.EVENT_BUS.register(this);
     }
 
@@ -119,39 +218,25 @@ public class SimpleMacrosMod {
         if (Minecraft.getMinecraft().currentScreen != null) {
             return;
         }
+        finishLoad(false);
 
         if (editorKey.isPressed()) {
-            Minecraft.getMinecraft().displayGuiScreen(new GuiMacroManager(macroIO, macros));
+            finishLoad(true);
+            if (macroShards == null) {
+                openEditor();
+            } else {
+                // The shards are read on the saver thread, and the editor is opened by the tick which adds them.
+                macroShards.loadAll();
+                editorRequested = true;
+            }
         }
 
         if (groupKey.isPressed()) {
-            final Collection<String> groups = new ArrayList<>();
-            final Collection<String> groupMarks = new HashSet<>();
-
-            // Ensure the general group is first
-            groups.add("");
-            groupMarks.add("");
-
-            for (final Macro macro : macros) {
-                if (!groupMarks.contains(macro.getGroup()) && !macro.getGroup().isEmpty()) {
-                    groupMarks.add(macro.getGroup().toLowerCase());
-                    groups.add(macro.getGroup().toLowerCase());
-                }
+            finishLoad(true);
+            final String activeGroup = macroIndex.cycleGroup();
+            if (macroShards != null) {
+                macroShards.activate(activeGroup);
             }
-
-            boolean found = false;
-            String result = "";
-            for (final String group : groups) {
-                if (found) {
-                    result = group;
-                    break;
-                }
-                if (group.equals(activeGroup)) {
-                    found = true;
-                }
-            }
-
-            activeGroup = result;
             final String msg;
             if (activeGroup.isEmpty()) {
                 msg = "Disabled all macros except global macros.";
@@ -161,67 +246,159 @@ public class SimpleMacrosMod {
             Minecraft.getMinecraft().ingameGUI.getChatGUI().printChatMessage(new TextComponentString(msg));
         }
 
-        final boolean ctrl = Keyboard.isKeyDown(Keyboard.KEY_LCONTROL) || Keyboard.isKeyDown(Keyboard.KEY_RCONTROL);
-        final boolean shift = Keyboard.isKeyDown(Keyboard.KEY_LSHIFT) || Keyboard.isKeyDown(Keyboard.KEY_RSHIFT);
-        for (final Macro macro : macros) {
-            if (!macro.getGroup().isEmpty() && !macro.getGroup().equalsIgnoreCase(activeGroup)) {
-                continue;
-            }
-            if (!Keyboard.isKeyDown(macro.getMacroKey())) {
-                macro.setActive(false);
-            }
-            if (macro.isCtrlModifier() != ctrl) {
-                continue;
-            }
-            if (macro.isShiftModifier() != shift) {
-                continue;
+        runtime.onKeyEvent();
+    }
+
+    @SubscribeEvent
+    public void onChatReceived(final ClientChatReceivedEvent event) {
+        // Action bar messages are status displays rather than chat.
+        if (event.getType() == ChatType.GAME_INFO) {
+            return;
+        }
+        finishLoad(false);
+        runtime.onChatMessage(TextFormatting.getTextWithoutFormattingCodes(event.getMessage().getUnformattedText()));
+    }
+
+    @SubscribeEvent
+    public void onTick(final ClientTickEvent event) {
+        if (event.phase != ClientTickEvent.Phase.END) {
+            return;
+        }
+        runtime.onTick();
+        finishLoad(false);
+        if (pendingLoad == null && !(Minecraft.getMinecraft().currentScreen instanceof GuiMacroManager)) {
+            if (macroWatcher != null) {
+                applyReload(macroWatcher.poll());
             }
-            if (Keyboard.isKeyDown(macro.getMacroKey())) {
-                if (!macro.isActive()) {
-                    macro.setActive(true);
-                    long target = tickCounter + 1;
-                    for (final String command : macro.getCommands()) {
-                        if (!command.isEmpty()) {
-                            tickRunnables.add(new TickRunnable(target,
-                                    () -> sendChat(command)));
-                        }
-                        target += macro.getDelay() / 50;
+            applyReload(macroIO.pollSharedStore());
+            if (macroShards != null) {
+                updateShards();
+                if (editorRequested && !macroShards.isLoading()) {
+                    editorRequested = false;
+                    if (Minecraft.getMinecraft().currentScreen == null) {
+                        openEditor();
                     }
                 }
             }
         }
+
+        if (metricsLogInterval > 0 && runtime.getTickCounter() % metricsLogInterval == 0) {
+            logger.info("Metrics: {}", runtime.getMetrics().summary());
+        }
     }
 
     @SubscribeEvent
-    public void onTick(final ClientTickEvent event) {
-        if (event.phase != ClientTickEvent.Phase.END) {
+    public void onRenderTick(final RenderTickEvent event) {
+        if (event.phase != RenderTickEvent.Phase.START) {
             return;
         }
-        tickCounter++;
-        while (!tickRunnables.isEmpty()) {
-            if (tickRunnables.peek().getTick() == tickCounter) {
-                tickRunnables.poll().getTask().run();
-            } else {
-                break;
-            }
+        // Frames are more frequent than ticks, so precise delays are served between ticks as well.
+        runtime.onFrame();
+    }
+
+    /**
+     * Loads the macros. Runs in the background.
+     *
+     * @return The macros.
+     */
+    private List<Macro> loadMacros() {
+        final long loadStart = System.nanoTime();
+        final List<Macro> loaded = macroShards == null ? macroIO.loadState() : macroShards.loadInitial();
+        logger.info("Loaded {} macros in {} ms ({} format)", loaded.size(),
+                (System.nanoTime() - loadStart) / 1000000, macroIO.getFormatName());
+
+        final List<String> problems = MacroValidator.validate(loaded);
+        for (int i = 0; i < Math.min(problems.size(), MAX_LOGGED_PROBLEMS); i++) {
+            logger.warn(problems.get(i));
+        }
+        if (problems.size() > MAX_LOGGED_PROBLEMS) {
+            logger.warn("{} more problems with the macros", problems.size() - MAX_LOGGED_PROBLEMS);
+        }
+        return loaded;
+    }
+
+    /**
+     * Puts the macros which were loaded in the background into place and replays the key presses which arrived in
+     * the meantime. Recent key presses trigger their macros, older ones are dropped.
+     *
+     * @param wait Whether to wait for the macros if they are not loaded yet.
+     */
+    private void finishLoad(final boolean wait) {
+        if (pendingLoad == null || !wait && !pendingLoad.isDone()) {
+            return;
+        }
+        try {
+            runtime.setMacros(PersistentVector.copyOf(pendingLoad.join()));
+        } catch (final CompletionException e) {
+            DebugUtil.recoverableError(e.getCause());
+            runtime.setMacros(PersistentVector.empty());
+        }
+        pendingLoad = null;
+
+        addPlaceholder();
+        if (macroShards != null) {
+            macroIndex.setKnownGroups(macroShards.getGroups());
+        }
+        macroIndex.rebuild(runtime.getMacros());
+        if (macroShards != null) {
+            macroIndex.setActiveGroup(macroShards.getActiveGroup());
+        }
+
+        final int buffered = runtime.getBufferedKeyCount();
+        final int replayed = runtime.finishLoad();
+        if (buffered > 0) {
+            logger.info("Replayed {} of {} key presses from before the macros were loaded", replayed, buffered);
         }
     }
 
     /**
-     * A runnable that runs in a certain tick.
+     * Merges macros which were reloaded by the watcher or changed by another client.
+     *
+     * @param reloaded The reloaded macros, or {@code null} if there are none.
      */
-    @RequiredArgsConstructor
-    private static class TickRunnable implements Comparable {
+    private void applyReload(final List<Macro> reloaded) {
+        if (reloaded == null) {
+            return;
+        }
+        final List<Macro> macros = new ArrayList<>(runtime.getMacros());
+        final int changes = MacroWatcher.merge(macros, reloaded, macroIndex);
+        if (changes > 0) {
+            runtime.setMacros(PersistentVector.copyOf(macros));
+            addPlaceholder();
+            macroIndex.rebuild(runtime.getMacros());
+            logger.info("Reloaded macros, {} changed", changes);
+        }
+    }
 
-        @Getter private final long tick;
+    /**
+     * Opens the editor for the macros.
+     */
+    private void openEditor() {
+        Minecraft.getMinecraft().displayGuiScreen(new GuiMacroManager(macroSaver, runtime,
+                runtime.getPrecisionTimer() == null ? 50 : 10));
+    }
 
-        @Getter private final Runnable task;
+    /**
+     * Adds the groups which were loaded in the background and evicts unused groups.
+     */
+    private void updateShards() {
+        final PersistentVector<Macro> macros = runtime.getMacros();
+        final PersistentVector<Macro> updated = macroShards.evict(macroShards.poll(macros));
+        if (updated != macros) {
+            runtime.setMacros(updated);
+            addPlaceholder();
+            macroIndex.setKnownGroups(macroShards.getGroups());
+            macroIndex.rebuild(runtime.getMacros());
+        }
+    }
 
-        @Override
-        public int compareTo(final Object o) {
-            assert o instanceof TickRunnable;
-            final TickRunnable other = (TickRunnable) o;
-            return Long.compare(tick, other.tick);
+    /**
+     * Adds an empty macro if there are no macros, since the editor needs at least one.
+     */
+    private void addPlaceholder() {
+        if (runtime.getMacros().isEmpty()) {
+            runtime.setMacros(runtime.getMacros().plus(new Macro("", false, false, Keyboard.KEY_ESCAPE, 1000,
+                    new ArrayList<>())));
         }
     }
 }
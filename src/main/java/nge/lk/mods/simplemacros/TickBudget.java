@@ -0,0 +1,91 @@
+package nge.lk.mods.simplemacros;
+
+/**
+ * Limits the work done in one tick by time and by the number of work units, i.e. tasks run and messages sent.
+ *
+ * Work which does not fit into the budget stays queued in order and is done in the following ticks. Every consumer of
+ * the budget may always do one unit of work per tick, so that queued work makes progress even with a tiny budget.
+ */
+public class TickBudget {
+
+    /**
+     * The time budget per tick in nanoseconds, or 0 for no limit.
+     */
+    private final long budgetNanos;
+
+    /**
+     * The maximum number of work units per tick, or 0 for no limit.
+     */
+    private final int maxUnits;
+
+    /**
+     * The time at which the current tick began, as returned by {@link System#nanoTime()}.
+     */
+    private long start;
+
+    /**
+     * The number of work units done in the current tick.
+     */
+    private int used;
+
+    /**
+     * Whether work had to be deferred in the current tick.
+     */
+    private boolean overrun;
+
+    /**
+     * Constructor.
+     *
+     * @param budgetNanos The time budget per tick in nanoseconds, or 0 for no limit.
+     * @param maxUnits The maximum number of work units per tick, or 0 for no limit.
+     */
+    public TickBudget(final long budgetNanos, final int maxUnits) {
+        this.budgetNanos = budgetNanos;
+        this.maxUnits = maxUnits;
+    }
+
+    /**
+     * Starts the budget of a new tick.
+     */
+    public void begin() {
+        start = budgetNanos > 0 ? System.nanoTime() : 0;
+        used = 0;
+        overrun = false;
+    }
+
+    /**
+     * Takes one work unit from the budget. The clock is only read if there is a time budget, so unlimited budgets
+     * are deterministic.
+     *
+     * @param first Whether this is the first unit of the consumer in this tick, which is always granted.
+     *
+     * @return Whether the work unit may be done. If not, the consumer must defer its remaining work.
+     */
+    public boolean tryAcquire(final boolean first) {
+        if (!first && (maxUnits > 0 && used >= maxUnits
+                || budgetNanos > 0 && System.nanoTime() - start >= budgetNanos)) {
+            overrun = true;
+            return false;
+        }
+        used++;
+        return true;
+    }
+
+    /**
+     * Checks whether work had to be deferred in the current tick.
+     *
+     * @return Whether the budget was exceeded.
+     */
+    public boolean isOverrun() {
+        return overrun;
+    }
+
+    /**
+     * Returns the number of work units done in the current tick.
+     *
+     * @return The number of work units.
+     */
+    public int getUsed() {
+        return used;
+    }
+}
@@ -0,0 +1,16 @@
+package nge.lk.mods.simplemacros;
+
+/**
+ * The time source of the {@link MacroRuntime}, e.g. the system clock or a simulated clock which advances with the
+ * ticks.
+ */
+@FunctionalInterface
+public interface TickClock {
+
+    /**
+     * Returns the current time in nanoseconds. Only differences between two times are meaningful.
+     *
+     * @return The time, like {@link System#nanoTime()}.
+     */
+    long nanoTime();
+}
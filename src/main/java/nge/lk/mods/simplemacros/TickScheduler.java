@@ -0,0 +1,384 @@
+package nge.lk.mods.simplemacros;
+
+/**
+ * Schedules tasks for ticks using a hierarchical timing wheel.
+ *
+ * Scheduling a task is constant time. The root wheel has a bucket for each of the next 256 ticks, the overflow levels
+ * cover coarser ranges and are cascaded into the lower levels as time advances. Tasks of the same tick run in the order
+ * they were scheduled. Tasks which are scheduled for a tick that has already passed are run on the next advance.
+ *
+ * Advancing can be limited by a {@link TickBudget}. Due tasks which exceed the budget stay ready in their order and run
+ * before any later task on the next advance.
+ */
+public class TickScheduler {
+
+    /**
+     * The number of bits of the tick that index the root wheel.
+     */
+    private static final int ROOT_BITS = 8;
+
+    /**
+     * The number of bits of the tick that index each overflow level.
+     */
+    private static final int LEVEL_BITS = 6;
+
+    /**
+     * The number of overflow levels.
+     */
+    private static final int LEVELS = 4;
+
+    /**
+     * The number of buckets in the root wheel.
+     */
+    private static final int ROOT_SIZE = 1 << ROOT_BITS;
+
+    /**
+     * The number of buckets in each overflow level.
+     */
+    private static final int LEVEL_SIZE = 1 << LEVEL_BITS;
+
+    /**
+     * The largest distance (in ticks) which the wheel covers, tasks further in the future are parked at the end.
+     */
+    private static final long MAX_DISTANCE = (1L << (ROOT_BITS + LEVELS * LEVEL_BITS)) - 1;
+
+    /**
+     * The root wheel with tick granularity.
+     */
+    private final Bucket[] root = new Bucket[ROOT_SIZE];
+
+    /**
+     * The overflow levels.
+     */
+    private final Bucket[][] levels = new Bucket[LEVELS][LEVEL_SIZE];
+
+    /**
+     * The tasks which are due and wait for being run.
+     */
+    private final Bucket ready = new Bucket();
+
+    /**
+     * The last tick which was processed.
+     */
+    private long now;
+
+    /**
+     * The number of tasks in the wheels, excluding the ready tasks.
+     */
+    private int wheelSize;
+
+    /**
+     * Constructor.
+     */
+    public TickScheduler() {
+        for (int i = 0; i < ROOT_SIZE; i++) {
+            root[i] = new Bucket();
+        }
+        for (final Bucket[] level : levels) {
+            for (int i = 0; i < LEVEL_SIZE; i++) {
+                level[i] = new Bucket();
+            }
+        }
+    }
+
+    /**
+     * Returns the last tick which was processed.
+     *
+     * @return The current tick.
+     */
+    public long getCurrentTick() {
+        return now;
+    }
+
+    /**
+     * Returns the number of due tasks which wait for being run, e.g. because they exceeded the budget.
+     *
+     * @return The number of ready tasks.
+     */
+    public int getReadyCount() {
+        return ready.count;
+    }
+
+    /**
+     * Returns the number of pending tasks.
+     *
+     * @return The number of pending tasks.
+     */
+    public int size() {
+        return wheelSize + ready.count;
+    }
+
+    /**
+     * Schedules a task. The task must not be scheduled already.
+     *
+     * @param task The task.
+     * @param tick The tick in which the task should run.
+     */
+    public void schedule(final Task task, final long tick) {
+        task.tick = tick;
+        if (tick <= now) {
+            ready.add(task);
+        } else {
+            insert(task, false);
+            wheelSize++;
+        }
+    }
+
+    /**
+     * Advances to the given tick, running all tasks which are due up to and including that tick.
+     *
+     * Tasks run in the order of their ticks. Tasks that are scheduled while advancing for a tick which is already being
+     * processed are run before advancing further.
+     *
+     * @param tick The tick to advance to.
+     */
+    public void advanceTo(final long tick) {
+        advanceTo(tick, null);
+    }
+
+    /**
+     * Advances to the given tick like {@link #advanceTo(long)}, but stops running tasks once the budget is used up.
+     * Time still advances, so tasks of later ticks are queued behind the deferred tasks.
+     *
+     * @param tick The tick to advance to.
+     * @param budget The budget, or {@code null} for no limit. It must have been begun for the current tick.
+     */
+    public void advanceTo(final long tick, final TickBudget budget) {
+        // Tasks which are already ready run after advancing, so they see the tick they actually run in. They are
+        // queued before the tasks of the next tick, so the order is kept.
+        boolean first = true;
+        while (now < tick) {
+            if (wheelSize == 0) {
+                // Nothing in the wheels, skip ahead.
+                now = tick;
+                break;
+            }
+
+            final long next = now + 1;
+            final int index = (int) (next & (ROOT_SIZE - 1));
+            if (index == 0) {
+                cascade(next);
+            }
+            now = next;
+
+            final Bucket due = root[index];
+            wheelSize -= due.count;
+            ready.addAll(due);
+            first &= !runReady(budget, first);
+        }
+        runReady(budget, first);
+    }
+
+    /**
+     * Runs the ready tasks, as far as the budget allows.
+     *
+     * @param budget The budget, or {@code null} for no limit.
+     * @param first Whether no task ran in this advance yet.
+     *
+     * @return Whether any task ran.
+     */
+    private boolean runReady(final TickBudget budget, final boolean first) {
+        boolean ran = false;
+        while (ready.head != null && (budget == null || budget.tryAcquire(first && !ran))) {
+            ready.poll().run();
+            ran = true;
+        }
+        return ran;
+    }
+
+    /**
+     * Moves the tasks of the overflow levels closer to the root wheel, if the given tick begins a new round.
+     *
+     * A task in a higher level was scheduled before all tasks of the same tick in lower levels, since its distance was
+     * larger. Cascaded tasks are therefore put in front of the tasks in their new bucket. Higher levels are cascaded
+     * last, so their tasks end up in front of those of lower levels.
+     *
+     * @param next The tick which is about to be processed.
+     */
+    private void cascade(final long next) {
+        for (int level = 0; level < LEVELS; level++) {
+            final int index = (int) ((next >>> (ROOT_BITS + level * LEVEL_BITS)) & (LEVEL_SIZE - 1));
+            // Reversed, so putting each task in front keeps their order.
+            Task task = levels[level][index].removeReversed();
+            while (task != null) {
+                final Task following = task.next;
+                task.next = null;
+                insert(task, true);
+                task = following;
+            }
+            if (index != 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Inserts a task into the bucket which matches its distance to the next tick.
+     *
+     * @param task The task, which is scheduled for a future tick.
+     * @param front Whether the task is put in front of the tasks in the bucket.
+     */
+    private void insert(final Task task, final boolean front) {
+        final long base = now + 1;
+        final long distance = task.tick - base;
+        if (distance < ROOT_SIZE) {
+            root[(int) (task.tick & (ROOT_SIZE - 1))].add(task, front);
+            return;
+        }
+
+        // Tasks beyond the range of the wheel are parked in the last bucket and re-inserted when cascaded.
+        final long tick = distance > MAX_DISTANCE ? base + MAX_DISTANCE : task.tick;
+        for (int level = 0; level < LEVELS; level++) {
+            final int shift = ROOT_BITS + level * LEVEL_BITS;
+            if (distance < 1L << (shift + LEVEL_BITS) || level == LEVELS - 1) {
+                levels[level][(int) ((tick >>> shift) & (LEVEL_SIZE - 1))].add(task, front);
+                return;
+            }
+        }
+    }
+
+    /**
+     * A task which can be scheduled for a tick.
+     */
+    public abstract static class Task {
+
+        /**
+         * The tick this task is scheduled for.
+         */
+        private long tick;
+
+        /**
+         * The next task in the same bucket.
+         */
+        private Task next;
+
+        /**
+         * Returns the tick this task was last scheduled for.
+         *
+         * @return The tick.
+         */
+        public long getTick() {
+            return tick;
+        }
+
+        /**
+         * Runs the task.
+         */
+        public abstract void run();
+    }
+
+    /**
+     * A FIFO list of tasks, linked through the tasks themselves.
+     */
+    private static class Bucket {
+
+        /**
+         * The first task.
+         */
+        private Task head;
+
+        /**
+         * The last task.
+         */
+        private Task tail;
+
+        /**
+         * The number of tasks.
+         */
+        private int count;
+
+        /**
+         * Appends a task.
+         *
+         * @param task The task.
+         */
+        private void add(final Task task) {
+            if (tail == null) {
+                head = task;
+            } else {
+                tail.next = task;
+            }
+            tail = task;
+            count++;
+        }
+
+        /**
+         * Adds a task at either end.
+         *
+         * @param task The task.
+         * @param front Whether the task is put in front of the other tasks.
+         */
+        private void add(final Task task, final boolean front) {
+            if (!front) {
+                add(task);
+                return;
+            }
+            task.next = head;
+            head = task;
+            if (tail == null) {
+                tail = task;
+            }
+            count++;
+        }
+
+        /**
+         * Removes all tasks.
+         *
+         * @return The first of the removed tasks in reverse order, linked through the tasks, or {@code null} if this
+         *         bucket was empty.
+         */
+        private Task removeReversed() {
+            Task reversed = null;
+            Task task = head;
+            while (task != null) {
+                final Task following = task.next;
+                task.next = reversed;
+                reversed = task;
+                task = following;
+            }
+            head = null;
+            tail = null;
+            count = 0;
+            return reversed;
+        }
+
+        /**
+         * Moves all tasks of another bucket to the end of this bucket.
+         *
+         * @param other The other bucket, which is empty afterwards.
+         */
+        private void addAll(final Bucket other) {
+            if (other.head == null) {
+                return;
+            }
+            if (tail == null) {
+                head = other.head;
+            } else {
+                tail.next = other.head;
+            }
+            tail = other.tail;
+            count += other.count;
+            other.head = null;
+            other.tail = null;
+            other.count = 0;
+        }
+
+        /**
+         * Removes the first task.
+         *
+         * @return The first task, or {@code null} if this bucket is empty.
+         */
+        private Task poll() {
+            final Task task = head;
+            if (task != null) {
+                head = task.next;
+                if (head == null) {
+                    tail = null;
+                }
+                task.next = null;
+                count--;
+            }
+            return task;
+        }
+    }
+}
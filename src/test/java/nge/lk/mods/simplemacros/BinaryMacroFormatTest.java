@@ -0,0 +1,81 @@
+package nge.lk.mods.simplemacros;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests encoding and decoding macros in the {@link BinaryMacroFormat}.
+ */
+public class BinaryMacroFormatTest {
+
+    /**
+     * Macro counts around the boundaries of the decoded chunks (1024 records).
+     */
+    private static final int[] SIZES = {0, 1, 1024, 1025, 4097};
+
+    @Test
+    public void parallelDecodingMatchesSequentialDecoding() throws IOException {
+        for (final int size : SIZES) {
+            final List<Macro> macros = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                macros.add(macro(i));
+            }
+            final byte[] data = BinaryMacroFormat.encode(macros);
+
+            assertEquals(macros, BinaryMacroFormat.decode(ByteBuffer.wrap(data), false));
+            assertEquals(macros, BinaryMacroFormat.decode(ByteBuffer.wrap(data), true));
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void malformedRecordsFailWhenDecodingInParallel() throws IOException {
+        final List<Macro> macros = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            macros.add(macro(i));
+        }
+        final ByteBuffer data = ByteBuffer.wrap(BinaryMacroFormat.encode(macros));
+        // Let the group of the last record refer past the end of the string table.
+        data.putInt(24 + 2999 * 36, Integer.MAX_VALUE);
+
+        BinaryMacroFormat.decode(data, true);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void malformedRecordsInTheFirstPartFailWhenDecodingInParallel() throws IOException {
+        final List<Macro> macros = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            macros.add(macro(i));
+        }
+        final ByteBuffer data = ByteBuffer.wrap(BinaryMacroFormat.encode(macros));
+        // The first part fails while the other parts are still being decoded.
+        data.putInt(24, Integer.MAX_VALUE);
+
+        BinaryMacroFormat.decode(data, true);
+    }
+
+    /**
+     * Creates a macro with triggers, which differs from the macros of other indices.
+     *
+     * @param index The index.
+     *
+     * @return The macro.
+     */
+    private static Macro macro(final int index) {
+        final Macro macro = new Macro("group" + index % 7, index % 3 == 0, index % 2 == 0, 2 + index % 50,
+                50 * (index % 4), new ArrayList<>(Arrays.asList("/say macro " + index, "/spawn")));
+        macro.setMode(MacroMode.values()[index % MacroMode.values().length]);
+        if (index % 5 == 0) {
+            macro.setChord(new int[]{56, index % 40});
+            macro.setSequence(new int[]{36, 37});
+            macro.setChatTrigger("trigger " + index % 11);
+        }
+        return macro;
+    }
+}
@@ -0,0 +1,132 @@
+package nge.lk.mods.simplemacros;
+
+import org.junit.Test;
+import org.lwjgl.input.Keyboard;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests recording key bindings with {@link BindingRecorder}.
+ */
+public class BindingRecorderTest {
+
+    /**
+     * The recorder under test.
+     */
+    private final BindingRecorder recorder = new BindingRecorder();
+
+    /**
+     * The held keys.
+     */
+    private final boolean[] held = new boolean[KeyState.KEY_COUNT];
+
+    /**
+     * The time of the latest key event.
+     */
+    private long time;
+
+    @Test
+    public void keysHeldTogetherFormAChord() {
+        down(Keyboard.KEY_LMENU);
+        down(Keyboard.KEY_G);
+        down(Keyboard.KEY_1);
+
+        final Macro macro = finish();
+        assertEquals(Keyboard.KEY_1, macro.getMacroKey());
+        assertArrayEquals(new int[]{Keyboard.KEY_G, Keyboard.KEY_LMENU}, macro.getChord());
+        assertArrayEquals(KeyState.NO_KEYS, macro.getSequence());
+        assertEquals("Alt-G-1", macro.getBindingName());
+    }
+
+    @Test
+    public void keysPressedOneAfterAnotherFormASequence() {
+        tap(Keyboard.KEY_J);
+        tap(Keyboard.KEY_K);
+        tap(Keyboard.KEY_J);
+        down(Keyboard.KEY_H);
+
+        final Macro macro = finish();
+        assertEquals(Keyboard.KEY_H, macro.getMacroKey());
+        assertArrayEquals(KeyState.NO_KEYS, macro.getChord());
+        assertArrayEquals(new int[]{Keyboard.KEY_J, Keyboard.KEY_K, Keyboard.KEY_J}, macro.getSequence());
+        assertEquals("J, K, J, H", macro.getBindingName());
+    }
+
+    @Test
+    public void sequencesCanEndInAChord() {
+        tap(Keyboard.KEY_J);
+        down(Keyboard.KEY_LCONTROL);
+        down(Keyboard.KEY_G);
+        tap(Keyboard.KEY_K);
+        down(Keyboard.KEY_H);
+
+        final Macro macro = finish();
+        assertEquals(Keyboard.KEY_H, macro.getMacroKey());
+        assertTrue(macro.isCtrlModifier());
+        assertFalse(macro.isShiftModifier());
+        assertArrayEquals(new int[]{Keyboard.KEY_G}, macro.getChord());
+        assertArrayEquals(new int[]{Keyboard.KEY_J, Keyboard.KEY_K}, macro.getSequence());
+        assertEquals("J, K, Ctrl-G-H", macro.getBindingName());
+    }
+
+    @Test
+    public void onlyTheLatestSequenceKeysAreKept() {
+        for (int key = Keyboard.KEY_1; key < Keyboard.KEY_1 + 6; key++) {
+            tap(key);
+        }
+        down(Keyboard.KEY_H);
+
+        final Macro macro = finish();
+        assertArrayEquals(new int[]{Keyboard.KEY_1 + 2, Keyboard.KEY_1 + 3, Keyboard.KEY_1 + 4, Keyboard.KEY_1 + 5},
+                macro.getSequence());
+    }
+
+    @Test
+    public void bindingIsCompleteAfterTheSequenceTimeout() {
+        assertFalse(recorder.isComplete(time));
+        down(Keyboard.KEY_LSHIFT);
+        assertTrue(recorder.isEmpty());
+
+        down(Keyboard.KEY_H);
+        assertFalse(recorder.isComplete(time + KeyState.SEQUENCE_TIMEOUT));
+        assertTrue(recorder.isComplete(time + KeyState.SEQUENCE_TIMEOUT + 1));
+        assertTrue(finish().isShiftModifier());
+    }
+
+    /**
+     * Presses a key and keeps it held.
+     *
+     * @param key The key.
+     */
+    private void down(final int key) {
+        held[key] = true;
+        time += 1000;
+        recorder.press(key, pressed -> held[pressed], time);
+    }
+
+    /**
+     * Presses and releases a key.
+     *
+     * @param key The key.
+     */
+    private void tap(final int key) {
+        down(key);
+        held[key] = false;
+    }
+
+    /**
+     * Assigns the recorded binding to a new macro.
+     *
+     * @return The macro.
+     */
+    private Macro finish() {
+        final Macro macro = new Macro("", false, false, Keyboard.KEY_ESCAPE, 0, new ArrayList<>());
+        recorder.applyTo(macro);
+        return macro;
+    }
+}
@@ -0,0 +1,168 @@
+package nge.lk.mods.simplemacros;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the pacing of outgoing chat messages by {@link ChatPacer}.
+ */
+public class ChatPacerTest {
+
+    /**
+     * The messages which were sent, in their order.
+     */
+    private final List<String> sent = new ArrayList<>();
+
+    /**
+     * The stamps which were reported as sent, in their order.
+     */
+    private final List<Long> reported = new ArrayList<>();
+
+    @Test
+    public void sourcesTakeTurns() {
+        final ChatPacer pacer = new ChatPacer(sent::add, 0, 1, 100);
+        final ChatPacer.Source first = pacer.newSource(ChatPacer.Priority.NORMAL, null);
+        final ChatPacer.Source second = pacer.newSource(ChatPacer.Priority.NORMAL, null);
+        first.send("a1", 0);
+        first.send("a2", 0);
+        first.send("a3", 0);
+        second.send("b1", 0);
+
+        pacer.onTick();
+        assertEquals(Arrays.asList("a1", "b1", "a2", "a3"), sent);
+        assertEquals(0, pacer.getQueued());
+    }
+
+    @Test
+    public void highPrioritySourcesAreServedFirst() {
+        // One message per second, after a burst of two.
+        final ChatPacer pacer = new ChatPacer(sent::add, 1, 2, 100);
+        final ChatPacer.Source loop = pacer.newSource(ChatPacer.Priority.NORMAL, null);
+        final ChatPacer.Source once = pacer.newSource(ChatPacer.Priority.HIGH, null);
+        loop.send("loop1", 0);
+        loop.send("loop2", 0);
+        once.send("once1", 0);
+        once.send("once2", 0);
+        once.send("once3", 0);
+
+        pacer.flush();
+        assertEquals(Arrays.asList("once1", "once2"), sent);
+        for (int tick = 0; tick < 40; tick++) {
+            pacer.onTick();
+        }
+        assertEquals(Arrays.asList("once1", "once2", "once3", "loop1"), sent);
+    }
+
+    @Test
+    public void producersWaitForTheirPendingMessages() {
+        final ChatPacer pacer = new ChatPacer(sent::add, 1, 1, 100);
+        final ChatPacer.Source source = pacer.newSource(ChatPacer.Priority.NORMAL, null);
+        assertTrue(source.tryProduce());
+        source.send("first", 0);
+        pacer.flush();
+        source.send("second", 0);
+
+        assertFalse(source.tryProduce());
+        assertFalse(source.tryProduce());
+        assertTrue(pacer.report().get(0).endsWith("producer waits 2"));
+        for (int tick = 0; tick < 20; tick++) {
+            pacer.onTick();
+        }
+        assertTrue(source.tryProduce());
+        assertEquals(Arrays.asList("first", "second"), sent);
+    }
+
+    @Test
+    public void messagesAreReportedWhenTheyAreSent() {
+        // One message per second, after a burst of two.
+        final ChatPacer pacer = new ChatPacer(sent::add, 1, 2, 100);
+        final ChatPacer.Source source = pacer.newSource(ChatPacer.Priority.NORMAL, reported::add);
+        for (int i = 1; i <= 5; i++) {
+            source.send("m" + i, i);
+        }
+
+        pacer.flush();
+        assertEquals(Arrays.asList(1L, 2L), reported);
+        for (int tick = 0; tick < 20; tick++) {
+            pacer.onTick();
+        }
+        assertEquals(Arrays.asList(1L, 2L, 3L), reported);
+        assertEquals(Arrays.asList("m1", "m2", "m3"), sent);
+        assertEquals(2, pacer.getQueued());
+    }
+
+    @Test
+    public void droppedMessagesAreNotReported() {
+        final ChatPacer pacer = new ChatPacer(sent::add, 0, 1, 2);
+        final ChatPacer.Source source = pacer.newSource(ChatPacer.Priority.NORMAL, reported::add);
+        source.send("kept1", 1);
+        source.send("kept2", 2);
+        source.send("dropped", 3);
+
+        pacer.onTick();
+        assertEquals(Arrays.asList("kept1", "kept2"), sent);
+        assertEquals(Arrays.asList(1L, 2L), reported);
+    }
+
+    @Test
+    public void messagesOfCancelledSourcesAreDiscarded() {
+        // One message per second, after a burst of one.
+        final ChatPacer pacer = new ChatPacer(sent::add, 1, 1, 100);
+        final boolean[] cancelled = new boolean[1];
+        final ChatPacer.Source cancelling = pacer.newSource(ChatPacer.Priority.HIGH, new ChatPacer.SentListener() {
+            @Override
+            public void onSent(final long stamp) {
+                reported.add(stamp);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return cancelled[0];
+            }
+        });
+        final ChatPacer.Source other = pacer.newSource(ChatPacer.Priority.NORMAL, null);
+        for (int i = 1; i <= 4; i++) {
+            cancelling.send("c" + i, i);
+        }
+        other.send("o1", 0);
+
+        pacer.flush();
+        cancelled[0] = true;
+        for (int tick = 0; tick < 20; tick++) {
+            pacer.onTick();
+        }
+        // The cancelled source does not use up the token of the next message.
+        assertEquals(Arrays.asList("c1", "o1"), sent);
+        assertEquals(Arrays.asList(1L), reported);
+        assertEquals(0, pacer.getQueued());
+        assertTrue(pacer.report().get(0).contains("cancelled 3"));
+    }
+
+    @Test
+    public void manyQueuedMessagesKeepTheirOrderAndStamps() {
+        final ChatPacer pacer = new ChatPacer(sent::add, 0, 1, 1000);
+        final ChatPacer.Source source = pacer.newSource(ChatPacer.Priority.NORMAL, reported::add);
+        final List<String> expected = new ArrayList<>();
+        final List<Long> expectedStamps = new ArrayList<>();
+        // Interleaves sends and flushes, so the ring wraps around before it grows.
+        for (int i = 0; i < 100; i++) {
+            source.send("m" + i, i);
+            expected.add("m" + i);
+            expectedStamps.add((long) i);
+            if (i % 7 == 3) {
+                pacer.flush(new TickBudget(0, 2));
+            }
+        }
+
+        pacer.onTick();
+        assertEquals(expected, sent);
+        assertEquals(expectedStamps, reported);
+    }
+}
@@ -0,0 +1,150 @@
+package nge.lk.mods.simplemacros;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests finding chat triggers in messages with {@link ChatTriggerMatcher}.
+ */
+public class ChatTriggerMatcherTest {
+
+    /**
+     * The matcher under test.
+     */
+    private final ChatTriggerMatcher matcher = new ChatTriggerMatcher();
+
+    @Test
+    public void overlappingTriggersAreAllFound() {
+        matcher.rebuild(Arrays.asList(macro("he"), macro("she"), macro("his"), macro("hers")));
+
+        assertEquals(Arrays.asList("he", "hers", "she"), match("ushers"));
+        assertEquals(Arrays.asList("his"), match("xhisx"));
+        assertEquals(Arrays.asList("he", "she"), match("sheh"));
+        assertEquals(Collections.emptyList(), match("hi s"));
+    }
+
+    @Test
+    public void triggersInsideOtherTriggersAreFound() {
+        matcher.rebuild(Arrays.asList(macro("a"), macro("aa"), macro("aaa"), macro("ba"), macro("abab")));
+
+        assertEquals(Arrays.asList("a", "aa"), match("aa"));
+        assertEquals(Arrays.asList("a", "aa", "aaa", "ba"), match("baaa"));
+        // The failure links lead from "abab" back to "ab" without losing "ba".
+        assertEquals(Arrays.asList("a", "abab", "ba"), match("ababa"));
+    }
+
+    @Test
+    public void eachMacroIsFoundOncePerMessage() {
+        final Macro first = macro("go");
+        final Macro second = macro("GO");
+        matcher.rebuild(Arrays.asList(first, second, macro("o")));
+
+        final List<Macro> matched = new ArrayList<>();
+        matcher.match("go go GO gone", matched);
+        assertEquals(3, matched.size());
+        assertTrue(matched.contains(first));
+        assertTrue(matched.contains(second));
+    }
+
+    @Test
+    public void triggersAreMatchedIgnoringCase() {
+        matcher.rebuild(Arrays.asList(macro("Ready Check"), macro("")));
+
+        assertEquals(Arrays.asList("ready check"), match("[Party] READY CHECK started"));
+        assertEquals(Collections.emptyList(), match("ready  check"));
+    }
+
+    @Test
+    public void rebuildingReplacesTheTriggers() {
+        matcher.rebuild(Arrays.asList(macro("old")));
+        matcher.rebuild(Arrays.asList(macro("new")));
+
+        assertEquals(Collections.emptyList(), match("old"));
+        assertEquals(Arrays.asList("new"), match("brand new"));
+        matcher.rebuild(Collections.<Macro>emptyList());
+        assertTrue(matcher.isEmpty());
+        assertEquals(Collections.emptyList(), match("new"));
+    }
+
+    @Test
+    public void randomTriggersMatchLikeContains() {
+        // A small alphabet gives many overlapping and nested triggers.
+        final Random random = new Random(1);
+        final List<Macro> macros = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            macros.add(macro(randomText(random, 1 + random.nextInt(4), 3)));
+        }
+        matcher.rebuild(macros);
+
+        final List<Macro> matched = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            final String message = randomText(random, random.nextInt(30), 4);
+            matcher.match(message, matched);
+            final List<Macro> expected = new ArrayList<>();
+            for (final Macro macro : macros) {
+                if (message.contains(macro.getChatTrigger())) {
+                    expected.add(macro);
+                }
+            }
+            assertEquals(message, expected.size(), matched.size());
+            assertTrue(message, matched.containsAll(expected));
+        }
+    }
+
+    /**
+     * Matches a message and returns the lower-case triggers of the matched macros.
+     *
+     * @param message The message.
+     *
+     * @return The triggers, sorted.
+     */
+    private List<String> match(final String message) {
+        final List<Macro> matched = new ArrayList<>();
+        matcher.match(message, matched);
+        final List<String> triggers = new ArrayList<>();
+        for (final Macro macro : matched) {
+            triggers.add(macro.getChatTrigger().toLowerCase(Locale.ROOT));
+        }
+        Collections.sort(triggers);
+        return triggers;
+    }
+
+    /**
+     * Creates a random text.
+     *
+     * @param random The random source.
+     * @param length The length of the text.
+     * @param letters The number of different letters, starting at 'a'.
+     *
+     * @return The text.
+     */
+    private static String randomText(final Random random, final int length, final int letters) {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append((char) ('a' + random.nextInt(letters)));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Creates a macro with a chat trigger.
+     *
+     * @param trigger The chat trigger.
+     *
+     * @return The macro.
+     */
+    private static Macro macro(final String trigger) {
+        final Macro macro = new Macro("", false, false, 0, 0, new ArrayList<>(Arrays.asList("/" + trigger)));
+        macro.setChatTrigger(trigger);
+        return macro;
+    }
+}
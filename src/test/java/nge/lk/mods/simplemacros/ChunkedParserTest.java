@@ -0,0 +1,99 @@
+package nge.lk.mods.simplemacros;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests parsing lines in chunks, sequentially and in parallel, with a {@link ChunkedParser}.
+ */
+public class ChunkedParserTest {
+
+    /**
+     * Line counts around the boundaries of the chunks (1024 lines).
+     */
+    private static final int[] SIZES = {0, 1, 1023, 1024, 1025, 2048, 5000};
+
+    @Test
+    public void parallelParsingKeepsTheOrderOfTheLines() {
+        for (final int size : SIZES) {
+            final List<String> lines = new ArrayList<>();
+            final List<Macro> expected = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                final Macro macro = macro(i);
+                lines.add(encode(macro));
+                expected.add(macro);
+            }
+
+            assertEquals(expected, parse(lines, false).finish());
+            assertEquals(expected, parse(lines, true).finish());
+        }
+    }
+
+    @Test
+    public void malformedLinesAreSkippedInEveryChunk() {
+        final List<String> lines = new ArrayList<>();
+        final List<Macro> expected = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            if (i % 97 == 0) {
+                lines.add("§false§false§x§50§/a");
+                continue;
+            }
+            final Macro macro = macro(i);
+            lines.add(encode(macro));
+            expected.add(macro);
+        }
+
+        final ChunkedParser sequential = parse(lines, false);
+        assertEquals(expected, sequential.finish());
+        assertEquals(31, sequential.getErrorCount());
+        final ChunkedParser parallel = parse(lines, true);
+        assertEquals(expected, parallel.finish());
+        assertEquals(31, parallel.getErrorCount());
+    }
+
+    /**
+     * Hands lines to a new parser, numbered from 1.
+     *
+     * @param lines The lines.
+     * @param parallel Whether full chunks are parsed on the fork-join pool.
+     *
+     * @return The parser, which is not finished yet.
+     */
+    private static ChunkedParser parse(final List<String> lines, final boolean parallel) {
+        final ChunkedParser parser = new ChunkedParser(parallel);
+        for (int i = 0; i < lines.size(); i++) {
+            parser.accept(lines.get(i), i + 1);
+        }
+        return parser;
+    }
+
+    /**
+     * Encodes a macro into a line of the text format.
+     *
+     * @param macro The macro.
+     *
+     * @return The line.
+     */
+    private static String encode(final Macro macro) {
+        final StringBuilder line = new StringBuilder();
+        MacroTextCodec.encode(macro, line);
+        return line.toString();
+    }
+
+    /**
+     * Creates a macro which differs from the macros of other indices.
+     *
+     * @param index The index.
+     *
+     * @return The macro.
+     */
+    private static Macro macro(final int index) {
+        return new Macro("group" + index % 7, index % 3 == 0, index % 2 == 0, 2 + index % 50, 50 * (index % 4),
+                new ArrayList<>(Arrays.asList("/say macro " + index, "/spawn")));
+    }
+}
@@ -0,0 +1,117 @@
+package nge.lk.mods.simplemacros;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests parsing and rendering commands with placeholders in {@link CommandTemplate}.
+ */
+public class CommandTemplateTest {
+
+    /**
+     * The variables which were looked up while rendering.
+     */
+    private final List<CommandTemplate.Variable> lookups = new ArrayList<>();
+
+    @Test
+    public void variablesAreReplacedByTheirValues() {
+        assertEquals("/tp Steve 10 64 -3", render("/tp {player} {x} {y} {z}", 0));
+        assertEquals("Steve holds Stone", render("{player} holds {held}", 0));
+        assertEquals("/msg Alex copied", render("/msg Alex {clipboard}", 0));
+    }
+
+    @Test
+    public void theCounterIsProvidedByTheExecution() {
+        assertEquals("/say run 7, again 7", render("/say run {counter}, again {counter}", 7));
+        assertEquals("/say run 8", render("/say run {counter}", 8));
+        // The counter does not ask the variable source.
+        assertTrue(lookups.isEmpty());
+    }
+
+    @Test
+    public void unknownVariablesAndStrayBracesAreKeptAsText() {
+        assertEquals("/say {run} {Player} {}", render("/say {run} {Player} {}", 3));
+        assertEquals("/say { Steve", render("/say { {player}", 0));
+        assertEquals("/say {Steve}", render("/say {{player}}", 0));
+        assertEquals("/say }{ Steve {", render("/say }{ {player} {", 0));
+        assertEquals("/say {player", render("/say {player", 0));
+    }
+
+    @Test
+    public void commandsWithoutVariablesRenderToTheirSource() {
+        final CommandTemplate template = CommandTemplate.compile("/say {hello} world");
+        assertTrue(template.isConstant());
+        assertSame(template.getSource(), template.render(this::append, 0, new StringBuilder()));
+        assertTrue(lookups.isEmpty());
+
+        assertFalse(CommandTemplate.compile("{x}").isConstant());
+        assertTrue(CommandTemplate.compile("").isConstant());
+    }
+
+    @Test
+    public void variablesAtTheEdgesAndNextToEachOther() {
+        assertEquals("Steve", render("{player}", 0));
+        assertEquals("1064-3", render("{x}{y}{z}", 0));
+        assertEquals("Steve:5", render("{player}:{counter}", 5));
+    }
+
+    @Test
+    public void theBufferIsClearedBeforeRendering() {
+        final CommandTemplate template = CommandTemplate.compile("/say {player}");
+        final StringBuilder buffer = new StringBuilder("left over");
+
+        assertEquals("/say Steve", template.render(this::append, 0, buffer));
+        assertEquals("/say Steve", template.render(this::append, 0, buffer));
+    }
+
+    /**
+     * Compiles and renders a command.
+     *
+     * @param command The command.
+     * @param counter The value of the counter.
+     *
+     * @return The rendered command.
+     */
+    private String render(final String command, final long counter) {
+        return CommandTemplate.compile(command).render(this::append, counter, new StringBuilder());
+    }
+
+    /**
+     * Provides fixed values for the variables.
+     *
+     * @param variable The variable.
+     * @param out The buffer to which the value is appended.
+     */
+    private void append(final CommandTemplate.Variable variable, final StringBuilder out) {
+        lookups.add(variable);
+        switch (variable) {
+            case PLAYER:
+                out.append("Steve");
+                break;
+            case X:
+                out.append(10);
+                break;
+            case Y:
+                out.append(64);
+                break;
+            case Z:
+                out.append(-3);
+                break;
+            case HELD:
+                out.append("Stone");
+                break;
+            case CLIPBOARD:
+                out.append("copied");
+                break;
+            default:
+                throw new AssertionError("Looked up " + variable);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package nge.lk.mods.simplemacros;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests reading and writing macro files with {@link MacroIO}.
+ */
+public class MacroIOTest {
+
+    /**
+     * The directory of the macro files.
+     */
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void loadingSkipsMalformedLinesButReloadingRejectsThem() throws IOException {
+        final File file = new File(folder.getRoot(), "macros.dat");
+        final MacroIO macroIO = new MacroIO(file, false, null, null);
+        final List<Macro> macros = Arrays.asList(macro(1), macro(2));
+        macroIO.saveState(macros);
+        assertEquals(macros, macroIO.reloadState());
+
+        // Like a file which another program has not finished writing.
+        Files.write(file.toPath(), "§false§false§3".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        assertEquals(macros, macroIO.readState());
+        try {
+            macroIO.reloadState();
+            fail("Reloaded a file with a malformed line");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("1 malformed lines in "));
+        }
+    }
+
+    @Test
+    public void largeTextFilesAreReadInTheOrderOfTheirLines() throws IOException {
+        final MacroIO macroIO = new MacroIO(new File(folder.getRoot(), "macros.dat"), false, null, null);
+        final List<Macro> macros = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            macros.add(macro(i));
+        }
+        macroIO.saveState(macros);
+
+        assertEquals(macros, macroIO.readState());
+    }
+
+    /**
+     * Creates a macro which differs from the macros of other indices.
+     *
+     * @param index The index.
+     *
+     * @return The macro.
+     */
+    private static Macro macro(final int index) {
+        return new Macro("group" + index % 7, index % 3 == 0, index % 2 == 0, 2 + index % 50, 50 * (index % 4),
+                new ArrayList<>(Arrays.asList("/say macro " + index, "/spawn")));
+    }
+}
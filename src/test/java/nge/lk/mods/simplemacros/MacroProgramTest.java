@@ -0,0 +1,103 @@
+package nge.lk.mods.simplemacros;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests compiling macros into a {@link MacroProgram}.
+ */
+public class MacroProgramTest {
+
+    @Test
+    public void offsetsFollowThePositionsOfTheCommands() {
+        final MacroProgram program = compile(MacroMode.ONCE, 120, "/a", "/b", "/c");
+
+        assertEquals(3, program.size());
+        assertOffsets(program, new long[]{0, 2, 4}, new long[]{0, 120, 240});
+        assertEquals("/b", program.getCommand(1).getSource());
+        assertFalse(program.isLooping());
+        assertEquals(6, program.getLoopTicks());
+        assertEquals(360, program.getLoopMillis());
+    }
+
+    @Test
+    public void emptyCommandsAreDroppedButKeepTheirDelay() {
+        final MacroProgram program = compile(MacroMode.ONCE, 100, "", "/a", "", "", "/b", "");
+
+        assertEquals(2, program.size());
+        assertEquals("/a", program.getCommand(0).getSource());
+        assertEquals("/b", program.getCommand(1).getSource());
+        assertOffsets(program, new long[]{2, 8}, new long[]{100, 400});
+        assertEquals(12, program.getLoopTicks());
+        assertEquals(600, program.getLoopMillis());
+    }
+
+    @Test
+    public void delaysBelowATickAreRoundedDownUnlessLooping() {
+        final MacroProgram once = compile(MacroMode.ONCE, 30, "/a", "/b");
+        assertOffsets(once, new long[]{0, 0}, new long[]{0, 30});
+        assertEquals(0, once.getLoopTicks());
+
+        final MacroProgram loop = compile(MacroMode.TOGGLE_LOOP, 30, "/a", "/b");
+        assertTrue(loop.isLooping());
+        assertOffsets(loop, new long[]{0, 1}, new long[]{0, 30});
+        assertEquals(2, loop.getLoopTicks());
+        assertEquals(60, loop.getLoopMillis());
+    }
+
+    @Test
+    public void loopsWithoutADelayStillYieldEachCommand() {
+        final MacroProgram program = compile(MacroMode.REPEAT_WHILE_HELD, 0, "/a", "/b", "/c");
+
+        assertOffsets(program, new long[]{0, 1, 2}, new long[]{0, 1, 2});
+        assertEquals(3, program.getLoopTicks());
+        assertEquals(3, program.getLoopMillis());
+
+        final MacroProgram once = compile(MacroMode.ONCE, 0, "/a", "/b");
+        assertOffsets(once, new long[]{0, 0}, new long[]{0, 0});
+    }
+
+    @Test
+    public void onlyMacrosWithContentAreSaved() {
+        assertTrue(compile(MacroMode.ONCE, 50, "", " /a ").isSave());
+        assertFalse(compile(MacroMode.ONCE, 50, "", "  ", "\t").isSave());
+        assertFalse(compile(MacroMode.ONCE, 50).isSave());
+        assertEquals(0, compile(MacroMode.ONCE, 50).size());
+    }
+
+    /**
+     * Checks the offsets of all commands of a program.
+     *
+     * @param program The program.
+     * @param ticks The expected offsets in ticks.
+     * @param millis The expected offsets in milliseconds.
+     */
+    private static void assertOffsets(final MacroProgram program, final long[] ticks, final long[] millis) {
+        assertEquals(ticks.length, program.size());
+        for (int i = 0; i < ticks.length; i++) {
+            assertEquals("tick offset " + i, ticks[i], program.getTickOffset(i));
+            assertEquals("millisecond offset " + i, millis[i], program.getMillisOffset(i));
+        }
+    }
+
+    /**
+     * Compiles a macro.
+     *
+     * @param mode The mode of the macro.
+     * @param delay The delay between the commands in milliseconds.
+     * @param commands The commands.
+     *
+     * @return The program.
+     */
+    private static MacroProgram compile(final MacroMode mode, final int delay, final String... commands) {
+        final Macro macro = new Macro("", false, false, 30, delay, new ArrayList<>(Arrays.asList(commands)));
+        macro.setMode(mode);
+        return new MacroProgram(macro);
+    }
+}
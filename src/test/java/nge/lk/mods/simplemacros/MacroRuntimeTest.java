@@ -0,0 +1,195 @@
+package nge.lk.mods.simplemacros;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests triggering macros and buffering key presses while loading in a {@link MacroRuntime}, driven by a
+ * {@link MacroSimulation}.
+ */
+public class MacroRuntimeTest {
+
+    /**
+     * The key of the macro which runs once.
+     */
+    private static final int ONCE_KEY = 30;
+
+    /**
+     * The key of the looping macro.
+     */
+    private static final int LOOP_KEY = 31;
+
+    /**
+     * The simulation of the runtime.
+     */
+    private final MacroSimulation simulation = new MacroSimulation(Arrays.asList(
+            macro(ONCE_KEY, MacroMode.ONCE, "/a", "/b", "/c"), macro(LOOP_KEY, MacroMode.TOGGLE_LOOP, "/loop")),
+            true);
+
+    @Test
+    public void pressingARunningMacroAgainStartsItOver() {
+        press(ONCE_KEY);
+        ticks(7);
+        press(ONCE_KEY);
+        ticks(20);
+
+        // The first execution is cancelled before its third command, so the commands never interleave.
+        assertEquals(Arrays.asList("1 /a", "6 /b", "8 /a", "13 /b", "18 /c"), simulation.getSchedule());
+    }
+
+    @Test
+    public void pressingAFinishedMacroAgainRunsItAgain() {
+        press(ONCE_KEY);
+        ticks(15);
+        press(ONCE_KEY);
+        ticks(15);
+
+        assertEquals(Arrays.asList("1 /a", "6 /b", "11 /c", "16 /a", "21 /b", "26 /c"), simulation.getSchedule());
+    }
+
+    @Test
+    public void pressingARunningLoopAgainStopsIt() {
+        press(LOOP_KEY);
+        ticks(12);
+        press(LOOP_KEY);
+        ticks(20);
+        press(LOOP_KEY);
+        ticks(2);
+
+        assertEquals(Arrays.asList("1 /loop", "6 /loop", "11 /loop", "33 /loop"), simulation.getSchedule());
+    }
+
+    @Test
+    public void macrosLeftOutOfARebuildAreStopped() {
+        final MacroRuntime runtime = simulation.getRuntime();
+        press(LOOP_KEY);
+        ticks(7);
+        // Like closing the editor after changing the loop.
+        final PersistentVector<Macro> edited = runtime.getMacros().with(1, runtime.getMacros().get(1).copyForEdit());
+        runtime.setMacros(edited);
+        runtime.getMacroIndex().rebuild(edited);
+        ticks(20);
+        press(LOOP_KEY);
+        ticks(2);
+
+        assertEquals(Arrays.asList("1 /loop", "6 /loop", "28 /loop"), simulation.getSchedule());
+    }
+
+    @Test
+    public void runtimesShareMacrosButNotTheirState() {
+        press(LOOP_KEY);
+        ticks(3);
+        final MacroSimulation other = new MacroSimulation(new ArrayList<>(simulation.getRuntime().getMacros()), true);
+        other.keyEvent(LOOP_KEY, true);
+        other.keyEvent(LOOP_KEY, false);
+        for (int i = 0; i < 7; i++) {
+            other.tick();
+        }
+
+        // The loop which runs in the first runtime is not toggled off by the second one.
+        assertEquals(Arrays.asList("1 /loop", "6 /loop"), other.getSchedule());
+        ticks(3);
+        assertEquals(Arrays.asList("1 /loop", "6 /loop"), simulation.getSchedule());
+    }
+
+    @Test
+    public void keyPressesWhileLoadingAreReplayedAfterwards() {
+        final MacroRuntime runtime = simulation.getRuntime();
+        runtime.beginLoad();
+        press(ONCE_KEY);
+        ticks(3);
+        assertEquals(1, runtime.getBufferedKeyCount());
+        assertEquals(Collections.emptyList(), simulation.getSchedule());
+
+        assertEquals(1, runtime.finishLoad());
+        assertEquals(0, runtime.getBufferedKeyCount());
+        ticks(15);
+        assertEquals(Arrays.asList("4 /a", "9 /b", "14 /c"), simulation.getSchedule());
+    }
+
+    @Test
+    public void atMost32KeyPressesAreBuffered() {
+        final MacroRuntime runtime = simulation.getRuntime();
+        runtime.beginLoad();
+        for (int i = 0; i < 32; i++) {
+            press(ONCE_KEY);
+        }
+        // Later presses are dropped.
+        press(LOOP_KEY);
+        assertEquals(32, runtime.getBufferedKeyCount());
+
+        // Each replayed press starts the macro over, so it runs once.
+        assertEquals(32, runtime.finishLoad());
+        ticks(15);
+        assertEquals(Arrays.asList("1 /a", "6 /b", "11 /c"), simulation.getSchedule());
+    }
+
+    @Test
+    public void keyPressesOlderThanTwoSecondsAreDropped() {
+        final MacroRuntime runtime = simulation.getRuntime();
+        runtime.beginLoad();
+        press(LOOP_KEY);
+        ticks(10);
+        press(ONCE_KEY);
+        // 41 ticks are 2.05 seconds after the first press.
+        ticks(31);
+        assertEquals(2, runtime.getBufferedKeyCount());
+
+        assertEquals(1, runtime.finishLoad());
+        ticks(15);
+        assertEquals(Arrays.asList("42 /a", "47 /b", "52 /c"), simulation.getSchedule());
+    }
+
+    @Test
+    public void keyPressesExactlyTwoSecondsOldAreReplayed() {
+        final MacroRuntime runtime = simulation.getRuntime();
+        runtime.beginLoad();
+        press(ONCE_KEY);
+        ticks(40);
+
+        assertEquals(1, runtime.finishLoad());
+        ticks(1);
+        assertEquals(Arrays.asList("41 /a"), simulation.getSchedule());
+    }
+
+    /**
+     * Presses and releases a key.
+     *
+     * @param key The key.
+     */
+    private void press(final int key) {
+        simulation.keyEvent(key, true);
+        simulation.keyEvent(key, false);
+    }
+
+    /**
+     * Simulates ticks.
+     *
+     * @param count The number of ticks.
+     */
+    private void ticks(final int count) {
+        for (int i = 0; i < count; i++) {
+            simulation.tick();
+        }
+    }
+
+    /**
+     * Creates a macro with a delay of 250 ms, i.e. 5 ticks.
+     *
+     * @param key The key of the macro.
+     * @param mode The mode of the macro.
+     * @param commands The commands of the macro.
+     *
+     * @return The macro.
+     */
+    private static Macro macro(final int key, final MacroMode mode, final String... commands) {
+        final Macro macro = new Macro("", false, false, key, 250, new ArrayList<>(Arrays.asList(commands)));
+        macro.setMode(mode);
+        return macro;
+    }
+}
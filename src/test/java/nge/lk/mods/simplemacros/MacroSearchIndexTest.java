@@ -0,0 +1,207 @@
+package nge.lk.mods.simplemacros;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests finding macros with the trigram index of {@link MacroSearchIndex}.
+ */
+public class MacroSearchIndexTest {
+
+    /**
+     * The key code which marks unbound macros.
+     */
+    private static final int UNBOUND = 1;
+
+    /**
+     * The index under test.
+     */
+    private final MacroSearchIndex index = new MacroSearchIndex();
+
+    @Test
+    public void shortQueriesCheckEveryMacro() {
+        index.rebuild(Arrays.asList(macro("pvp", "/kit a"), macro("", "/spawn"), macro("", "/home b")));
+
+        assertEquals(Arrays.asList(0, 1), sorted(index.search("a", 10)));
+        assertEquals(Arrays.asList(1), index.search("/s", 10));
+        assertEquals(Arrays.asList(0), index.search("  pv ", 10));
+        assertEquals(Collections.emptyList(), index.search("  ", 10));
+        assertEquals(Collections.emptyList(), index.search("zz", 10));
+    }
+
+    @Test
+    public void queriesAndMacrosAreMatchedIgnoringCase() {
+        final Macro trigger = macro("", "/party accept");
+        trigger.setChatTrigger("Ready Check");
+        index.rebuild(Arrays.asList(macro("Dungeon", "/Say HELLO World"), trigger));
+
+        assertEquals(Arrays.asList(0), index.search("hello", 10));
+        assertEquals(Arrays.asList(0), index.search("HeLLo wOrLd", 10));
+        assertEquals(Arrays.asList(0), index.search("DUNGEON", 10));
+        assertEquals(Arrays.asList(1), index.search("ready CHECK", 10));
+    }
+
+    @Test
+    public void editedMacrosAreFoundByTheirNewTextOnly() {
+        final List<Macro> macros = new ArrayList<>(Arrays.asList(macro("", "/warp mine"), macro("", "/warp farm")));
+        index.rebuild(macros);
+        assertEquals(Arrays.asList(0, 1), sorted(index.search("warp", 10)));
+
+        index.update(0, macro("", "/home mine"));
+        assertEquals(Arrays.asList(1), index.search("warp", 10));
+        assertEquals(Arrays.asList(0), index.search("home", 10));
+        assertEquals(Arrays.asList(0), index.search("mine", 10));
+
+        // Clearing the commands removes the macro on the next save, and from the results right away.
+        index.update(1, macro(""));
+        assertEquals(Collections.emptyList(), index.search("farm", 10));
+        assertEquals(Collections.emptyList(), index.search("warp", 10));
+
+        index.update(2, macro("", "/warp nether"));
+        assertEquals(Arrays.asList(2), index.search("warp", 10));
+    }
+
+    @Test
+    public void rebuildingForgetsRemovedMacros() {
+        index.rebuild(Arrays.asList(macro("", "/one"), macro("", "/two"), macro("", "/three")));
+        index.rebuild(Arrays.asList(macro("", "/one")));
+
+        assertEquals(Collections.emptyList(), index.search("two", 10));
+        assertEquals(Collections.emptyList(), index.search("three", 10));
+        assertEquals(Arrays.asList(0), index.search("one", 10));
+    }
+
+    @Test
+    public void betterMatchesComeFirstAndTheLimitApplies() {
+        index.rebuild(Arrays.asList(macro("", "/tell homer hi"), macro("", "/sethome"), macro("", "/say home"),
+                macro("home", "/a"), macro("", "/x")));
+
+        // Field prefix, word prefixes with the shorter text first, substring.
+        assertEquals(Arrays.asList(3, 2, 0, 1), index.search("home", 10));
+        assertEquals(Arrays.asList(3, 2), index.search("home", 2));
+        assertEquals(Collections.emptyList(), index.search("home", 0));
+    }
+
+    @Test
+    public void indexAgreesWithScanningEveryMacro() {
+        // A small alphabet gives many shared trigrams.
+        final Random random = new Random(3);
+        final List<Macro> macros = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            macros.add(randomMacro(random));
+        }
+        index.rebuild(macros);
+
+        for (int round = 0; round < 3000; round++) {
+            if (round % 10 == 0) {
+                final int position = random.nextInt(macros.size() + 5);
+                final Macro macro = randomMacro(random);
+                while (macros.size() <= position) {
+                    macros.add(macro(""));
+                    index.update(macros.size() - 1, macros.get(macros.size() - 1));
+                }
+                macros.set(position, macro);
+                index.update(position, macro);
+            }
+            final String query = randomText(random, 1 + random.nextInt(5));
+            final List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < macros.size(); i++) {
+                if (contains(macros.get(i), query)) {
+                    expected.add(i);
+                }
+            }
+            assertEquals(query, expected, sorted(index.search(query, Integer.MAX_VALUE)));
+        }
+    }
+
+    /**
+     * Checks whether any searchable field of a macro contains a query, ignoring case.
+     *
+     * @param macro The macro.
+     * @param query The query, without surrounding whitespace.
+     *
+     * @return Whether the macro matches.
+     */
+    private static boolean contains(final Macro macro, final String query) {
+        final List<String> fields = new ArrayList<>(macro.getCommands());
+        fields.add(macro.getGroup());
+        fields.add(macro.getChatTrigger());
+        final String needle = query.toLowerCase(Locale.ROOT);
+        for (final String field : fields) {
+            if (field.toLowerCase(Locale.ROOT).contains(needle)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Creates an unbound macro with random fields.
+     *
+     * @param random The random source.
+     *
+     * @return The macro.
+     */
+    private static Macro randomMacro(final Random random) {
+        final String[] commands = new String[random.nextInt(4)];
+        for (int i = 0; i < commands.length; i++) {
+            commands[i] = randomText(random, random.nextInt(12));
+        }
+        final Macro macro = macro(random.nextBoolean() ? "" : randomText(random, 4), commands);
+        if (random.nextInt(3) == 0) {
+            macro.setChatTrigger(randomText(random, 6));
+        }
+        return macro;
+    }
+
+    /**
+     * Creates a random text of the letters a to d in either case, with spaces inside.
+     *
+     * @param random The random source.
+     * @param length The length of the text.
+     *
+     * @return The text.
+     */
+    private static String randomText(final Random random, final int length) {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            final char letter = (char) ('a' + random.nextInt(4));
+            text.append(i > 0 && i < length - 1 && random.nextInt(6) == 0 ? ' '
+                    : random.nextBoolean() ? letter : Character.toUpperCase(letter));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Returns a sorted copy of search results.
+     *
+     * @param results The results.
+     *
+     * @return The sorted results.
+     */
+    private static List<Integer> sorted(final List<Integer> results) {
+        final List<Integer> copy = new ArrayList<>(results);
+        Collections.sort(copy);
+        return copy;
+    }
+
+    /**
+     * Creates an unbound macro.
+     *
+     * @param group The group.
+     * @param commands The commands.
+     *
+     * @return The macro.
+     */
+    private static Macro macro(final String group, final String... commands) {
+        return new Macro(group, false, false, UNBOUND, 50, new ArrayList<>(Arrays.asList(commands)));
+    }
+}
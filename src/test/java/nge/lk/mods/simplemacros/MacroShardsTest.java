@@ -0,0 +1,169 @@
+package nge.lk.mods.simplemacros;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests loading and saving the group shards of {@link MacroShards}.
+ */
+public class MacroShardsTest {
+
+    /**
+     * The directory of the macro files.
+     */
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The macros of every group, in their cycle order.
+     */
+    private final List<Macro> macros = Arrays.asList(macro("", "/global"), macro("PvP", "/kit"),
+            macro("build", "/gmc"), macro("farm", "/warp farm"), macro("pvp", "/heal"));
+
+    /**
+     * The directory of the shards.
+     */
+    private File shardDirectory;
+
+    /**
+     * The macro IO manager, which uses shards.
+     */
+    private MacroIO macroIO;
+
+    /**
+     * The saver which performs the loads.
+     */
+    private MacroSaver macroSaver;
+
+    @Before
+    public void setUp() throws IOException {
+        shardDirectory = new File(folder.getRoot(), "macros");
+        macroIO = new MacroIO(new File(folder.getRoot(), "macros.dat"), true, shardDirectory, null);
+        macroSaver = new MacroSaver(macroIO);
+        macroIO.saveState(macros);
+        assertEquals(Arrays.asList("pvp", "build", "farm"), manifest());
+    }
+
+    @Test
+    public void loadingAllGroupsHappensOnTheSaverThread() throws InterruptedException {
+        final MacroShards shards = new MacroShards(macroIO, macroSaver, 4);
+        final PersistentVector<Macro> initial = PersistentVector.copyOf(shards.loadInitial());
+        assertEquals(macros.subList(0, 1), initial);
+
+        final CountDownLatch release = new CountDownLatch(1);
+        macroSaver.execute(() -> awaitQuietly(release));
+        shards.loadAll();
+        assertTrue(shards.isLoading());
+        assertSame(initial, shards.poll(initial));
+
+        release.countDown();
+        drain();
+        final PersistentVector<Macro> all = shards.poll(initial);
+        assertFalse(shards.isLoading());
+        assertEquals(Arrays.asList(macros.get(0), macros.get(1), macros.get(4), macros.get(2), macros.get(3)), all);
+    }
+
+    @Test
+    public void unreadableShardsAreKeptBySavesAndRetried() throws IOException, InterruptedException {
+        final File build = new File(shardDirectory, "groupbuild.dat");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(build))) {
+            // A binary file of a future version.
+            out.writeInt(0x534D4352);
+            out.writeInt(99);
+            out.write(new byte[64]);
+        }
+        final byte[] unreadable = Files.readAllBytes(build.toPath());
+
+        final MacroShards shards = new MacroShards(macroIO, macroSaver, 4);
+        final PersistentVector<Macro> initial = PersistentVector.copyOf(shards.loadInitial());
+        shards.loadAll();
+        drain();
+        final PersistentVector<Macro> all = shards.poll(initial);
+        assertFalse(shards.isLoading());
+        assertEquals(Arrays.asList(macros.get(0), macros.get(1), macros.get(4), macros.get(3)), all);
+
+        // Deletes the farm group in the editor and adds a macro to the unreadable group.
+        final PersistentVector<Macro> edited = PersistentVector.copyOf(Arrays.asList(all.get(0), all.get(1),
+                all.get(2), macro("build", "/gms")));
+        macroSaver.requestSave(edited);
+        drain();
+        assertEquals(Arrays.asList("pvp", "build"), manifest());
+        assertArrayEquals(unreadable, Files.readAllBytes(build.toPath()));
+        assertFalse(new File(shardDirectory, "groupfarm.dat").exists());
+        assertSame(edited, shards.evict(edited));
+        assertEquals(Arrays.asList("", "pvp", "build"), shards.getGroups());
+
+        // Once the shard is readable again, activating the group loads it.
+        BinaryMacroFormat.write(build, macros.subList(2, 3));
+        shards.activate("build");
+        drain();
+        assertEquals(Arrays.asList(macros.get(0), macros.get(1), macros.get(4), macro("build", "/gms"),
+                macros.get(2)), shards.poll(edited));
+    }
+
+    /**
+     * Waits until the saver has performed all tasks which were submitted before.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private void drain() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        macroSaver.execute(done::countDown);
+        done.await();
+    }
+
+    /**
+     * Reads the groups in the manifest.
+     *
+     * @return The groups.
+     *
+     * @throws IOException If reading fails.
+     */
+    private List<String> manifest() throws IOException {
+        return Files.readAllLines(new File(shardDirectory, "manifest.txt").toPath(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Waits for a latch, restoring the interrupt flag if interrupted.
+     *
+     * @param latch The latch.
+     */
+    private static void awaitQuietly(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Creates a macro with one command.
+     *
+     * @param group The group.
+     * @param command The command.
+     *
+     * @return The macro.
+     */
+    private static Macro macro(final String group, final String command) {
+        return new Macro(group, false, false, 30, 50, new ArrayList<>(Arrays.asList(command)));
+    }
+}
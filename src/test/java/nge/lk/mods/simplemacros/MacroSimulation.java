@@ -0,0 +1,347 @@
+package nge.lk.mods.simplemacros;
+
+import org.lwjgl.input.Keyboard;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives the {@link MacroRuntime} without a game client, for regression and soak tests.
+ *
+ * Input traces have one key event per line: the tick, the key code and "down" or "up", e.g. "20 30 down". The events
+ * of a tick are handled before the tick itself. The output schedule has one line per sent message: the tick and the
+ * message. Delays are measured in ticks, so the schedule is deterministic.
+ *
+ * The simulation is used by the tests and benchmarks. It can also be run on its own:
+ * {@code MacroSimulation <macro file> <trace file | --generate <ticks> <seed>> [expected schedule file]}. Without an
+ * expected schedule, the schedule is printed. Otherwise it is compared line by line and the first difference is
+ * raised as an exception.
+ */
+public final class MacroSimulation implements InputSource {
+
+    /**
+     * The length of a tick in nanoseconds.
+     */
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    /**
+     * The runtime under simulation.
+     */
+    private final MacroRuntime runtime;
+
+    /**
+     * The held keys.
+     */
+    private final boolean[] held = new boolean[KeyState.KEY_COUNT];
+
+    /**
+     * The sent messages, each prefixed by its tick.
+     */
+    private final List<String> schedule = new ArrayList<>();
+
+    /**
+     * Whether sent messages are recorded in the schedule.
+     */
+    private final boolean recording;
+
+    /**
+     * The key of the current event.
+     */
+    private int eventKey;
+
+    /**
+     * Whether the current event is a key press.
+     */
+    private boolean eventKeyState;
+
+    /**
+     * The number of sent messages.
+     */
+    private long sent;
+
+    /**
+     * Constructor.
+     *
+     * @param macros The macros.
+     * @param recording Whether sent messages are recorded in the schedule, which is not needed for soak tests.
+     */
+    public MacroSimulation(final List<Macro> macros, final boolean recording) {
+        this.recording = recording;
+        // Without a rate limit, so the schedule only depends on the macros and the input.
+        final ChatPacer chatPacer = new ChatPacer(this::send, 0, 1, Integer.MAX_VALUE);
+        runtime = new MacroRuntime(this, this::nanoTime, chatPacer, null, MacroSimulation::appendVariable);
+        runtime.setMacros(PersistentVector.copyOf(macros));
+        runtime.getMacroIndex().rebuild(macros);
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Usage: MacroSimulation <macro file> "
+                    + "<trace file | --generate <ticks> <seed>> [expected schedule file]");
+        }
+        final List<Macro> macros = new MacroIO(new File(args[0]), false, null, null).readState();
+        final List<long[]> trace;
+        int next = 2;
+        if ("--generate".equals(args[1])) {
+            trace = generateTrace(macros, Long.parseLong(args[2]), Long.parseLong(args[3]));
+            next = 4;
+        } else {
+            trace = parseTrace(Files.readAllLines(new File(args[1]).toPath(), StandardCharsets.UTF_8));
+        }
+        final File expected = args.length > next ? new File(args[next]) : null;
+
+        final MacroSimulation simulation = new MacroSimulation(macros, true);
+        final long start = System.nanoTime();
+        final long ticks = simulation.run(trace, getEndTick(trace));
+        final long elapsed = Math.max(1, System.nanoTime() - start);
+        System.err.printf("Simulated %d ticks with %d messages in %d ms (%.0f ticks/s)%n", ticks,
+                simulation.getSent(), TimeUnit.NANOSECONDS.toMillis(elapsed), ticks * 1e9 / elapsed);
+
+        if (expected == null) {
+            simulation.getSchedule().forEach(System.out::println);
+            return;
+        }
+        final String difference = simulation.findDifference(
+                Files.readAllLines(expected.toPath(), StandardCharsets.UTF_8));
+        if (difference != null) {
+            throw new IllegalStateException(difference);
+        }
+        System.err.println("Schedule matches (" + simulation.getSchedule().size() + " messages)");
+    }
+
+    /**
+     * Returns the tick up to which a trace is simulated, which leaves time for the commands of the last events.
+     *
+     * @param trace The key events, ordered by tick.
+     *
+     * @return The number of ticks to simulate.
+     */
+    public static long getEndTick(final List<long[]> trace) {
+        return trace.isEmpty() ? 0 : trace.get(trace.size() - 1)[0] + 200;
+    }
+
+    /**
+     * Parses an input trace.
+     *
+     * @param lines The lines of the trace. Empty lines and lines starting with '#' are skipped.
+     *
+     * @return The key events as tick, key and 1 for presses or 0 for releases, ordered by tick.
+     *
+     * @throws IOException If a line is malformed.
+     */
+    public static List<long[]> parseTrace(final List<String> lines) throws IOException {
+        final List<long[]> trace = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            final String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            final String[] fields = line.split("\\s+");
+            try {
+                if (fields.length != 3 || !"down".equals(fields[2]) && !"up".equals(fields[2])) {
+                    throw new NumberFormatException(line);
+                }
+                trace.add(new long[]{Long.parseLong(fields[0]), Integer.parseInt(fields[1]),
+                        "down".equals(fields[2]) ? 1 : 0});
+            } catch (final NumberFormatException e) {
+                throw new IOException("Malformed trace on line " + (i + 1) + ": " + line, e);
+            }
+        }
+        trace.sort((a, b) -> Long.compare(a[0], b[0]));
+        return trace;
+    }
+
+    /**
+     * Generates a random input trace which presses the bindings of the given macros.
+     *
+     * @param macros The macros.
+     * @param ticks The number of ticks covered by the trace.
+     * @param seed The random seed.
+     *
+     * @return The key events as tick, key and 1 for presses or 0 for releases, ordered by tick.
+     */
+    public static List<long[]> generateTrace(final List<Macro> macros, final long ticks, final long seed) {
+        final Random random = new Random(seed);
+        final List<long[]> trace = new ArrayList<>();
+        for (long tick = 1 + random.nextInt(20); tick < ticks && !macros.isEmpty(); tick += 1 + random.nextInt(40)) {
+            final Macro macro = macros.get(random.nextInt(macros.size()));
+            final long release = tick + 1 + random.nextInt(10);
+            final List<Integer> keys = new ArrayList<>();
+            if (macro.isCtrlModifier()) {
+                keys.add(Keyboard.KEY_LCONTROL);
+            }
+            if (macro.isShiftModifier()) {
+                keys.add(Keyboard.KEY_LSHIFT);
+            }
+            for (final int key : macro.getChord()) {
+                keys.add(key);
+            }
+            for (final int key : macro.getSequence()) {
+                trace.add(new long[]{tick, key, 1});
+                trace.add(new long[]{tick, key, 0});
+            }
+            keys.add(macro.getMacroKey());
+            for (final int key : keys) {
+                trace.add(new long[]{tick, key, 1});
+            }
+            for (int i = keys.size() - 1; i >= 0; i--) {
+                trace.add(new long[]{release, keys.get(i), 0});
+            }
+        }
+        // Presses stay in order within a tick, since the sort is stable.
+        trace.sort((a, b) -> Long.compare(a[0], b[0]));
+        return trace;
+    }
+
+    /**
+     * Runs a trace and then simulates further ticks.
+     *
+     * @param trace The key events as tick, key and 1 for presses or 0 for releases, ordered by tick.
+     * @param ticks The total number of ticks to simulate.
+     *
+     * @return The number of simulated ticks.
+     */
+    public long run(final List<long[]> trace, final long ticks) {
+        int event = 0;
+        while (runtime.getTickCounter() < ticks) {
+            final long tick = runtime.getTickCounter() + 1;
+            for (; event < trace.size() && trace.get(event)[0] <= tick; event++) {
+                final long[] keyEvent = trace.get(event);
+                keyEvent((int) keyEvent[1], keyEvent[2] != 0);
+            }
+            runtime.onTick();
+        }
+        return runtime.getTickCounter();
+    }
+
+    /**
+     * Handles a key event.
+     *
+     * @param key The key.
+     * @param down Whether the key was pressed, {@code false} if it was released.
+     */
+    public void keyEvent(final int key, final boolean down) {
+        if (key >= 0 && key < held.length) {
+            held[key] = down;
+        }
+        eventKey = key;
+        eventKeyState = down;
+        runtime.onKeyEvent();
+    }
+
+    /**
+     * Simulates one tick.
+     */
+    public void tick() {
+        runtime.onTick();
+    }
+
+    /**
+     * Returns the runtime under simulation.
+     *
+     * @return The runtime.
+     */
+    public MacroRuntime getRuntime() {
+        return runtime;
+    }
+
+    /**
+     * Returns the sent messages, each prefixed by its tick.
+     *
+     * @return The schedule.
+     */
+    public List<String> getSchedule() {
+        return schedule;
+    }
+
+    /**
+     * Compares the schedule with an expected one, line by line.
+     *
+     * @param expected The expected schedule.
+     *
+     * @return A description of the first difference, or {@code null} if the schedules are equal.
+     */
+    public String findDifference(final List<String> expected) {
+        for (int i = 0; i < Math.max(expected.size(), schedule.size()); i++) {
+            final String want = i < expected.size() ? expected.get(i) : "<end>";
+            final String got = i < schedule.size() ? schedule.get(i) : "<end>";
+            if (!want.equals(got)) {
+                return "Schedule differs at line " + (i + 1) + ": expected '" + want + "', got '" + got + "'";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of sent messages.
+     *
+     * @return The number of sent messages.
+     */
+    public long getSent() {
+        return sent;
+    }
+
+    @Override
+    public boolean isKeyDown(final int key) {
+        return key >= 0 && key < held.length && held[key];
+    }
+
+    @Override
+    public int getEventKey() {
+        return eventKey;
+    }
+
+    @Override
+    public boolean getEventKeyState() {
+        return eventKeyState;
+    }
+
+    /**
+     * Returns the simulated time, which advances by 50 ms per tick.
+     *
+     * @return The time in nanoseconds.
+     */
+    private long nanoTime() {
+        return runtime.getTickCounter() * TICK_NANOS;
+    }
+
+    /**
+     * Receives a sent message.
+     *
+     * @param message The message.
+     */
+    private void send(final String message) {
+        sent++;
+        if (recording) {
+            schedule.add(runtime.getTickCounter() + " " + message);
+        }
+    }
+
+    /**
+     * Provides fixed values for the variables in commands.
+     *
+     * @param variable The variable.
+     * @param out The buffer to which the value is appended.
+     */
+    private static void appendVariable(final CommandTemplate.Variable variable, final StringBuilder out) {
+        switch (variable) {
+            case PLAYER:
+                out.append("Player");
+                break;
+            case HELD:
+                out.append("Stone");
+                break;
+            case CLIPBOARD:
+                break;
+            default:
+                out.append(0);
+                break;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package nge.lk.mods.simplemacros;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Replays input traces through the {@link MacroRuntime} with {@link MacroSimulation} and checks the sent messages.
+ */
+public class MacroSimulationTest {
+
+    @Test
+    public void checkedInTraceProducesTheExpectedSchedule() throws IOException {
+        final List<long[]> trace = MacroSimulation.parseTrace(readResource("trace.txt"));
+        final MacroSimulation simulation = new MacroSimulation(readMacros(), true);
+        simulation.run(trace, MacroSimulation.getEndTick(trace));
+
+        assertNull(simulation.findDifference(readResource("schedule.txt")));
+    }
+
+    @Test
+    public void generatedTracesAreReplayedDeterministically() throws IOException {
+        final List<long[]> trace = MacroSimulation.generateTrace(readMacros(), 20_000, 7);
+        final MacroSimulation first = new MacroSimulation(readMacros(), true);
+        first.run(trace, MacroSimulation.getEndTick(trace));
+        final MacroSimulation second = new MacroSimulation(readMacros(), true);
+        second.run(trace, MacroSimulation.getEndTick(trace));
+
+        assertFalse(first.getSchedule().isEmpty());
+        assertEquals(first.getSchedule(), second.getSchedule());
+    }
+
+    /**
+     * Reads the macros of the checked-in simulation, freshly for each simulation.
+     *
+     * @return The macros.
+     *
+     * @throws IOException If the resource could not be read.
+     */
+    private static List<Macro> readMacros() throws IOException {
+        final List<String> lines = readResource("macros.txt");
+        final ChunkedParser parser = new ChunkedParser(false);
+        for (int i = 0; i < lines.size(); i++) {
+            parser.accept(lines.get(i), i + 1);
+        }
+        final List<Macro> macros = parser.finish();
+        assertEquals(lines.size(), macros.size());
+        return macros;
+    }
+
+    /**
+     * Reads a resource of the checked-in simulation.
+     *
+     * @param name The name of the resource.
+     *
+     * @return The lines of the resource.
+     *
+     * @throws IOException If the resource could not be read.
+     */
+    private static List<String> readResource(final String name) throws IOException {
+        final InputStream in = MacroSimulationTest.class.getResourceAsStream("/simulation/" + name);
+        if (in == null) {
+            throw new IOException("Missing test resource " + name);
+        }
+        final List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,136 @@
+package nge.lk.mods.simplemacros;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the text format of macros in {@link MacroTextCodec}.
+ */
+public class MacroTextCodecTest {
+
+    @Test
+    public void plainMacrosAreWrittenWithoutOptionalFields() throws IOException {
+        final Macro macro = new Macro("pvp", false, true, 30, 100, new ArrayList<>(Arrays.asList("/a", "/b {player}")));
+
+        final String line = encode(macro);
+        assertEquals("pvp§false§true§30§100§/a\t/b {player}", line);
+        assertEquals(macro, MacroTextCodec.decode(line, 1));
+    }
+
+    @Test
+    public void eachOptionalFieldRoundTrips() throws IOException {
+        final Macro loop = macro();
+        loop.setMode(MacroMode.TOGGLE_LOOP);
+        assertRoundTrip(loop, "§false§false§30§50§/a§TOGGLE_LOOP");
+
+        final Macro chord = macro();
+        chord.setChord(new int[]{56, 34});
+        assertRoundTrip(chord, "§false§false§30§50§/a§ONCE§56,34§");
+
+        final Macro sequence = macro();
+        sequence.setSequence(new int[]{36});
+        assertRoundTrip(sequence, "§false§false§30§50§/a§ONCE§§36");
+
+        final Macro chat = macro();
+        chat.setChatTrigger("ready check");
+        assertRoundTrip(chat, "§false§false§30§50§/a§ONCE§§§ready check");
+
+        final Macro all = macro();
+        all.setMode(MacroMode.REPEAT_WHILE_HELD);
+        all.setChord(new int[]{56});
+        all.setSequence(new int[]{36, 37, 36});
+        all.setChatTrigger("go");
+        assertRoundTrip(all, "§false§false§30§50§/a§REPEAT_WHILE_HELD§56§36,37,36§go");
+    }
+
+    @Test
+    public void missingTrailingFieldsHaveTheirDefaults() throws IOException {
+        final Macro plain = MacroTextCodec.decode("§true§false§30§50§/a\t\t", 1);
+        assertTrue(plain.isShiftModifier());
+        assertEquals(Arrays.asList("/a"), plain.getCommands());
+        assertEquals(MacroMode.ONCE, plain.getMode());
+
+        final Macro chordOnly = MacroTextCodec.decode("§false§false§30§50§/a§ONCE§56", 1);
+        assertArrayEquals(new int[]{56}, chordOnly.getChord());
+        assertArrayEquals(KeyState.NO_KEYS, chordOnly.getSequence());
+        assertEquals("", chordOnly.getChatTrigger());
+    }
+
+    @Test
+    public void unknownModesFallBackToTheDefault() throws IOException {
+        final Macro macro = MacroTextCodec.decode("§false§false§30§50§/a§FUTURE_MODE§56§§go", 1);
+
+        assertEquals(MacroMode.ONCE, macro.getMode());
+        assertArrayEquals(new int[]{56}, macro.getChord());
+        assertEquals("go", macro.getChatTrigger());
+    }
+
+    @Test
+    public void malformedLinesAreRejectedWithTheirLineNumber() {
+        assertMalformed("§false§false§30§/a", "line 7: expected 6 fields, found 5");
+        assertMalformed("§false§false§x§50§/a", "line 7: invalid key 'x'");
+        assertMalformed("§false§false§30§99999999999§/a", "line 7: delay out of range");
+        assertMalformed("§false§false§30§50§/a§ONCE§56,,34§", "line 7: empty chord key");
+        assertMalformed("§false§false§30§50§/a§ONCE§§3a", "line 7: invalid sequence key '3a'");
+    }
+
+    /**
+     * Checks that a macro is encoded as the given line and decoded to an equal macro.
+     *
+     * @param macro The macro.
+     * @param expected The expected line.
+     *
+     * @throws IOException If the line can not be decoded.
+     */
+    private static void assertRoundTrip(final Macro macro, final String expected) throws IOException {
+        assertEquals(expected, encode(macro));
+        final Macro decoded = MacroTextCodec.decode(expected, 1);
+        assertEquals(macro, decoded);
+        assertEquals(expected, encode(decoded));
+    }
+
+    /**
+     * Checks that decoding a line fails.
+     *
+     * @param line The line, which is decoded as line 7.
+     * @param message The expected end of the error message.
+     */
+    private static void assertMalformed(final String line, final String message) {
+        try {
+            MacroTextCodec.decode(line, 7);
+            fail("Decoded " + line);
+        } catch (final IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith(message));
+        }
+    }
+
+    /**
+     * Encodes a macro.
+     *
+     * @param macro The macro.
+     *
+     * @return The line.
+     */
+    private static String encode(final Macro macro) {
+        final StringBuilder line = new StringBuilder();
+        MacroTextCodec.encode(macro, line);
+        return line.toString();
+    }
+
+    /**
+     * Creates a plain macro on key 30 with a delay of 50 ms and one command.
+     *
+     * @return The macro.
+     */
+    private static Macro macro() {
+        return new Macro("", false, false, 30, 50, new ArrayList<>(Arrays.asList("/a")));
+    }
+}
@@ -0,0 +1,89 @@
+package nge.lk.mods.simplemacros;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests finding likely mistakes in macros with {@link MacroValidator}.
+ */
+public class MacroValidatorTest {
+
+    @Test
+    public void bindingsAndChatTriggersConflictIndependently() {
+        final Macro bound = macro("pvp", 30);
+        bound.setChatTrigger("Ready");
+        final Macro sameTrigger = macro("PvP", 1);
+        sameTrigger.setChatTrigger("ready");
+        final Macro sameBinding = macro("pvp", 30);
+
+        assertEquals(Arrays.asList("Macro 2 has the same chat trigger as macro 1 in group 'PvP'",
+                "Macro 3 has the same key binding as macro 1 in group 'pvp'"),
+                MacroValidator.validate(Arrays.asList(bound, sameTrigger, sameBinding)));
+    }
+
+    @Test
+    public void chordsConflictInAnyOrder() {
+        final Macro first = macro("", 2);
+        first.setChord(new int[]{56, 34});
+        final Macro second = macro("", 2);
+        second.setChord(new int[]{34, 56});
+
+        assertEquals(Collections.singletonList("Macro 2 has the same key binding as macro 1 in group ''"),
+                MacroValidator.validate(Arrays.asList(first, second)));
+        // The chord of the macro is left as it is.
+        assertEquals(Arrays.toString(new int[]{56, 34}), Arrays.toString(first.getChord()));
+    }
+
+    @Test
+    public void differentTriggersDoNotConflict() {
+        final Macro sequence = macro("", 2);
+        sequence.setSequence(new int[]{34});
+        final Macro reversed = macro("", 34);
+        reversed.setSequence(new int[]{2});
+        final Macro otherGroup = macro("build", 2);
+        final Macro shifted = new Macro("", true, false, 2, 50, commands("/a"));
+        final Macro unbound = macro("", 1);
+
+        assertEquals(Collections.emptyList(), MacroValidator.validate(Arrays.asList(macro("", 2), sequence, reversed,
+                otherGroup, shifted, unbound, macro("", 1))));
+    }
+
+    @Test
+    public void longCommandsAreReported() {
+        final char[] text = new char[MacroValidator.MAX_COMMAND_LENGTH + 1];
+        Arrays.fill(text, 'a');
+        final Macro macro = new Macro("", false, false, 1, 50, commands("/a", new String(text)));
+
+        assertEquals(Collections.singletonList("Command 2 of macro 1 is 257 characters long, servers accept at most "
+                + "256"), MacroValidator.validate(Collections.singletonList(macro)));
+    }
+
+    /**
+     * Creates a macro with one command.
+     *
+     * @param group The group.
+     * @param key The key of the macro.
+     *
+     * @return The macro.
+     */
+    private static Macro macro(final String group, final int key) {
+        return new Macro(group, false, false, key, 50, commands("/say hi"));
+    }
+
+    /**
+     * Creates a modifiable list of commands.
+     *
+     * @param commands The commands.
+     *
+     * @return The list.
+     */
+    private static List<String> commands(final String... commands) {
+        return new ArrayList<>(Arrays.asList(commands));
+    }
+}
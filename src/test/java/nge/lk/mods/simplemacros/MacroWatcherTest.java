@@ -0,0 +1,186 @@
+package nge.lk.mods.simplemacros;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests merging reloaded macros with {@link MacroWatcher#merge(List, List, MacroIndex)} into a running
+ * {@link MacroRuntime}.
+ */
+public class MacroWatcherTest {
+
+    /**
+     * The key of the looping macro.
+     */
+    private static final int LOOP_KEY = 31;
+
+    /**
+     * The key of the macro which repeats while its key is held.
+     */
+    private static final int HELD_KEY = 32;
+
+    /**
+     * The key of the macro which runs once.
+     */
+    private static final int ONCE_KEY = 30;
+
+    /**
+     * The simulation of the runtime.
+     */
+    private final MacroSimulation simulation = new MacroSimulation(Arrays.asList(
+            macro(ONCE_KEY, MacroMode.ONCE, "/once"), macro(LOOP_KEY, MacroMode.TOGGLE_LOOP, "/loop"),
+            macro(HELD_KEY, MacroMode.REPEAT_WHILE_HELD, "/held")), true);
+
+    @Test
+    public void unchangedMacrosKeepTheirInstances() {
+        final List<Macro> macros = new ArrayList<>(simulation.getRuntime().getMacros());
+        final List<Macro> loaded = new ArrayList<>(macros);
+
+        assertEquals(0, MacroWatcher.merge(macros, Arrays.asList(macro(ONCE_KEY, MacroMode.ONCE, "/once"),
+                macro(LOOP_KEY, MacroMode.TOGGLE_LOOP, "/loop"),
+                macro(HELD_KEY, MacroMode.REPEAT_WHILE_HELD, "/held")), simulation.getRuntime().getMacroIndex()));
+        for (int i = 0; i < loaded.size(); i++) {
+            assertSame(loaded.get(i), macros.get(i));
+        }
+    }
+
+    @Test
+    public void changedLoopKeepsRunningAndCanBeStopped() {
+        press(LOOP_KEY);
+        ticks(12);
+        assertEquals(1, reload(macro(ONCE_KEY, MacroMode.ONCE, "/once"),
+                macro(LOOP_KEY, MacroMode.TOGGLE_LOOP, "/changed"),
+                macro(HELD_KEY, MacroMode.REPEAT_WHILE_HELD, "/held")));
+        ticks(10);
+        // The running loop finishes with its old commands, and the reloaded macro toggles it off.
+        press(LOOP_KEY);
+        ticks(20);
+
+        assertEquals(Arrays.asList("1 /loop", "6 /loop", "11 /loop", "16 /loop", "21 /loop"),
+                simulation.getSchedule());
+        assertEquals(5, findMacro(LOOP_KEY).getRunCount());
+    }
+
+    @Test
+    public void changedMacrosAreReplacedAndKeepTheirStatistics() {
+        final Macro loaded = new Macro("pvp", false, false, ONCE_KEY, 250, new ArrayList<>(Arrays.asList("/a")));
+        loaded.setRunCount(4);
+        final Macro reloaded = new Macro("PvP", false, false, ONCE_KEY, 100, new ArrayList<>(Arrays.asList("/b")));
+        reloaded.setMode(MacroMode.TOGGLE_LOOP);
+        final List<Macro> macros = new ArrayList<>(Arrays.asList(loaded));
+
+        assertEquals(1, MacroWatcher.merge(macros, Arrays.asList(reloaded), new MacroIndex()));
+        // Every saved field comes from the file, e.g. also the case of the group.
+        assertSame(reloaded, macros.get(0));
+        assertEquals("PvP", macros.get(0).getGroup());
+        assertEquals(4, macros.get(0).getRunCount());
+    }
+
+    @Test
+    public void changedHeldMacroStopsWhenItsKeyIsReleased() {
+        simulation.keyEvent(HELD_KEY, true);
+        ticks(7);
+        reload(macro(ONCE_KEY, MacroMode.ONCE, "/once"), macro(LOOP_KEY, MacroMode.TOGGLE_LOOP, "/loop"),
+                macro(HELD_KEY, MacroMode.REPEAT_WHILE_HELD, "/changed"));
+        ticks(5);
+        simulation.keyEvent(HELD_KEY, false);
+        ticks(20);
+
+        assertEquals(Arrays.asList("1 /held", "6 /held", "11 /held"), simulation.getSchedule());
+    }
+
+    @Test
+    public void changedModeStopsTheRunningExecution() {
+        press(LOOP_KEY);
+        ticks(7);
+        reload(macro(ONCE_KEY, MacroMode.ONCE, "/once"), macro(LOOP_KEY, MacroMode.ONCE, "/loop"),
+                macro(HELD_KEY, MacroMode.REPEAT_WHILE_HELD, "/held"));
+        ticks(20);
+
+        assertEquals(Arrays.asList("1 /loop", "6 /loop"), simulation.getSchedule());
+    }
+
+    @Test
+    public void removedMacrosAreStopped() {
+        press(LOOP_KEY);
+        ticks(7);
+        assertEquals(2, reload(macro(ONCE_KEY, MacroMode.ONCE, "/once")));
+        ticks(20);
+
+        assertEquals(Arrays.asList("1 /loop", "6 /loop"), simulation.getSchedule());
+    }
+
+    /**
+     * Merges reloaded macros into the runtime, like the mod does.
+     *
+     * @param reloaded The reloaded macros.
+     *
+     * @return The number of changes.
+     */
+    private int reload(final Macro... reloaded) {
+        final MacroRuntime runtime = simulation.getRuntime();
+        final List<Macro> macros = new ArrayList<>(runtime.getMacros());
+        final int changes = MacroWatcher.merge(macros, Arrays.asList(reloaded), runtime.getMacroIndex());
+        runtime.setMacros(PersistentVector.copyOf(macros));
+        runtime.getMacroIndex().rebuild(runtime.getMacros());
+        return changes;
+    }
+
+    /**
+     * Finds a loaded macro.
+     *
+     * @param key The key of the macro.
+     *
+     * @return The macro.
+     */
+    private Macro findMacro(final int key) {
+        for (final Macro macro : simulation.getRuntime().getMacros()) {
+            if (macro.getMacroKey() == key) {
+                return macro;
+            }
+        }
+        throw new AssertionError("No macro on key " + key);
+    }
+
+    /**
+     * Presses and releases a key.
+     *
+     * @param key The key.
+     */
+    private void press(final int key) {
+        simulation.keyEvent(key, true);
+        simulation.keyEvent(key, false);
+    }
+
+    /**
+     * Simulates ticks.
+     *
+     * @param count The number of ticks.
+     */
+    private void ticks(final int count) {
+        for (int i = 0; i < count; i++) {
+            simulation.tick();
+        }
+    }
+
+    /**
+     * Creates a macro with a delay of 250 ms, i.e. 5 ticks.
+     *
+     * @param key The key of the macro.
+     * @param mode The mode of the macro.
+     * @param command The command of the macro.
+     *
+     * @return The macro.
+     */
+    private static Macro macro(final int key, final MacroMode mode, final String command) {
+        final Macro macro = new Macro("", false, false, key, 250, new ArrayList<>(Arrays.asList(command)));
+        macro.setMode(mode);
+        return macro;
+    }
+}
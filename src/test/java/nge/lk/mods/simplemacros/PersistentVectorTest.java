@@ -0,0 +1,133 @@
+package nge.lk.mods.simplemacros;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests the persistent vector which holds the macro library.
+ */
+public class PersistentVectorTest {
+
+    /**
+     * Sizes around the boundaries of the tail (32), the root (32 + 32 * 32) and the next level of the trie.
+     */
+    private static final int[] SIZES = {0, 1, 31, 32, 33, 63, 64, 65, 1055, 1056, 1057, 1088, 1089, 32799, 32800,
+            32801, 33000};
+
+    @Test
+    public void appendingKeepsAllElementsAndEarlierVersions() {
+        final List<PersistentVector<Integer>> versions = new ArrayList<>();
+        PersistentVector<Integer> vector = PersistentVector.empty();
+        for (int i = 0; i <= SIZES[SIZES.length - 1]; i++) {
+            if (Arrays.binarySearch(SIZES, i) >= 0) {
+                versions.add(vector);
+            }
+            vector = vector.plus(i);
+        }
+
+        for (int v = 0; v < versions.size(); v++) {
+            assertEquals(SIZES[v], versions.get(v).size());
+            assertElements(versions.get(v), SIZES[v]);
+        }
+    }
+
+    @Test
+    public void copyOfBuildsTheSameVectorAsAppending() {
+        for (final int size : SIZES) {
+            final PersistentVector<Integer> copy = PersistentVector.copyOf(range(size));
+            assertElements(copy, size);
+
+            // Appending to a bulk-built trie has to find the same structure as appending from scratch.
+            final PersistentVector<Integer> grown = copy.plusAll(Arrays.asList(size, size + 1, size + 2));
+            assertElements(grown, size + 3);
+        }
+    }
+
+    @Test
+    public void replacingAnElementOnlyChangesTheNewVersion() {
+        for (final int size : SIZES) {
+            if (size == 0) {
+                continue;
+            }
+            final PersistentVector<Integer> vector = PersistentVector.copyOf(range(size));
+            // The first element, elements in the trie and in the tail, and the last element.
+            for (final int index : new int[]{0, size / 2, Math.max(0, size - 33), Math.max(0, size - 32), size - 1}) {
+                final PersistentVector<Integer> changed = vector.with(index, -1);
+                assertEquals(size, changed.size());
+                assertEquals(Integer.valueOf(-1), changed.get(index));
+                for (int i = 0; i < size; i++) {
+                    if (i != index) {
+                        assertEquals(Integer.valueOf(i), changed.get(i));
+                    }
+                }
+                assertElements(vector, size);
+            }
+        }
+    }
+
+    @Test
+    public void replacingAfterAppendingKeepsBothVersions() {
+        PersistentVector<Integer> vector = PersistentVector.empty();
+        for (int i = 0; i < 1057; i++) {
+            vector = vector.plus(i);
+        }
+        final PersistentVector<Integer> changed = vector.with(1024, -1).with(1056, -2).plus(1057);
+
+        assertEquals(1058, changed.size());
+        assertEquals(Integer.valueOf(-1), changed.get(1024));
+        assertEquals(Integer.valueOf(-2), changed.get(1056));
+        assertEquals(Integer.valueOf(1057), changed.get(1057));
+        assertElements(vector, 1057);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void replacingPastTheEndFails() {
+        PersistentVector.copyOf(range(40)).with(40, -1);
+    }
+
+    @Test
+    public void copyOfAVectorReturnsTheVector() {
+        final PersistentVector<Integer> vector = PersistentVector.copyOf(range(100));
+        assertSame(vector, PersistentVector.copyOf(vector));
+        assertEquals(range(100), vector);
+    }
+
+    /**
+     * Checks that a vector holds the numbers from 0 to its size, by index and by iteration.
+     *
+     * @param vector The vector.
+     * @param size The expected size.
+     */
+    private static void assertElements(final PersistentVector<Integer> vector, final int size) {
+        assertEquals(size, vector.size());
+        for (int i = 0; i < size; i++) {
+            assertEquals(Integer.valueOf(i), vector.get(i));
+        }
+        int next = 0;
+        for (final Integer element : vector) {
+            assertEquals(Integer.valueOf(next++), element);
+        }
+        assertEquals(size, next);
+    }
+
+    /**
+     * Returns the numbers from 0 to a size.
+     *
+     * @param size The size.
+     *
+     * @return The numbers.
+     */
+    private static List<Integer> range(final int size) {
+        final List<Integer> numbers = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            numbers.add(i);
+        }
+        return numbers;
+    }
+}
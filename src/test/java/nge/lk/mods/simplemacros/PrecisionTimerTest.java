@@ -0,0 +1,207 @@
+package nge.lk.mods.simplemacros;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests running tasks at wall-clock deadlines with {@link PrecisionTimer}.
+ */
+public class PrecisionTimerTest {
+
+    /**
+     * The time in milliseconds after which waiting for due tasks fails.
+     */
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    /**
+     * The timer under test.
+     */
+    private final PrecisionTimer timer = new PrecisionTimer();
+
+    /**
+     * The tasks which ran, in their order.
+     */
+    private final List<Probe> ran = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void dueTasksRunInTheOrderOfTheirDeadlines() throws InterruptedException {
+        final long now = System.nanoTime();
+        final Probe third = schedule("third", now + millis(60));
+        final Probe first = schedule("first", now + millis(20));
+        final Probe second = schedule("second", now + millis(40));
+
+        drainUntil(3);
+        assertEquals(Arrays.asList(first, second, third), ran);
+    }
+
+    @Test
+    public void dueTasksOnlyRunWhenTheClientThreadDrains() throws InterruptedException {
+        final Probe probe = schedule("probe", System.nanoTime() + millis(5));
+
+        Thread.sleep(50);
+        assertEquals(0, ran.size());
+        timer.drain();
+        assertEquals(Arrays.asList(probe), ran);
+        assertSame(Thread.currentThread(), probe.thread);
+    }
+
+    @Test
+    public void tasksDoNotRunBeforeTheirDeadline() throws InterruptedException {
+        final long deadline = System.nanoTime() + millis(100);
+        final Probe probe = schedule("probe", deadline);
+
+        timer.drain();
+        assertEquals(0, ran.size());
+        drainUntil(1);
+        assertTrue(probe.ranAt >= deadline);
+    }
+
+    @Test
+    public void anEarlierTaskWakesTheTimer() throws InterruptedException {
+        final long now = System.nanoTime();
+        schedule("late", now + millis(60_000));
+        final Probe early = schedule("early", now + millis(10));
+
+        drainUntil(1);
+        assertEquals(Arrays.asList(early), ran);
+    }
+
+    @Test
+    public void tasksScheduledFromManyThreadsRunOnceEach() throws InterruptedException {
+        final int threads = 4;
+        final int perThread = 250;
+        final long start = System.nanoTime();
+        final CountDownLatch scheduled = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final Random random = new Random(t);
+            new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    schedule(null, start + millis(random.nextInt(50)));
+                }
+                scheduled.countDown();
+            }).start();
+        }
+        assertTrue(scheduled.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        drainUntil(threads * perThread);
+        Thread.sleep(20);
+        timer.drain();
+        assertEquals(threads * perThread, ran.size());
+        for (final Probe probe : ran) {
+            assertTrue(probe.ranAt >= probe.deadline);
+            assertEquals(1, probe.runs);
+        }
+    }
+
+    /**
+     * Drains the timer until a number of tasks ran.
+     *
+     * @param count The number of tasks.
+     *
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    private void drainUntil(final int count) throws InterruptedException {
+        final long end = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (ran.size() < count) {
+            assertTrue("Only " + ran.size() + " of " + count + " tasks ran", System.currentTimeMillis() < end);
+            Thread.sleep(1);
+            timer.drain();
+        }
+    }
+
+    /**
+     * Schedules a probe.
+     *
+     * @param name The name of the probe.
+     * @param deadline The deadline as returned by {@link System#nanoTime()}.
+     *
+     * @return The probe.
+     */
+    private Probe schedule(final String name, final long deadline) {
+        final Probe probe = new Probe(name, deadline);
+        timer.schedule(probe);
+        return probe;
+    }
+
+    /**
+     * Converts milliseconds to nanoseconds.
+     *
+     * @param millis The milliseconds.
+     *
+     * @return The nanoseconds.
+     */
+    private static long millis(final long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * A task which records when and on which thread it ran.
+     */
+    private class Probe implements PrecisionTimer.Timed {
+
+        /**
+         * The name for assertion messages.
+         */
+        private final String name;
+
+        /**
+         * The deadline.
+         */
+        private final long deadline;
+
+        /**
+         * The time at which the task ran.
+         */
+        private long ranAt;
+
+        /**
+         * The thread on which the task ran.
+         */
+        private Thread thread;
+
+        /**
+         * The number of runs.
+         */
+        private int runs;
+
+        /**
+         * Constructor.
+         *
+         * @param name The name for assertion messages.
+         * @param deadline The deadline.
+         */
+        private Probe(final String name, final long deadline) {
+            this.name = name;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public long getDeadline() {
+            return deadline;
+        }
+
+        @Override
+        public void run() {
+            ranAt = System.nanoTime();
+            thread = Thread.currentThread();
+            runs++;
+            ran.add(this);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
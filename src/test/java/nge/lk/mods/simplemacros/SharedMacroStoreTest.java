@@ -0,0 +1,182 @@
+package nge.lk.mods.simplemacros;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests sharing macros between clients through a {@link SharedMacroStore}. Each client is simulated by its own store
+ * on the same file.
+ */
+public class SharedMacroStoreTest {
+
+    /**
+     * The offset of the sequence in the file.
+     */
+    private static final int SEQUENCE_OFFSET = 8;
+
+    /**
+     * The offset of the data in the file.
+     */
+    private static final int DATA_OFFSET = 64;
+
+    /**
+     * The directory of the shared file.
+     */
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesAreTakenByOtherClientsOnce() throws IOException {
+        final File file = folder.newFile("macros.shm");
+        final SharedMacroStore writer = new SharedMacroStore(file);
+        final SharedMacroStore reader = new SharedMacroStore(file);
+        assertNull(reader.read());
+
+        final List<Macro> macros = macros(3);
+        writer.write(macros);
+        assertNull(writer.poll());
+        assertEquals(macros, reader.poll());
+        assertNull(reader.poll());
+        assertEquals(macros, new SharedMacroStore(file).read());
+    }
+
+    @Test
+    public void dataWhichIsBeingWrittenIsNotTaken() throws IOException {
+        final File file = folder.newFile("macros.shm");
+        final SharedMacroStore writer = new SharedMacroStore(file);
+        final SharedMacroStore reader = new SharedMacroStore(file);
+        final List<Macro> macros = macros(3);
+        writer.write(macros);
+
+        // An odd sequence marks a write in progress, or a writer which crashed.
+        final long sequence = readSequence(file);
+        writeSequence(file, sequence + 1);
+        assertNull(reader.poll());
+        assertNull(reader.read());
+
+        writeSequence(file, sequence + 2);
+        assertEquals(macros, reader.poll());
+    }
+
+    @Test
+    public void writesRepairTheSequenceOfACrashedWriter() throws IOException {
+        final File file = folder.newFile("macros.shm");
+        final SharedMacroStore writer = new SharedMacroStore(file);
+        final SharedMacroStore reader = new SharedMacroStore(file);
+        writer.write(macros(1));
+        writeSequence(file, readSequence(file) + 1);
+
+        final List<Macro> macros = macros(2);
+        writer.write(macros);
+        assertEquals(0, readSequence(file) & 1);
+        assertEquals(macros, reader.poll());
+    }
+
+    @Test
+    public void dataWithAWrongChecksumIsRejected() throws IOException {
+        final File file = folder.newFile("macros.shm");
+        final SharedMacroStore writer = new SharedMacroStore(file);
+        final SharedMacroStore reader = new SharedMacroStore(file);
+        writer.write(macros(3));
+
+        // Looks like a completed write, but the data does not match its checksum, like a torn copy.
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            raw.seek(DATA_OFFSET + 10);
+            final int value = raw.read();
+            raw.seek(DATA_OFFSET + 10);
+            raw.write(value ^ 0x20);
+        }
+        writeSequence(file, readSequence(file) + 2);
+        assertNull(reader.poll());
+        try {
+            reader.read();
+            fail("Read corrupt data");
+        } catch (final IOException e) {
+            assertEquals("Corrupt shared macro store", e.getMessage());
+        }
+    }
+
+    @Test
+    public void clientsFollowWhenTheFileGrows() throws IOException {
+        final File file = folder.newFile("macros.shm");
+        final SharedMacroStore writer = new SharedMacroStore(file);
+        final SharedMacroStore reader = new SharedMacroStore(file);
+        final long initialSize = file.length();
+        writer.write(macros(1));
+        assertEquals(1, reader.poll().size());
+
+        final List<Macro> macros = macros(5000);
+        writer.write(macros);
+        assertTrue(file.length() > initialSize);
+        assertEquals(macros, reader.poll());
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreNotOpened() throws IOException {
+        final File file = folder.newFile("macros.dat");
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            raw.write(new byte[128]);
+        }
+        new SharedMacroStore(file);
+    }
+
+    /**
+     * Creates macros.
+     *
+     * @param count The number of macros.
+     *
+     * @return The macros.
+     */
+    private static List<Macro> macros(final int count) {
+        final List<Macro> macros = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            macros.add(new Macro("group" + i % 7, false, i % 2 == 0, 2 + i % 50, 50 * (i % 4),
+                    new ArrayList<>(Arrays.asList("/say macro " + i, "/spawn"))));
+        }
+        return macros;
+    }
+
+    /**
+     * Reads the sequence from the file.
+     *
+     * @param file The file.
+     *
+     * @return The sequence.
+     *
+     * @throws IOException If reading fails.
+     */
+    private static long readSequence(final File file) throws IOException {
+        try (RandomAccessFile raw = new RandomAccessFile(file, "r")) {
+            raw.seek(SEQUENCE_OFFSET);
+            return raw.readLong();
+        }
+    }
+
+    /**
+     * Overwrites the sequence in the file.
+     *
+     * @param file The file.
+     * @param sequence The sequence.
+     *
+     * @throws IOException If writing fails.
+     */
+    private static void writeSequence(final File file, final long sequence) throws IOException {
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            raw.seek(SEQUENCE_OFFSET);
+            raw.writeLong(sequence);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package nge.lk.mods.simplemacros;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests limiting the work per tick with a {@link TickBudget}.
+ */
+public class TickBudgetTest {
+
+    @Test
+    public void workStopsAtTheUnitLimit() {
+        final TickBudget budget = new TickBudget(0, 3);
+        budget.begin();
+
+        assertTrue(budget.tryAcquire(true));
+        assertTrue(budget.tryAcquire(false));
+        assertTrue(budget.tryAcquire(false));
+        assertFalse(budget.isOverrun());
+        assertFalse(budget.tryAcquire(false));
+        assertTrue(budget.isOverrun());
+        assertEquals(3, budget.getUsed());
+    }
+
+    @Test
+    public void workStopsWhenTheTimeIsUp() throws InterruptedException {
+        final TickBudget budget = new TickBudget(TimeUnit.MILLISECONDS.toNanos(1), 0);
+        budget.begin();
+        assertTrue(budget.tryAcquire(false));
+
+        Thread.sleep(5);
+        assertFalse(budget.tryAcquire(false));
+        assertTrue(budget.isOverrun());
+        assertEquals(1, budget.getUsed());
+    }
+
+    @Test
+    public void theFirstUnitOfEachConsumerIsAlwaysGranted() throws InterruptedException {
+        final TickBudget units = new TickBudget(0, 1);
+        units.begin();
+        assertTrue(units.tryAcquire(true));
+        assertFalse(units.tryAcquire(false));
+        // Another consumer, e.g. the chat pacer after the scheduler.
+        assertTrue(units.tryAcquire(true));
+        assertEquals(2, units.getUsed());
+
+        final TickBudget time = new TickBudget(1, 0);
+        time.begin();
+        Thread.sleep(1);
+        assertFalse(time.tryAcquire(false));
+        assertTrue(time.tryAcquire(true));
+    }
+
+    @Test
+    public void eachTickStartsWithAFullBudget() {
+        final TickBudget budget = new TickBudget(0, 1);
+        budget.begin();
+        budget.tryAcquire(true);
+        assertFalse(budget.tryAcquire(false));
+
+        budget.begin();
+        assertFalse(budget.isOverrun());
+        assertEquals(0, budget.getUsed());
+        assertTrue(budget.tryAcquire(false));
+    }
+
+    @Test
+    public void budgetsWithoutLimitsGrantEverything() {
+        final TickBudget budget = new TickBudget(0, 0);
+        budget.begin();
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(budget.tryAcquire(false));
+        }
+        assertFalse(budget.isOverrun());
+        assertEquals(10000, budget.getUsed());
+    }
+}
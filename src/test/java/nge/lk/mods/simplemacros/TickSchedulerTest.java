@@ -0,0 +1,349 @@
+package nge.lk.mods.simplemacros;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the timing wheel of {@link TickScheduler}.
+ */
+public class TickSchedulerTest {
+
+    /**
+     * The scheduler under test.
+     */
+    private final TickScheduler scheduler = new TickScheduler();
+
+    /**
+     * The tasks which ran, in their order.
+     */
+    private final List<Probe> ran = new ArrayList<>();
+
+    @Test
+    public void tasksOfTheSameTickRunInSchedulingOrder() {
+        final Probe first = schedule("first", 5);
+        final Probe second = schedule("second", 5);
+        final Probe third = schedule("third", 5);
+
+        scheduler.advanceTo(4);
+        assertEquals(0, ran.size());
+        scheduler.advanceTo(5);
+        assertEquals(Arrays.asList(first, second, third), ran);
+        assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    public void tasksRunInTheirTickRegardlessOfSchedulingOrder() {
+        final Probe late = schedule("late", 9);
+        final Probe early = schedule("early", 3);
+        final Probe middle = schedule("middle", 6);
+
+        scheduler.advanceTo(20);
+        assertEquals(Arrays.asList(early, middle, late), ran);
+        assertRanInTheirTicks();
+    }
+
+    @Test
+    public void tasksAreCascadedThroughAllLevels() {
+        // Distances around the boundaries of the root wheel (2^8) and the overflow levels (2^14, 2^20, 2^26).
+        final long[] ticks = {1, 255, 256, 257, 300, (1 << 14) - 1, 1 << 14, (1 << 14) + 1, (1 << 20) - 1, 1 << 20,
+                (1 << 20) + 77, (1 << 26) - 1, 1 << 26, (1 << 26) + 12345};
+        // Scheduled in reverse, so the order of the results depends on the wheel only.
+        for (int i = ticks.length - 1; i >= 0; i--) {
+            schedule(Long.toString(ticks[i]), ticks[i]);
+        }
+
+        scheduler.advanceTo(ticks[ticks.length - 1]);
+        assertEquals(ticks.length, ran.size());
+        for (int i = 0; i < ticks.length; i++) {
+            assertEquals(ticks[i], ran.get(i).ranAt);
+        }
+        assertRanInTheirTicks();
+    }
+
+    @Test
+    public void cascadingKeepsTheOrderOfTasksWithinATick() {
+        final long tick = (1 << 20) + (1 << 14) + 300;
+        // Each task is scheduled closer to the tick, so they start in levels 2, 1, 0 and the root wheel.
+        final Probe first = schedule("first", tick);
+        scheduler.advanceTo(tick - (1 << 14) - 5);
+        final Probe second = schedule("second", tick);
+        scheduler.advanceTo(tick - 1000);
+        final Probe third = schedule("third", tick);
+        scheduler.advanceTo(tick - 10);
+        final Probe fourth = schedule("fourth", tick);
+
+        scheduler.advanceTo(tick);
+        assertEquals(Arrays.asList(first, second, third, fourth), ran);
+    }
+
+    @Test
+    public void tasksForTheCurrentOrAPastTickRunOnTheNextAdvance() {
+        scheduler.advanceTo(10);
+        final Probe current = schedule("current", 10);
+        final Probe past = schedule("past", 4);
+        assertEquals(2, scheduler.getReadyCount());
+        assertEquals(0, ran.size());
+
+        final Probe next = schedule("next", 11);
+        scheduler.advanceTo(11);
+        // Overdue tasks run first and see the tick they actually run in.
+        assertEquals(Arrays.asList(current, past, next), ran);
+        assertEquals(11, current.ranAt);
+        assertEquals(11, past.ranAt);
+        assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    public void overdueTasksRunWhenAdvancingToTheCurrentTick() {
+        scheduler.advanceTo(10);
+        final Probe overdue = schedule("overdue", 3);
+
+        scheduler.advanceTo(10);
+        assertEquals(Arrays.asList(overdue), ran);
+        assertEquals(10, overdue.ranAt);
+    }
+
+    @Test
+    public void tasksScheduledForTheRunningTickRunInTheSameAdvance() {
+        final Probe followUp = new Probe("followUp");
+        final Probe trigger = new Probe("trigger") {
+            @Override
+            public void run() {
+                super.run();
+                scheduler.schedule(followUp, scheduler.getCurrentTick());
+            }
+        };
+        scheduler.schedule(trigger, 7);
+        final Probe later = schedule("later", 8);
+
+        scheduler.advanceTo(8);
+        assertEquals(Arrays.asList(trigger, followUp, later), ran);
+        assertEquals(7, followUp.ranAt);
+    }
+
+    @Test
+    public void skippingAheadWithoutTasksKeepsTheWheelConsistent() {
+        scheduler.advanceTo(1_000_000);
+        assertEquals(1_000_000, scheduler.getCurrentTick());
+        final Probe probe = schedule("probe", 1_000_300);
+
+        scheduler.advanceTo(1_000_299);
+        assertEquals(0, ran.size());
+        scheduler.advanceTo(1_000_300);
+        assertEquals(Arrays.asList(probe), ran);
+    }
+
+    @Test
+    public void cancelledTasksStopWithoutRescheduling() {
+        // Tasks are cancelled lazily, like macro executions: they stay in their bucket and do nothing when they run.
+        final Repeating repeating = new Repeating(3);
+        scheduler.schedule(repeating, 3);
+        final Repeating cancelledEarly = new Repeating(5);
+        scheduler.schedule(cancelledEarly, 100_000);
+        cancelledEarly.cancelled = true;
+
+        scheduler.advanceTo(9);
+        assertEquals(3, repeating.runs);
+        repeating.cancelled = true;
+        scheduler.advanceTo(100_000);
+        assertEquals(3, repeating.runs);
+        assertEquals(0, cancelledEarly.runs);
+        assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    public void budgetDefersTasksInOrder() {
+        final Probe first = schedule("first", 1);
+        final Probe second = schedule("second", 1);
+        final Probe third = schedule("third", 2);
+        final TickBudget budget = new TickBudget(0, 1);
+
+        budget.begin();
+        scheduler.advanceTo(2, budget);
+        assertEquals(Arrays.asList(first), ran);
+        assertEquals(2, scheduler.getReadyCount());
+
+        budget.begin();
+        scheduler.advanceTo(3, budget);
+        budget.begin();
+        scheduler.advanceTo(4, budget);
+        assertEquals(Arrays.asList(first, second, third), ran);
+        assertEquals(4, third.ranAt);
+    }
+
+    @Test
+    public void manyPendingTasksRunInOrderAndInTheirTicks() {
+        final Random random = new Random(42);
+        final int count = 150_000;
+        final long horizon = 2_000_000;
+        for (int i = 0; i < count; i++) {
+            schedule(null, 1 + (long) (random.nextDouble() * horizon));
+        }
+        assertEquals(count, scheduler.size());
+
+        // Advance in uneven steps, like a client that lags now and then.
+        long tick = 0;
+        while (tick < horizon) {
+            tick = Math.min(horizon, tick + 1 + random.nextInt(40));
+            scheduler.advanceTo(tick);
+        }
+        assertEquals(count, ran.size());
+        assertEquals(0, scheduler.size());
+        assertRanInTheirTicks();
+        for (int i = 1; i < ran.size(); i++) {
+            assertTrue(ran.get(i - 1).getTick() <= ran.get(i).getTick());
+        }
+    }
+
+    @Test
+    public void costPerTickDoesNotGrowWithPendingTasks() {
+        // Only a few tasks are due per tick, the rest waits far in the future.
+        final long few = bestTimePerTick(100);
+        final long many = bestTimePerTick(150_000);
+        assertTrue("100 pending: " + few + "ns/tick, 150000 pending: " + many + "ns/tick", many < few * 8 + 2000);
+    }
+
+    /**
+     * Measures advancing through ticks with one due task each and a number of tasks pending far in the future.
+     *
+     * @param pending The number of pending tasks.
+     *
+     * @return The best time per tick in nanoseconds over a few rounds.
+     */
+    private static long bestTimePerTick(final int pending) {
+        final int ticks = 20_000;
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            final TickScheduler wheel = new TickScheduler();
+            final Random random = new Random(round);
+            for (int i = 0; i < pending; i++) {
+                wheel.schedule(new Noop(), ticks + 1 + random.nextInt(1 << 24));
+            }
+            for (int i = 1; i <= ticks; i++) {
+                wheel.schedule(new Noop(), i);
+            }
+            final long start = System.nanoTime();
+            for (int i = 1; i <= ticks; i++) {
+                wheel.advanceTo(i);
+            }
+            best = Math.min(best, (System.nanoTime() - start) / ticks);
+            assertEquals(pending, wheel.size());
+        }
+        return best;
+    }
+
+    /**
+     * Schedules a probe.
+     *
+     * @param name The name of the probe.
+     * @param tick The tick to schedule it for.
+     *
+     * @return The probe.
+     */
+    private Probe schedule(final String name, final long tick) {
+        final Probe probe = new Probe(name);
+        scheduler.schedule(probe, tick);
+        return probe;
+    }
+
+    /**
+     * Checks that each task ran in the tick it was scheduled for.
+     */
+    private void assertRanInTheirTicks() {
+        for (final Probe probe : ran) {
+            assertEquals(probe.name, probe.getTick(), probe.ranAt);
+        }
+    }
+
+    /**
+     * A task which records when it ran.
+     */
+    private class Probe extends TickScheduler.Task {
+
+        /**
+         * The name for assertion messages.
+         */
+        private final String name;
+
+        /**
+         * The tick in which the task ran, -1 if it did not run.
+         */
+        private long ranAt = -1;
+
+        /**
+         * Constructor.
+         *
+         * @param name The name for assertion messages.
+         */
+        private Probe(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            ranAt = scheduler.getCurrentTick();
+            ran.add(this);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * A task which does nothing.
+     */
+    private static class Noop extends TickScheduler.Task {
+
+        @Override
+        public void run() {
+        }
+    }
+
+    /**
+     * A task which reschedules itself until it is cancelled.
+     */
+    private class Repeating extends TickScheduler.Task {
+
+        /**
+         * The interval in ticks.
+         */
+        private final int interval;
+
+        /**
+         * The number of runs.
+         */
+        private int runs;
+
+        /**
+         * Whether the task was cancelled.
+         */
+        private boolean cancelled;
+
+        /**
+         * Constructor.
+         *
+         * @param interval The interval in ticks.
+         */
+        private Repeating(final int interval) {
+            this.interval = interval;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            runs++;
+            scheduler.schedule(this, scheduler.getCurrentTick() + interval);
+        }
+    }
+}